@@ -0,0 +1,79 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import edu.eci.arep.docker.annotations.RestController;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing and response writing for controller endpoints and each kind of
+ * static asset, without the network, plus the MIME lookup.
+ *
+ * @author Jaider Vargas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @State(Scope.Thread)
+    public static class Dispatch {
+
+        @Param({"/app/greeting?name=Jaider", "/app/users/42", "/index.html", "/styles.css", "/code.js", "/james.jpg", "/missing.html"})
+        public String target;
+
+        @Param({"identity", "gzip"})
+        public String encoding;
+
+        HttpRequest request;
+        final OutputStream out = OutputStream.nullOutputStream();
+
+        @Setup
+        public void setup() throws Exception {
+            String[] controllers = FindControllers.find("edu.eci.arep.docker.controller", RestController.class)
+                    .stream().map(Class::getName).toArray(String[]::new);
+            HttpServer.loadServices(controllers);
+            HttpServer.staticfiles("static");
+            byte[] head = ("GET " + target + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: " + encoding + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            request = new HttpRequest();
+            HttpRequestParser.parse(head, 0, head.length, request);
+            request.keepAlive = true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Mime {
+
+        @Param({"index.html", "james.jpg", "archive.tar.gz"})
+        public String fileName;
+    }
+
+    @Benchmark
+    public void dispatch(Dispatch s) throws IOException {
+        HttpServer.dispatch(s.request, s.out);
+    }
+
+    @Benchmark
+    public String getMymeType(Mime s) {
+        return HttpServer.getMymeType(s.fileName);
+    }
+}
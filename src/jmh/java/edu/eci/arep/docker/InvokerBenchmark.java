@@ -0,0 +1,63 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import edu.eci.arep.docker.annotations.RequestParam;
+import edu.eci.arep.docker.controller.HelloRestController;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Controller dispatch: the old per-call reflection against the invoker
+ * compiled by {@link RouteInvoker}.
+ *
+ * @author Jaider Vargas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    private Method method;
+    private RouteInvoker invoker;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        method = HelloRestController.class.getMethod("greeting", String.class);
+        invoker = RouteInvoker.compile(method, null);
+        byte[] head = "GET /app/greeting?name=Jaider HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        request = new HttpRequest();
+        HttpRequestParser.parse(head, 0, head.length, request);
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        // What invokeService used to do on every request.
+        RequestParam rp = (RequestParam) method.getParameterAnnotations()[0][0];
+        String value = request.getQueryParam(rp.value());
+        return method.invoke(null, new Object[]{value == null ? rp.defaultValue() : value});
+    }
+
+    @Benchmark
+    public Object compiled() throws Exception {
+        return invoker.invoke(request);
+    }
+}
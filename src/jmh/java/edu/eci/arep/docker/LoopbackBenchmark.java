@@ -0,0 +1,171 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import edu.eci.arep.docker.annotations.RestController;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end over loopback: each benchmark thread keeps one keep-alive
+ * connection to a server started in the benchmark JVM and sends one request
+ * at a time. Throughput gives requests per second; sample time gives the
+ * latency percentiles.
+ *
+ * @author Jaider Vargas
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LoopbackBenchmark {
+
+    private static final int PORT = Integer.getInteger("bench.port", 9400);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"BLOCKING", "NIO"})
+        public IoMode ioMode;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            String[] controllers = FindControllers.find("edu.eci.arep.docker.controller", RestController.class)
+                    .stream().map(Class::getName).toArray(String[]::new);
+            HttpServer.staticfiles("static");
+            HttpServer.port(PORT);
+            HttpServer.ioMode(ioMode);
+            HttpServer.keepAlive(5000, Integer.MAX_VALUE);
+            Thread server = new Thread(() -> {
+                try {
+                    HttpServer.runServer(controllers);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, "server");
+            server.setDaemon(true);
+            server.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (true) {
+                try (Socket probe = new Socket("localhost", PORT)) {
+                    return;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            HttpServer.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        @Param({"/app/greeting?name=Jaider", "/index.html"})
+        public String target;
+
+        private byte[] request;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            request = ("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            open();
+        }
+
+        private void open() throws IOException {
+            socket = new Socket("localhost", PORT);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        int exchange() throws IOException {
+            try {
+                out.write(request);
+                return readResponse();
+            } catch (IOException e) {
+                // The server may close an idle or exhausted connection; retry once.
+                socket.close();
+                open();
+                out.write(request);
+                return readResponse();
+            }
+        }
+
+        /**
+         * Reads one response and returns its status.
+         */
+        private int readResponse() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int status = -1;
+            long length = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                if (b != '\n') {
+                    if (b != '\r') {
+                        line.append((char) b);
+                    }
+                    continue;
+                }
+                if (line.length() == 0) {
+                    break;
+                }
+                String header = line.toString();
+                if (status < 0) {
+                    status = Integer.parseInt(header.substring(9, 12));
+                } else if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+                line.setLength(0);
+            }
+            in.skipNBytes(length);
+            return status;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int request(Client client) throws IOException {
+        return client.exchange();
+    }
+}
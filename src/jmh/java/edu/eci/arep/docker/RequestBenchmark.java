@@ -0,0 +1,104 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request head parsing as {@code handleClient} and the NIO loop do it, and
+ * query parameter lookup.
+ *
+ * @author Jaider Vargas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final int PIPELINED = 64;
+
+    @Param({"minimal", "browser"})
+    public String head;
+
+    private byte[] bytes;
+    private byte[] pipelined;
+    private HttpRequest request;
+    private HttpRequestParser parser;
+
+    @Setup
+    public void setup() {
+        String text = head.equals("minimal")
+                ? "GET /app/greeting?name=Jaider HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                : "GET /app/greeting?lang=es&name=J%C3%BAlio+C%C3%A9sar&page=2 HTTP/1.1\r\n"
+                + "Host: localhost:9000\r\n"
+                + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/128.0\r\n"
+                + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                + "Accept-Language: es-CO,es;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+                + "Accept-Encoding: gzip, deflate, br\r\n"
+                + "Referer: http://localhost:9000/index.html\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Cookie: session=4f9c1e2a7b; theme=dark\r\n"
+                + "Sec-Fetch-Dest: empty\r\n"
+                + "Sec-Fetch-Mode: cors\r\n"
+                + "Sec-Fetch-Site: same-origin\r\n\r\n";
+        bytes = text.getBytes(StandardCharsets.US_ASCII);
+        pipelined = new byte[bytes.length * PIPELINED];
+        for (int i = 0; i < PIPELINED; i++) {
+            System.arraycopy(bytes, 0, pipelined, i * bytes.length, bytes.length);
+        }
+        request = new HttpRequest();
+        HttpRequestParser.parse(bytes, 0, bytes.length, request);
+        parser = new HttpRequestParser();
+    }
+
+    /**
+     * Offsets only, over a buffer that already holds the head (NIO).
+     */
+    @Benchmark
+    public boolean parse() {
+        return HttpRequestParser.parse(bytes, 0, bytes.length, request);
+    }
+
+    /**
+     * Pipelined heads read from a buffered stream (blocking mode).
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public void read(Blackhole bh) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(pipelined));
+        for (int i = 0; i < PIPELINED; i++) {
+            bh.consume(parser.read(in));
+        }
+    }
+
+    /**
+     * Scans and decodes the query on every call; nothing is cached between
+     * lookups of a single parameter.
+     */
+    @Benchmark
+    public String getValue() {
+        return request.getValue("name");
+    }
+}
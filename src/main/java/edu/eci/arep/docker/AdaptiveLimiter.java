@@ -0,0 +1,80 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit that follows the observed latency, AIMD style: while
+ * requests finish within the target and the limit is actually being used, it
+ * grows by one per request; when a request is slower than the target it is
+ * cut by 10%, at most once per target interval so a single burst of slow
+ * responses does not collapse it. Requests over the limit are shed rather
+ * than queued.
+ *
+ * @author Jaider Vargas
+ */
+final class AdaptiveLimiter {
+
+    private static final double BACKOFF = 0.9;
+
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger limit;
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+    AdaptiveLimiter(int initial, int min, int max, long targetNanos) {
+        this.min = min;
+        this.max = max;
+        this.targetNanos = targetNanos;
+        this.limit = new AtomicInteger(Math.max(min, Math.min(max, initial)));
+    }
+
+    /**
+     * @return whether the request may run; if so, {@link #release} must
+     * follow
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if (n >= limit.get()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param nanos how long the request took
+     */
+    void release(long nanos) {
+        int n = inFlight.getAndDecrement();
+        int current = limit.get();
+        if (nanos > targetNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last >= targetNanos && lastDecrease.compareAndSet(last, now)) {
+                limit.compareAndSet(current, Math.max(min, (int) (current * BACKOFF)));
+            }
+        } else if (2 * n >= current && current < max) {
+            // Only grow while at least half the limit is in use; an idle
+            // server learns nothing about its capacity.
+            limit.compareAndSet(current, current + 1);
+        }
+    }
+
+    int limit() {
+        return limit.get();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+}
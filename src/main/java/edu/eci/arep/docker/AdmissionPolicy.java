@@ -0,0 +1,20 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+/**
+ * What {@link HttpServer} does with new work once its bounded queue is full.
+ *
+ * @author Jaider Vargas
+ */
+public enum AdmissionPolicy {
+    /** Answer at once with {@code 503 Service Unavailable} and {@code Retry-After}. */
+    REJECT,
+    /**
+     * Stop accepting (and, in NIO mode, stop reading) until there is room, so
+     * clients wait in the kernel's accept backlog and TCP buffers instead.
+     */
+    BLOCK
+}
@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.function.IntConsumer;
+
+/**
+ * Request body bytes on their way from the thread that reads the socket to
+ * the handler reading them on a worker. The producer hands over buffers as
+ * they arrive and never waits; it is told how much is queued, and is
+ * expected to stop reading while that is over its bound. The consumer is
+ * told of every read through {@code onRead}, which is where the producer is
+ * asked to go on. So the heap holds at most about one bound's worth of a
+ * body, however large the upload.
+ *
+ * @author Jaider Vargas
+ */
+final class BodyPipe extends InputStream {
+
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    // Takes back drained buffers; null when they are left to the GC.
+    private final BufferPool pool;
+    private final IntConsumer onRead;
+    private int queued;
+    private boolean ended;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * @param pool where buffers go once read, or {@code null}
+     * @param onRead called on the consumer's thread with the bytes of each
+     * read, outside any lock
+     */
+    BodyPipe(BufferPool pool, IntConsumer onRead) {
+        this.pool = pool;
+        this.onRead = onRead;
+    }
+
+    /**
+     * Queues {@code data}, which the pipe now owns.
+     *
+     * @return {@code false} if the consumer has closed the pipe, in which
+     * case the data was dropped
+     */
+    synchronized boolean offer(ByteBuffer data) {
+        if (closed || ended || failure != null) {
+            recycle(data);
+            return false;
+        }
+        queued += data.remaining();
+        chunks.add(data);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Marks the end of the body, after the last {@link #offer}.
+     */
+    synchronized void end() {
+        ended = true;
+        notifyAll();
+    }
+
+    /**
+     * Makes the consumer's next read throw {@code e} once the queued bytes
+     * are gone; a body that cannot be completed any more.
+     */
+    synchronized void fail(IOException e) {
+        if (!ended && failure == null) {
+            failure = e;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the bytes offered and not yet read
+     */
+    synchronized int queued() {
+        return queued;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        synchronized (this) {
+            while (chunks.isEmpty()) {
+                if (closed) {
+                    throw new IOException("Body closed");
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading the request body");
+                }
+            }
+            while (n < len && !chunks.isEmpty()) {
+                ByteBuffer chunk = chunks.peek();
+                int k = Math.min(len - n, chunk.remaining());
+                chunk.get(b, off + n, k);
+                n += k;
+                if (!chunk.hasRemaining()) {
+                    recycle(chunks.poll());
+                }
+            }
+            queued -= n;
+        }
+        onRead.accept(n);
+        return n;
+    }
+
+    @Override
+    public synchronized int available() {
+        return queued;
+    }
+
+    /**
+     * Drops whatever is queued; later offers are dropped too.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        ByteBuffer chunk;
+        while ((chunk = chunks.poll()) != null) {
+            recycle(chunk);
+        }
+        queued = 0;
+        notifyAll();
+    }
+
+    private void recycle(ByteBuffer chunk) {
+        if (pool != null) {
+            pool.release(chunk);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body as the handler reads it: the bytes of one request taken
+ * from the connection's input, as they arrive, and no further. A
+ * {@code Content-Length} body ends after that many bytes and a chunked one
+ * at its last chunk, so whatever follows stays in the input for the next
+ * request; an HTTP/2 body ends with its stream. Chunk framing and trailers
+ * are stripped. Bodies over the server's limit fail with {@code 413}, and
+ * malformed or truncated ones with {@code 400}, as a
+ * {@link HttpRequestParser.BadRequestException} the server answers with.
+ *
+ * @author Jaider Vargas
+ */
+final class BodyStream extends InputStream {
+
+    /** Length of a body in chunked transfer coding. */
+    static final long CHUNKED = -1;
+    /** Length of a body that ends with its source. */
+    static final long UNTIL_END = -2;
+
+    private static final int MAX_LINE = 4096;
+    private static final byte[] CONTINUE = ResponseHeads.ascii("HTTP/1.1 100 Continue\r\n\r\n");
+
+    private final InputStream source;
+    private final long length;
+    private final long maxBytes;
+    // Run once the whole body has been read; may be null.
+    private final Runnable onEnd;
+    // Bytes left in the body, or in the current chunk.
+    private long remaining;
+    private long total;
+    private boolean done;
+    // Where a 100 Continue goes before the first read, once asked for.
+    private OutputStream interim;
+
+    /**
+     * @param length the {@code Content-Length}, {@link #CHUNKED} or
+     * {@link #UNTIL_END}
+     * @param maxBytes bytes read before the body is refused
+     */
+    BodyStream(InputStream source, long length, long maxBytes, Runnable onEnd) {
+        this.source = source;
+        this.length = length;
+        this.maxBytes = maxBytes;
+        this.onEnd = onEnd;
+        this.remaining = Math.max(0, length);
+        if (length == 0) {
+            done = true;
+        }
+    }
+
+    /**
+     * @return the declared length, or a negative value if the body is
+     * chunked or ends with its stream
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Sends {@code 100 Continue} to {@code out} when the body is first read,
+     * for a client that waits for it before sending the body.
+     */
+    void expectContinue(OutputStream out) {
+        if (length != UNTIL_END && !done) {
+            interim = out;
+        }
+    }
+
+    /**
+     * @return whether the whole body has been read
+     */
+    boolean finished() {
+        return done;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (done) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (interim != null) {
+            OutputStream out = interim;
+            interim = null;
+            out.write(CONTINUE);
+            out.flush();
+        }
+        if (length == CHUNKED && remaining == 0 && !nextChunk()) {
+            finish();
+            return -1;
+        }
+        int n = source.read(b, off, length == UNTIL_END ? len : (int) Math.min(len, remaining));
+        if (n < 0) {
+            if (length == UNTIL_END) {
+                finish();
+                return -1;
+            }
+            throw ended();
+        }
+        total += n;
+        if (total > maxBytes) {
+            throw tooLarge();
+        }
+        if (length != UNTIL_END) {
+            remaining -= n;
+            if (remaining == 0) {
+                if (length == CHUNKED) {
+                    expectCrlf();
+                } else {
+                    finish();
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (done || interim != null || (length == CHUNKED && remaining == 0)) {
+            return 0;
+        }
+        int n = source.available();
+        return length == UNTIL_END ? n : (int) Math.min(n, remaining);
+    }
+
+    /**
+     * Reads and drops the rest of the body.
+     */
+    void skipRemaining() throws IOException {
+        // A client waiting for 100 Continue has not sent a body to skip.
+        interim = null;
+        byte[] scratch = new byte[8192];
+        while (read(scratch, 0, scratch.length) >= 0) {
+            // Dropped.
+        }
+    }
+
+    private void finish() {
+        done = true;
+        if (onEnd != null) {
+            onEnd.run();
+        }
+    }
+
+    /**
+     * Reads a chunk-size line.
+     *
+     * @return {@code false} at the last chunk, once its trailers are read
+     */
+    private boolean nextChunk() throws IOException {
+        String line = readLine();
+        int end = line.indexOf(';');
+        String size = (end < 0 ? line : line.substring(0, end)).trim();
+        if (size.isEmpty() || size.length() > 15) {
+            throw malformed();
+        }
+        long n = 0;
+        for (int i = 0; i < size.length(); i++) {
+            int d = Character.digit(size.charAt(i), 16);
+            if (d < 0) {
+                throw malformed();
+            }
+            n = n << 4 | d;
+        }
+        if (n == 0) {
+            // Trailers, which are not passed on.
+            while (!readLine().isEmpty()) {
+                // Dropped.
+            }
+            return false;
+        }
+        if (total + n > maxBytes) {
+            throw tooLarge();
+        }
+        remaining = n;
+        return true;
+    }
+
+    private void expectCrlf() throws IOException {
+        if (!readLine().isEmpty()) {
+            throw malformed();
+        }
+    }
+
+    /**
+     * @return a line of chunk framing, without its line break
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int c = source.read();
+            if (c < 0) {
+                throw ended();
+            }
+            if (c == '\n') {
+                int last = line.length() - 1;
+                if (last >= 0 && line.charAt(last) == '\r') {
+                    line.setLength(last);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE) {
+                throw malformed();
+            }
+            line.append((char) c);
+        }
+    }
+
+    private static HttpRequestParser.BadRequestException ended() {
+        return new HttpRequestParser.BadRequestException("Request body ended early", HttpServer.BAD_REQUEST);
+    }
+
+    private static HttpRequestParser.BadRequestException malformed() {
+        return new HttpRequestParser.BadRequestException("Malformed chunked body", HttpServer.BAD_REQUEST);
+    }
+
+    private static HttpRequestParser.BadRequestException tooLarge() {
+        return new HttpRequestParser.BadRequestException("Request body too large", HttpServer.PAYLOAD_TOO_LARGE);
+    }
+}
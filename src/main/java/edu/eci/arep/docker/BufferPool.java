@@ -0,0 +1,80 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free, bounded pool of equally sized buffers. Slots are striped by
+ * thread, so threads mostly take back the buffers they returned and rarely
+ * touch the same slot. When the probed slots are empty a new buffer is
+ * allocated; when they are full a returned buffer is left to the GC, so the
+ * pool never holds more than its slot count.
+ *
+ * @author Jaider Vargas
+ */
+final class BufferPool {
+
+    // Probes per acquire or release before giving up on the pool.
+    private static final int PROBES = 4;
+
+    /** Direct buffers for socket writes, in both I/O modes. */
+    static final BufferPool OUTPUT = new BufferPool(16 * 1024, true);
+    /** Heap buffers for NIO request heads, which are parsed in place. */
+    static final BufferPool HEADS = new BufferPool(HttpRequestParser.MAX_HEAD_BYTES, false);
+
+    final int bufferSize;
+    private final boolean direct;
+    private final AtomicReferenceArray<ByteBuffer> slots;
+    private final int mask;
+    final LongAdder allocated = new LongAdder();
+
+    BufferPool(int bufferSize, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        int slotCount = Integer.highestOneBit(Math.max(64, Runtime.getRuntime().availableProcessors() * 8) - 1) << 1;
+        slots = new AtomicReferenceArray<>(slotCount);
+        mask = slotCount - 1;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #bufferSize} bytes
+     */
+    ByteBuffer acquire() {
+        int start = stripe();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            ByteBuffer buf = slots.get(slot);
+            if (buf != null && slots.compareAndSet(slot, buf, null)) {
+                return buf.clear();
+            }
+        }
+        allocated.increment();
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer taken from this pool. It must not be used afterwards.
+     */
+    void release(ByteBuffer buf) {
+        if (buf == null || buf.capacity() != bufferSize || buf.isDirect() != direct) {
+            return;
+        }
+        int start = stripe();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, buf)) {
+                return;
+            }
+        }
+    }
+
+    private static int stripe() {
+        int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
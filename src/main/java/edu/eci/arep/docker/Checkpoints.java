@@ -0,0 +1,75 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * Hooks into CRaC (Coordinated Restore at Checkpoint) when the JVM has it.
+ * A checkpoint cannot be taken with sockets open, so the server closes them
+ * before and opens them again after a restore. The API is looked up
+ * reflectively, {@code jdk.crac} first and then the {@code org.crac}
+ * facade, so nothing is needed on other JVMs, where registering does
+ * nothing.
+ *
+ * @author Jaider Vargas
+ */
+final class Checkpoints {
+
+    /**
+     * A step run around a checkpoint; a failure aborts the checkpoint or
+     * the restore.
+     */
+    interface Hook {
+
+        void run() throws Exception;
+    }
+
+    // The CRaC context only holds its resources weakly.
+    private static Object resource;
+
+    private Checkpoints() {
+    }
+
+    /**
+     * @return whether a CRaC implementation took the hooks
+     */
+    static synchronized boolean register(Hook beforeCheckpoint, Hook afterRestore) {
+        for (String api : new String[]{"jdk.crac", "org.crac"}) {
+            try {
+                Class<?> core = Class.forName(api + ".Core");
+                Class<?> resourceType = Class.forName(api + ".Resource");
+                Object context = core.getMethod("getGlobalContext").invoke(null);
+                InvocationHandler handler = (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "beforeCheckpoint":
+                            beforeCheckpoint.run();
+                            return null;
+                        case "afterRestore":
+                            afterRestore.run();
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return "Checkpoints.Resource";
+                    }
+                };
+                Object r = Proxy.newProxyInstance(Checkpoints.class.getClassLoader(), new Class<?>[]{resourceType}, handler);
+                Class.forName(api + ".Context").getMethod("register", resourceType).invoke(context, r);
+                resource = r;
+                return true;
+            } catch (ClassNotFoundException e) {
+                // Not this API; try the next one.
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.println("Could not register the CRaC hooks: " + e);
+                return false;
+            }
+        }
+        return false;
+    }
+}
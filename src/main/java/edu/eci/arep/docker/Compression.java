@@ -0,0 +1,104 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation and the gzip/deflate encoders used for
+ * static files and controller responses.
+ *
+ * @author Jaider Vargas
+ */
+final class Compression {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private Compression() {
+    }
+
+    /**
+     * Picks the coding the client prefers among the ones we produce, gzip
+     * winning ties.
+     *
+     * @return {@link #GZIP}, {@link #DEFLATE} or {@code null} for identity
+     */
+    static String negotiate(HttpRequest req) {
+        String accept = req.getHeader("accept-encoding");
+        if (accept == null) {
+            return null;
+        }
+        double gzip = 0;
+        double deflate = 0;
+        double any = -1;
+        for (String part : accept.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        if (any > 0 && !accept.contains("gzip")) {
+            gzip = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Whether compressing this type is worth it; images, video and archives
+     * are already compressed.
+     */
+    static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json")
+                || mimeType.endsWith("+xml")
+                || mimeType.equals("application/xml");
+    }
+
+    static OutputStream encoder(String coding, OutputStream out) throws IOException {
+        return GZIP.equals(coding) ? new GZIPOutputStream(out, 8192) : new DeflaterOutputStream(out);
+    }
+
+    /**
+     * An encoder whose {@code flush()} pushes out everything written so far,
+     * for responses streamed to the client as they are produced.
+     */
+    static OutputStream flushingEncoder(String coding, OutputStream out) throws IOException {
+        return GZIP.equals(coding) ? new GZIPOutputStream(out, 8192, true) : new DeflaterOutputStream(out, new Deflater(), 8192, true);
+    }
+
+    static byte[] encode(String coding, byte[] data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (OutputStream z = encoder(coding, buf)) {
+            z.write(data);
+        }
+        return buf.toByteArray();
+    }
+}
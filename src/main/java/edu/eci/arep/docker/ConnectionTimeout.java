@@ -0,0 +1,41 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a connection's deadline is waiting for, counted when it expires.
+ *
+ * @author Jaider Vargas
+ */
+enum ConnectionTimeout {
+    /** A request head; answered {@code 408}. */
+    HEAD("head"),
+    /** The rest of a request body; answered {@code 408}. */
+    BODY("body"),
+    /** The client to take more of a response; the connection is closed. */
+    WRITE("write"),
+    /** The next request on a keep-alive connection; closed quietly. */
+    IDLE("idle");
+
+    final String label;
+    final LongAdder expired = new LongAdder();
+
+    ConnectionTimeout(String label) {
+        this.label = label;
+    }
+
+    /**
+     * When a read that began at {@code start} times out, given the bytes
+     * received since: {@code readTimeoutMs} plus a second for every
+     * {@code minReadRate} bytes. A client trickling a head slower than that
+     * falls behind and is cut off, however often it sends a byte.
+     */
+    static long readDeadline(long start, long received) {
+        int rate = HttpServer.minReadRate();
+        return start + HttpServer.readTimeout() + (rate > 0 ? received * 1000 / rate : 0);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes {@value #INDEX}, listing every {@code @RestController} class and its
+ * routes, so that {@link FindControllers} can load the controllers at startup
+ * without scanning the classpath. One line per class: the binary class name
+ * followed by its routes, separated by tabs; {@code @GetMapping} routes are
+ * plain templates and the others are prefixed with their method, as in
+ * {@code POST /hellopost}.
+ * <p>
+ * Entries already in the index are kept when only some sources are
+ * recompiled; classes that no longer exist or are no longer controllers are
+ * skipped at runtime.
+ *
+ * @author Jaider Vargas
+ */
+@SupportedAnnotationTypes(ControllerIndexProcessor.REST_CONTROLLER)
+public class ControllerIndexProcessor extends AbstractProcessor {
+
+    static final String INDEX = "META-INF/microspringboot/controllers";
+    static final String REST_CONTROLLER = "edu.eci.arep.docker.annotations.RestController";
+    private static final String ANNOTATIONS = "edu.eci.arep.docker.annotations.";
+
+    private final Map<String, List<String>> controllers = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (e.getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                TypeElement type = (TypeElement) e;
+                List<String> routes = new ArrayList<>();
+                for (Element member : type.getEnclosedElements()) {
+                    if (member instanceof ExecutableElement) {
+                        mappings(member, routes);
+                    }
+                }
+                controllers.put(processingEnv.getElementUtils().getBinaryName(type).toString(), routes);
+            }
+        }
+        if (roundEnv.processingOver() && !controllers.isEmpty()) {
+            write();
+        }
+        return false;
+    }
+
+    private static void mappings(Element method, List<String> routes) {
+        for (AnnotationMirror m : method.getAnnotationMirrors()) {
+            String name = ((TypeElement) m.getAnnotationType().asElement()).getQualifiedName().toString();
+            String prefix;
+            switch (name) {
+                case ANNOTATIONS + "GetMapping":
+                    prefix = "";
+                    break;
+                case ANNOTATIONS + "PostMapping":
+                    prefix = "POST ";
+                    break;
+                case ANNOTATIONS + "PutMapping":
+                    prefix = "PUT ";
+                    break;
+                default:
+                    continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v : m.getElementValues().entrySet()) {
+                if (v.getKey().getSimpleName().contentEquals("value")) {
+                    routes.add(prefix + v.getValue().getValue());
+                }
+            }
+        }
+    }
+
+    private void write() {
+        Map<String, List<String>> index = new TreeMap<>();
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isBlank() && !line.startsWith("#")) {
+                        String[] fields = line.split("\t");
+                        index.put(fields[0], List.of(fields).subList(1, fields.length));
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // No index from an earlier compilation.
+        }
+        index.putAll(controllers);
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer out = file.openWriter()) {
+                out.write("# @RestController classes and their routes\n");
+                for (Map.Entry<String, List<String>> e : index.entrySet()) {
+                    out.write(e.getKey());
+                    for (String route : e.getValue()) {
+                        out.write('\t');
+                        out.write(route);
+                    }
+                    out.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + INDEX + ": " + e);
+        }
+    }
+}
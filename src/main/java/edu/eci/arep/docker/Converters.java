@@ -0,0 +1,172 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+/**
+ * How handler parameters are made from request text and bodies. The
+ * conversion for each type is built once and cached per class, so binding a
+ * request only calls it.
+ *
+ * @author Jaider Vargas
+ */
+final class Converters {
+
+    /** Largest body bound to a {@code String} or {@code byte[]}. */
+    static final int MAX_BUFFERED_BODY = 1 << 20;
+    // Larger ByteBuffer bodies go to a mapped temporary file instead of the heap.
+    private static final int MAX_HEAP_BUFFER = 64 * 1024;
+
+    private static final ClassValue<Function<String, Object>> FROM_STRING = new ClassValue<>() {
+        @Override
+        protected Function<String, Object> computeValue(Class<?> type) {
+            return converter(type);
+        }
+    };
+
+    private Converters() {
+    }
+
+    /**
+     * @return the conversion from text to {@code type}, which throws
+     * {@link IllegalArgumentException} for text it cannot convert, or
+     * {@code null} if {@code type} is not supported
+     */
+    static Function<String, Object> fromString(Class<?> type) {
+        return FROM_STRING.get(type);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, Object> converter(Class<?> type) {
+        if (type == String.class) {
+            return s -> s;
+        }
+        if (type == int.class || type == Integer.class) {
+            return Integer::valueOf;
+        }
+        if (type == long.class || type == Long.class) {
+            return Long::valueOf;
+        }
+        if (type == double.class || type == Double.class) {
+            return Double::valueOf;
+        }
+        if (type == float.class || type == Float.class) {
+            return Float::valueOf;
+        }
+        if (type == short.class || type == Short.class) {
+            return Short::valueOf;
+        }
+        if (type == byte.class || type == Byte.class) {
+            return Byte::valueOf;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return Converters::parseBoolean;
+        }
+        if (type == char.class || type == Character.class) {
+            return s -> {
+                if (s.length() != 1) {
+                    throw new IllegalArgumentException("Not a single character: " + s);
+                }
+                return s.charAt(0);
+            };
+        }
+        if (type.isEnum()) {
+            Class<? extends Enum> e = (Class<? extends Enum>) type;
+            return s -> Enum.valueOf(e, s);
+        }
+        return null;
+    }
+
+    // Unlike Boolean.valueOf, anything but true or false is an error.
+    private static Boolean parseBoolean(String s) {
+        if (s.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (s.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + s);
+    }
+
+    /**
+     * Reads a whole body of at most {@link #MAX_BUFFERED_BODY} bytes.
+     */
+    static byte[] readBytes(BodyStream body) throws IOException {
+        if (body == null) {
+            return new byte[0];
+        }
+        if (body.length() > MAX_BUFFERED_BODY) {
+            throw tooLarge();
+        }
+        byte[] bytes = body.readNBytes(MAX_BUFFERED_BODY + 1);
+        if (bytes.length > MAX_BUFFERED_BODY) {
+            throw tooLarge();
+        }
+        return bytes;
+    }
+
+    static String readString(BodyStream body) throws IOException {
+        return new String(readBytes(body), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a whole body into a buffer. Small bodies are read into the heap;
+     * larger ones are written to a temporary file as they arrive and mapped,
+     * so the buffer's bytes live in the page cache. The file is deleted at
+     * once; the mapping keeps its pages until the buffer is collected.
+     */
+    static ByteBuffer readBuffer(BodyStream body) throws IOException {
+        if (body == null) {
+            return ByteBuffer.allocate(0);
+        }
+        long length = body.length();
+        if (length >= 0 && length <= MAX_HEAP_BUFFER) {
+            return ByteBuffer.wrap(body.readAllBytes());
+        }
+        byte[] head = body.readNBytes(MAX_HEAP_BUFFER + 1);
+        if (head.length <= MAX_HEAP_BUFFER) {
+            return ByteBuffer.wrap(head);
+        }
+        Path file = Files.createTempFile("body", ".tmp");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            channel.write(ByteBuffer.wrap(head));
+            byte[] scratch = head;
+            int n;
+            while ((n = body.read(scratch, 0, scratch.length)) >= 0) {
+                ByteBuffer written = ByteBuffer.wrap(scratch, 0, n);
+                while (written.hasRemaining()) {
+                    channel.write(written);
+                }
+                if (channel.position() > Integer.MAX_VALUE) {
+                    throw tooLarge();
+                }
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.position());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @return {@code body}, or an empty stream for a request without one
+     */
+    static InputStream stream(BodyStream body) {
+        return body == null ? InputStream.nullInputStream() : body;
+    }
+
+    private static HttpRequestParser.BadRequestException tooLarge() {
+        return new HttpRequestParser.BadRequestException("Request body too large", HttpServer.PAYLOAD_TOO_LARGE);
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+/**
+ * Which threads {@link HttpServer} runs request handlers on.
+ *
+ * @author Jaider Vargas
+ */
+public enum ExecutorMode {
+    /** Fixed pool of platform threads sized from the number of cores. */
+    FIXED,
+    /** One virtual thread per connection (Java 21+); falls back to a cached pool on older runtimes. */
+    VIRTUAL
+}
@@ -4,26 +4,40 @@
  */
 package edu.eci.arep.docker;
 
+import java.net.JarURLConnection;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
 import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
+ * Finds the controller classes of a package. The index written at compile
+ * time by {@link ControllerIndexProcessor} is used when the classpath has
+ * one; otherwise the package is scanned, in directories and in jars.
  *
  * @author User
  */
 public class FindControllers {
 
     public static Set<Class<?>> find(String basePackage, Class<? extends Annotation> ann) throws Exception {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    Set<Class<?>> indexed = fromIndex(cl, basePackage, ann);
+    if (indexed != null) {
+        return indexed;
+    }
+
     Set<Class<?>> found = new HashSet<>();
     String path = basePackage.replace('.', '/');
-    ClassLoader cl = Thread.currentThread().getContextClassLoader();
     Enumeration<URL> urls = cl.getResources(path);
 
     while (urls.hasMoreElements()) {
@@ -38,15 +52,59 @@ public class FindControllers {
                             dir.relativize(p).toString()
                                .replace(File.separatorChar, '.')
                                .replaceAll("\\.class$", "");
-                    try {
-                        Class<?> c = Class.forName(cn);
-                        if (c.isAnnotationPresent(ann)) found.add(c);
-                    } catch (Throwable ignore) {}
+                    addIfAnnotated(found, cn, cl, ann);
                 });
             }
+        } else if ("jar".equals(proto)) {
+            JarURLConnection con = (JarURLConnection) url.openConnection();
+            con.setUseCaches(false);
+            try (JarFile jar = con.getJarFile()) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith(path + "/") && name.endsWith(".class")) {
+                        addIfAnnotated(found, name.substring(0, name.length() - 6).replace('/', '.'), cl, ann);
+                    }
+                }
+            }
         }
     }
     return found;
 }
 
+    /**
+     * @return the indexed classes of {@code basePackage}, or {@code null} if
+     * no index is on the classpath
+     */
+    private static Set<Class<?>> fromIndex(ClassLoader cl, String basePackage, Class<? extends Annotation> ann) throws Exception {
+        Enumeration<URL> indexes = cl.getResources(ControllerIndexProcessor.INDEX);
+        if (!indexes.hasMoreElements()) {
+            return null;
+        }
+        Set<Class<?>> found = new HashSet<>();
+        while (indexes.hasMoreElements()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(indexes.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank() || line.startsWith("#")) {
+                        continue;
+                    }
+                    int tab = line.indexOf('\t');
+                    String cn = tab < 0 ? line : line.substring(0, tab);
+                    if (cn.startsWith(basePackage + ".")) {
+                        addIfAnnotated(found, cn, cl, ann);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void addIfAnnotated(Set<Class<?>> found, String cn, ClassLoader cl, Class<? extends Annotation> ann) {
+        try {
+            Class<?> c = Class.forName(cn, false, cl);
+            if (c.isAnnotationPresent(ann)) found.add(c);
+        } catch (Throwable ignore) {}
+    }
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The response to a {@code HEAD} request: the status line and headers a
+ * {@code GET} would get, {@code Content-Length} included, pass through, and
+ * the body after them is dropped, files without being read. An interim
+ * {@code 100 Continue} passes through too.
+ *
+ * @author Jaider Vargas
+ */
+final class HeadOnlyOutputStream extends FilterOutputStream implements ZeroCopyOutput {
+
+    // Offset of the status code's first digit in "HTTP/1.1 200".
+    private static final int STATUS = 9;
+
+    // Bytes of the current head written so far.
+    private int position;
+    // How much of the CRLF CRLF that ends the head has been seen.
+    private int matched;
+    private boolean interim;
+    private boolean headSent;
+
+    HeadOnlyOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int i = off;
+        int end = off + len;
+        while (i < end && !headSent) {
+            byte c = b[i++];
+            if (position++ == STATUS) {
+                interim = c == '1';
+            }
+            matched = c == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : c == '\r' ? 1 : 0;
+            if (matched == 4) {
+                // After a 1xx the real head follows.
+                headSent = !interim;
+                position = 0;
+                matched = 0;
+            }
+        }
+        if (i > off) {
+            out.write(b, off, i - off);
+        }
+    }
+
+    @Override
+    public void writeFile(StaticFileCache.Entry file, long position, long count) {
+        // A body; dropped.
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541): the static table, a
+ * dynamic table per direction, prefix-coded integers and Huffman-coded
+ * strings. Names and values are ISO-8859-1, so every byte maps to one char.
+ *
+ * @author Jaider Vargas
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+        {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+        {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+        {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+        {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+        {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+        {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+        {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+        {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+        {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+        {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+        {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+        {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+        {"www-authenticate", ""}
+    };
+    // Static indexes by name, and by name and value.
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    // RFC 7541 Appendix B, by symbol.
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6,
+            0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea,
+            0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee, 0xfffffef,
+            0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3, 0xffffff4,
+            0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb, 0xf9,
+            0x7fb, 0xfa, 0x16, 0x17, 0x18, 0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d,
+            0x5e, 0x5f, 0x60, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73, 0xfd,
+            0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22, 0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+            0x25, 0x26, 0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76, 0x2c,
+            0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd,
+            0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4,
+            0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd,
+            0x7fffde, 0xffffeb, 0x7fffdf, 0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0,
+            0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8,
+            0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+            0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde, 0x7fffea,
+            0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee,
+            0x7fffef, 0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5,
+            0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7,
+            0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+            0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3, 0x3ffffe6,
+            0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2, 0x1fffe4, 0x1fffe5,
+            0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5, 0xfffec,
+            0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea,
+            0x7ffff4, 0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+            0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee,
+            0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28,
+            28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8,
+            11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6,
+            12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6,
+            6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20,
+            22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23,
+            23, 23, 21, 22, 23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22,
+            22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23,
+            22, 22, 23, 26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27, 20, 24, 20,
+            21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27,
+            27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+    // Decoding tree: children of node n at 2n and 2n + 1; a leaf holds ~symbol.
+    private static final int[] TREE = new int[2 * 512];
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+        int nodes = 1;
+        for (int sym = 0; sym < 256; sym++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[sym] - 1; bit >= 0; bit--) {
+                int slot = 2 * node + ((HUFFMAN_CODES[sym] >>> bit) & 1);
+                if (bit == 0) {
+                    TREE[slot] = ~sym;
+                } else {
+                    if (TREE[slot] == 0) {
+                        TREE[slot] = nodes++;
+                    }
+                    node = TREE[slot];
+                }
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * The dynamic table: newest entry first, evicted from the oldest end
+     * once the size of its entries exceeds the maximum.
+     */
+    private static final class Table {
+
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int head;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int count() {
+            return count;
+        }
+
+        // 0 is the newest entry.
+        String name(int i) {
+            return names[(head + i) & (names.length - 1)];
+        }
+
+        String value(int i) {
+            return values[(head + i) & (names.length - 1)];
+        }
+
+        void add(String name, String value) {
+            int entry = entrySize(name, value);
+            evict(maxSize - entry);
+            if (entry > maxSize) {
+                return;
+            }
+            if (count == names.length) {
+                String[] n = new String[count * 2];
+                String[] v = new String[count * 2];
+                for (int i = 0; i < count; i++) {
+                    n[i] = name(i);
+                    v[i] = value(i);
+                }
+                names = n;
+                values = v;
+                head = 0;
+            }
+            head = (head - 1) & (names.length - 1);
+            names[head] = name;
+            values[head] = value;
+            count++;
+            size += entry;
+        }
+
+        void resize(int max) {
+            maxSize = max;
+            evict(max);
+        }
+
+        private void evict(int target) {
+            while (count > 0 && size > target) {
+                count--;
+                size -= entrySize(name(count), value(count));
+                int slot = (head + count) & (names.length - 1);
+                names[slot] = null;
+                values[slot] = null;
+            }
+        }
+
+        private static int entrySize(String name, String value) {
+            return 32 + name.length() + value.length();
+        }
+    }
+
+    /**
+     * Receives the fields of a header block in order.
+     */
+    interface FieldSink {
+
+        void field(String name, String value) throws IOException;
+    }
+
+    /**
+     * Decodes the header blocks of one connection, in the order they arrive.
+     */
+    static final class Decoder {
+
+        private final Table table;
+        private final int maxTableSize;
+        private byte[] buf;
+        private int pos;
+        private int end;
+
+        /**
+         * @param maxTableSize the table size we announced; updates beyond it
+         * are errors
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            table = new Table(maxTableSize);
+        }
+
+        /**
+         * @throws IOException if the block is malformed; the connection must
+         * then be closed, since the table may be out of step with the peer's
+         */
+        void decode(byte[] block, int off, int len, FieldSink sink) throws IOException {
+            buf = block;
+            pos = off;
+            end = off + len;
+            while (pos < end) {
+                int b = buf[pos] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    int index = readInt(7);
+                    sink.field(name(index), value(index));
+                } else if ((b & 0x40) != 0) {
+                    int index = readInt(6);
+                    String name = index == 0 ? readString() : name(index);
+                    String value = readString();
+                    table.add(name, value);
+                    sink.field(name, value);
+                } else if ((b & 0x20) != 0) {
+                    int size = readInt(5);
+                    if (size > maxTableSize) {
+                        throw new IOException("Table size update above the limit");
+                    }
+                    table.resize(size);
+                } else {
+                    // Without indexing, or never indexed.
+                    int index = readInt(4);
+                    String name = index == 0 ? readString() : name(index);
+                    sink.field(name, readString());
+                }
+            }
+            buf = null;
+        }
+
+        private String name(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][0];
+            }
+            int i = index - STATIC_TABLE.length - 1;
+            if (index <= 0 || i >= table.count()) {
+                throw new IOException("Invalid table index " + index);
+            }
+            return table.name(i);
+        }
+
+        private String value(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][1];
+            }
+            int i = index - STATIC_TABLE.length - 1;
+            if (index <= 0 || i >= table.count()) {
+                throw new IOException("Invalid table index " + index);
+            }
+            return table.value(i);
+        }
+
+        private int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = buf[pos++] & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; shift <= 21; shift += 7) {
+                if (pos == end) {
+                    throw new IOException("Truncated integer");
+                }
+                int b = buf[pos++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Integer too large");
+        }
+
+        private String readString() throws IOException {
+            if (pos == end) {
+                throw new IOException("Truncated string");
+            }
+            boolean huffman = (buf[pos] & 0x80) != 0;
+            int length = readInt(7);
+            if (length > end - pos) {
+                throw new IOException("Truncated string");
+            }
+            int start = pos;
+            pos += length;
+            if (!huffman) {
+                return new String(buf, start, length, StandardCharsets.ISO_8859_1);
+            }
+            return huffmanDecode(buf, start, length);
+        }
+    }
+
+    private static String huffmanDecode(byte[] buf, int off, int len) throws IOException {
+        StringBuilder sb = new StringBuilder(len * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean ones = true;
+        for (int i = off; i < off + len; i++) {
+            int b = buf[i] & 0xFF;
+            for (int bit = 7; bit >= 0; bit--) {
+                int set = (b >>> bit) & 1;
+                int next = TREE[2 * node + set];
+                if (next < 0) {
+                    sb.append((char) ~next);
+                    node = 0;
+                    depth = 0;
+                    ones = true;
+                } else if (next == 0) {
+                    throw new IOException("Invalid Huffman code");
+                } else {
+                    node = next;
+                    depth++;
+                    ones &= set == 1;
+                }
+            }
+        }
+        // Padding is the most significant bits of EOS: at most 7 ones.
+        if (depth > 7 || !ones) {
+            throw new IOException("Invalid Huffman padding");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the header blocks of one connection. Calls must be made in the
+     * order the blocks are sent.
+     */
+    static final class Encoder {
+
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        // Smallest size the peer allowed since the last block, and the latest.
+        private int pendingMin = -1;
+        private int pendingSize;
+
+        /**
+         * Applies the peer's {@code SETTINGS_HEADER_TABLE_SIZE}; we never
+         * use more than the default.
+         */
+        void maxTableSize(int size) {
+            size = Math.min(size, DEFAULT_TABLE_SIZE);
+            pendingMin = pendingMin < 0 ? size : Math.min(pendingMin, size);
+            pendingSize = size;
+        }
+
+        /**
+         * Starts a header block, announcing any table size change first.
+         */
+        void begin(ByteArrayOutputStream out) {
+            if (pendingMin >= 0) {
+                if (pendingMin < pendingSize) {
+                    table.resize(pendingMin);
+                    writeInt(out, 0x20, 5, pendingMin);
+                }
+                table.resize(pendingSize);
+                writeInt(out, 0x20, 5, pendingSize);
+                pendingMin = -1;
+            }
+        }
+
+        /**
+         * @param index whether the field is worth a table entry; values that
+         * change with every response are not
+         */
+        void field(ByteArrayOutputStream out, String name, String value, boolean index) {
+            Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+            if (exact != null) {
+                writeInt(out, 0x80, 7, exact);
+                return;
+            }
+            int nameIndex = 0;
+            for (int i = 0; i < table.count(); i++) {
+                if (table.name(i).equals(name)) {
+                    if (table.value(i).equals(value)) {
+                        writeInt(out, 0x80, 7, STATIC_TABLE.length + 1 + i);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = STATIC_TABLE.length + 1 + i;
+                    }
+                }
+            }
+            Integer staticName = STATIC_NAMES.get(name);
+            if (staticName != null) {
+                nameIndex = staticName;
+            }
+            if (index) {
+                writeInt(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            } else {
+                writeInt(out, 0x00, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int pattern, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                out.write(pattern | value);
+                return;
+            }
+            out.write(pattern | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        /**
+         * Writes {@code s} Huffman coded when that is shorter.
+         */
+        private static void writeString(ByteArrayOutputStream out, String s) {
+            long bits = 0;
+            for (int i = 0; i < s.length(); i++) {
+                bits += HUFFMAN_LENGTHS[s.charAt(i) & 0xFF];
+            }
+            int coded = (int) ((bits + 7) / 8);
+            if (coded >= s.length()) {
+                writeInt(out, 0x00, 7, s.length());
+                for (int i = 0; i < s.length(); i++) {
+                    out.write(s.charAt(i));
+                }
+                return;
+            }
+            writeInt(out, 0x80, 7, coded);
+            long acc = 0;
+            int n = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int sym = s.charAt(i) & 0xFF;
+                acc = (acc << HUFFMAN_LENGTHS[sym]) | HUFFMAN_CODES[sym];
+                n += HUFFMAN_LENGTHS[sym];
+                while (n >= 8) {
+                    n -= 8;
+                    out.write((int) (acc >>> n));
+                }
+            }
+            if (n > 0) {
+                out.write((int) ((acc << (8 - n)) | (0xFF >>> n)));
+            }
+        }
+    }
+}
@@ -0,0 +1,1278 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Server side of one HTTP/2 connection (RFC 9113). The transport feeds it
+ * received bytes through {@link #receive} and sends the frames it hands to
+ * an {@link Output}, so the blocking and the NIO front ends share it.
+ * <p>
+ * Every stream is rebuilt as an HTTP/1.1 request head and dispatched like
+ * any other request, so routes, static files, caches and compression work
+ * unchanged. The HTTP/1.1 response they write is translated back: the head
+ * becomes a HEADERS frame, chunked or sized bodies become DATA frames, and
+ * hop-by-hop headers are dropped. DATA frames respect the peer's flow
+ * control windows; a stream that runs out of window waits for them.
+ * Request DATA is handed to the stream's handler as its body, and the
+ * stream's own window is reopened only as the handler reads it.
+ *
+ * @author Jaider Vargas
+ */
+final class Http2Connection {
+
+    /** The part of the client preface that parses as an HTTP/1.x head. */
+    static final int PRI_HEAD_LENGTH = 18;
+    /** Room for one frame of the largest size we accept. */
+    static final int INPUT_BUFFER_SIZE = 9 + 16384;
+    static final byte[] SWITCHING_PROTOCOLS = ResponseHeads.ascii("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n\r\n");
+
+    private static final byte[] PREFACE = ResponseHeads.ascii("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+    private static final int COMPRESSION_ERROR = 0x9;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int MAX_CONCURRENT_STREAMS = 100;
+    // DATA payload that fits a pooled output buffer after the frame header.
+    private static final int MAX_DATA = BufferPool.OUTPUT.bufferSize - 9;
+    // A stream gives up when the peer keeps its window shut this long.
+    private static final long WINDOW_TIMEOUT_MS = 30_000;
+
+    /**
+     * Where frames go. {@link #write} is called under the connection's lock
+     * and must not wait for the peer for long; {@link #awaitRoom} is where a
+     * producer can be held back instead.
+     */
+    interface Output {
+
+        /**
+         * Blocks a response writer while too much output is queued.
+         */
+        void awaitRoom() throws IOException;
+
+        /**
+         * Queues or writes one whole frame. Pooled direct buffers are owned
+         * by the output from then on.
+         */
+        void write(ByteBuffer frame) throws IOException;
+
+        /**
+         * Closes the transport once everything written has been sent.
+         */
+        void close();
+    }
+
+    /**
+     * A connection error: the connection ends with a GOAWAY carrying
+     * {@code code}.
+     */
+    private static final class ConnectionError extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ConnectionError(int code, String message) {
+            super(message, null, false, false);
+            this.code = code;
+        }
+    }
+
+    private final class Stream {
+
+        final int id;
+        // Guarded by the connection.
+        int sendWindow = initialSendWindow;
+        // Bytes of the receive window in use, and those of them the handler is done with.
+        int received;
+        int consumed;
+        boolean remoteClosed;
+        boolean reset;
+        // The request body on its way to the handler; null when it has none.
+        BodyPipe body;
+
+        Stream(int id) {
+            this.id = id;
+        }
+    }
+
+    private final Output out;
+    private final Executor executor;
+    private final InetAddress client;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private int prefaceMatched;
+    private boolean settingsSeen;
+    // Header block split over HEADERS and CONTINUATION frames.
+    private int continuedStream;
+    private boolean continuedEndStream;
+    private final ByteArrayOutputStream continued = new ByteArrayOutputStream();
+    private int received;
+
+    // The rest is shared with the threads writing responses, under this.
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int lastStreamId;
+    private int initialSendWindow = DEFAULT_WINDOW;
+    private int connectionSendWindow = DEFAULT_WINDOW;
+    private int maxFrameSize = MAX_FRAME_SIZE;
+    private boolean goingAway;
+    private boolean closed;
+
+    /**
+     * @param executor runs the streams' handlers; may throw
+     * {@link RejectedExecutionException}, which is answered with {@code 503}
+     * @param client the peer's address, given to every stream's request
+     * @param prefaceSeen bytes of the client preface the transport already
+     * consumed
+     */
+    Http2Connection(Output out, Executor executor, InetAddress client, int prefaceSeen) {
+        this.out = out;
+        this.executor = executor;
+        this.client = client;
+        this.prefaceMatched = prefaceSeen;
+    }
+
+    /**
+     * Whether {@code req} asks to upgrade to cleartext HTTP/2. Requests
+     * with a body keep HTTP/1.1.
+     */
+    static boolean isUpgrade(HttpRequest req) {
+        String upgrade = req.getHeader("upgrade");
+        String settings = req.getHeader("http2-settings");
+        if (upgrade == null || settings == null || req.http10 || req.contentLength() != 0) {
+            return false;
+        }
+        boolean h2c = false;
+        for (String token : upgrade.split(",")) {
+            h2c |= token.trim().equalsIgnoreCase("h2c");
+        }
+        return h2c && decodeSettings(settings) != null;
+    }
+
+    private static byte[] decodeSettings(String header) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(header.trim());
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends our SETTINGS. After an upgrade, {@code upgraded} is the request
+     * that asked for it, answered on stream 1.
+     */
+    void start(HttpRequest upgraded) throws IOException {
+        ByteBuffer settings = frame(12, SETTINGS, 0, 0);
+        settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(MAX_CONCURRENT_STREAMS);
+        settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(HttpRequestParser.MAX_HEAD_BYTES);
+        synchronized (this) {
+            out.write(settings.flip());
+        }
+        if (upgraded == null) {
+            return;
+        }
+        byte[] payload = decodeSettings(upgraded.getHeader("http2-settings"));
+        try {
+            applySettings(ByteBuffer.wrap(payload), 0, payload.length);
+        } catch (ConnectionError e) {
+            goAway(e.code);
+            return;
+        }
+        // The transport reuses its buffer, so the head is copied out.
+        byte[] head = upgraded.buf;
+        int end = HttpRequestParser.findHeadEnd(head, 0, head.length);
+        HttpRequest req = new HttpRequest();
+        req.client = client;
+        HttpRequestParser.parse(Arrays.copyOf(head, end), 0, end, req);
+        Stream s = new Stream(1);
+        s.remoteClosed = true;
+        synchronized (this) {
+            lastStreamId = 1;
+            streams.put(1, s);
+        }
+        dispatch(s, req, null);
+    }
+
+    /**
+     * Handles every whole frame in {@code in}, leaving a partial one in
+     * place. The buffer must be a heap buffer of at least
+     * {@link #INPUT_BUFFER_SIZE} bytes.
+     *
+     * @return {@code false} once the connection must be closed
+     */
+    boolean receive(ByteBuffer in) throws IOException {
+        try {
+            while (prefaceMatched < PREFACE.length) {
+                if (!in.hasRemaining()) {
+                    return true;
+                }
+                if (in.get() != PREFACE[prefaceMatched++]) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Bad connection preface");
+                }
+            }
+            while (in.remaining() >= 9) {
+                int start = in.position();
+                int length = (in.get(start) & 0xFF) << 16 | (in.get(start + 1) & 0xFF) << 8 | (in.get(start + 2) & 0xFF);
+                if (length > MAX_FRAME_SIZE) {
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                if (in.remaining() < 9 + length) {
+                    break;
+                }
+                int type = in.get(start + 3) & 0xFF;
+                int flags = in.get(start + 4) & 0xFF;
+                int streamId = in.getInt(start + 5) & 0x7FFFFFFF;
+                in.position(start + 9);
+                if (!settingsSeen && type != SETTINGS) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Expected SETTINGS");
+                }
+                if (continuedStream != 0 && (type != CONTINUATION || streamId != continuedStream)) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Expected CONTINUATION");
+                }
+                onFrame(in, type, flags, streamId, length);
+                in.position(start + 9 + length);
+                if (closed) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ConnectionError e) {
+            goAway(e.code);
+            return false;
+        }
+    }
+
+    private void onFrame(ByteBuffer in, int type, int flags, int streamId, int length) throws IOException, ConnectionError {
+        int p = in.position();
+        switch (type) {
+            case DATA:
+                onData(in, flags, streamId, length);
+                break;
+            case HEADERS:
+                onHeaders(in, flags, streamId, length);
+                break;
+            case PRIORITY:
+                if (length != 5) {
+                    rst(streamId, FRAME_SIZE_ERROR);
+                }
+                break;
+            case RST_STREAM:
+                if (streamId == 0 || length != 4) {
+                    throw new ConnectionError(length != 4 ? FRAME_SIZE_ERROR : PROTOCOL_ERROR, "Bad RST_STREAM");
+                }
+                synchronized (this) {
+                    Stream s = streams.remove(streamId);
+                    if (s != null) {
+                        s.reset = true;
+                        notifyAll();
+                        if (s.body != null) {
+                            s.body.fail(new IOException("Stream reset"));
+                        }
+                    }
+                    if (goingAway && streams.isEmpty()) {
+                        out.close();
+                    }
+                }
+                break;
+            case SETTINGS:
+                if (streamId != 0) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on a stream");
+                }
+                if ((flags & ACK) != 0) {
+                    if (length != 0) {
+                        throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ack with a payload");
+                    }
+                    break;
+                }
+                if (length % 6 != 0) {
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS length " + length);
+                }
+                applySettings(in, p, length);
+                settingsSeen = true;
+                synchronized (this) {
+                    out.write(frame(0, SETTINGS, ACK, 0).flip());
+                }
+                break;
+            case PUSH_PROMISE:
+                throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            case PING:
+                if (streamId != 0 || length != 8) {
+                    throw new ConnectionError(length != 8 ? FRAME_SIZE_ERROR : PROTOCOL_ERROR, "Bad PING");
+                }
+                if ((flags & ACK) == 0) {
+                    ByteBuffer pong = frame(8, PING, ACK, 0);
+                    pong.putLong(in.getLong(p));
+                    synchronized (this) {
+                        out.write(pong.flip());
+                    }
+                }
+                break;
+            case GOAWAY:
+                synchronized (this) {
+                    goingAway = true;
+                    if (streams.isEmpty()) {
+                        closed = true;
+                        notifyAll();
+                    }
+                }
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(in.getInt(p) & 0x7FFFFFFF, streamId, length);
+                break;
+            case CONTINUATION:
+                if (continuedStream == 0) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                }
+                continued.write(in.array(), in.arrayOffset() + p, length);
+                if (continued.size() > 4 * HttpRequestParser.MAX_HEAD_BYTES) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Header block too large");
+                }
+                if ((flags & END_HEADERS) != 0) {
+                    int id = continuedStream;
+                    continuedStream = 0;
+                    byte[] block = continued.toByteArray();
+                    continued.reset();
+                    onHeaderBlock(id, continuedEndStream, block, 0, block.length);
+                }
+                break;
+            default:
+                // Unknown frame types are ignored.
+        }
+    }
+
+    private void onData(ByteBuffer in, int flags, int streamId, int length) throws IOException, ConnectionError {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        if ((flags & PADDED) != 0 && (length == 0 || (in.get(in.position()) & 0xFF) >= length)) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+        }
+        Stream s;
+        synchronized (this) {
+            s = streams.get(streamId);
+            if (s == null && streamId > lastStreamId) {
+                throw new ConnectionError(PROTOCOL_ERROR, "DATA on an idle stream");
+            }
+        }
+        if (s != null && s.remoteClosed) {
+            throw new ConnectionError(STREAM_CLOSED, "DATA after END_STREAM");
+        }
+        // The connection window is reopened right away, and each stream's as
+        // its handler reads the body, so a stream never has more than one
+        // window of it queued. Replenished by half so updates stay rare.
+        received += length;
+        if (received > DEFAULT_WINDOW) {
+            throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        if (received >= DEFAULT_WINDOW / 2) {
+            windowUpdate(0, received);
+            received = 0;
+        }
+        if (s == null) {
+            return;
+        }
+        boolean padded = (flags & PADDED) != 0;
+        int data = length - (padded ? (in.get(in.position()) & 0xFF) + 1 : 0);
+        int delivered = 0;
+        BodyPipe pipe = s.body;
+        if (pipe != null && data > 0) {
+            ByteBuffer copy = ByteBuffer.allocate(data);
+            copy.put(in.array(), in.arrayOffset() + in.position() + (padded ? 1 : 0), data).flip();
+            if (pipe.offer(copy)) {
+                delivered = data;
+            }
+        }
+        if ((flags & END_STREAM) != 0) {
+            s.remoteClosed = true;
+            if (pipe != null) {
+                pipe.end();
+            }
+            return;
+        }
+        boolean exceeded;
+        synchronized (this) {
+            s.received += length;
+            exceeded = s.received > DEFAULT_WINDOW;
+        }
+        if (exceeded) {
+            rst(streamId, FLOW_CONTROL_ERROR);
+            return;
+        }
+        // Padding, and data nobody will read, count as read at once.
+        credit(s, length - delivered);
+    }
+
+    /**
+     * Gives {@code n} bytes of a stream's window back to the peer once its
+     * handler has read them. Called by the handler's thread too.
+     */
+    private void credit(Stream s, int n) {
+        if (n == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (s.reset || s.remoteClosed || closed) {
+                return;
+            }
+            s.consumed += n;
+            if (s.consumed < DEFAULT_WINDOW / 2) {
+                return;
+            }
+            int increment = s.consumed;
+            s.received -= increment;
+            s.consumed = 0;
+            try {
+                windowUpdate(s.id, increment);
+            } catch (IOException ignored) {
+                // The connection is going; its reader finds out.
+            }
+        }
+    }
+
+    private void onHeaders(ByteBuffer in, int flags, int streamId, int length) throws IOException, ConnectionError {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int p = in.position();
+        int end = p + length;
+        if ((flags & PADDED) != 0) {
+            if (length == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+            }
+            end -= in.get(p++) & 0xFF;
+        }
+        if ((flags & PRIORITY_FLAG) != 0) {
+            p += 5;
+        }
+        if (end < p) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Bad padding");
+        }
+        boolean endStream = (flags & END_STREAM) != 0;
+        if ((flags & END_HEADERS) != 0) {
+            onHeaderBlock(streamId, endStream, in.array(), in.arrayOffset() + p, end - p);
+        } else {
+            continuedStream = streamId;
+            continuedEndStream = endStream;
+            continued.write(in.array(), in.arrayOffset() + p, end - p);
+        }
+    }
+
+    private void onHeaderBlock(int streamId, boolean endStream, byte[] block, int off, int len) throws IOException, ConnectionError {
+        RequestHead head = new RequestHead();
+        try {
+            decoder.decode(block, off, len, head);
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        Stream s;
+        synchronized (this) {
+            if (streamId <= lastStreamId) {
+                s = streams.get(streamId);
+                if (s == null || s.remoteClosed) {
+                    throw new ConnectionError(STREAM_CLOSED, "HEADERS on a closed stream");
+                }
+                // Trailers, which are not passed on.
+                if (!endStream) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Trailers without END_STREAM");
+                }
+                s.remoteClosed = true;
+                if (s.body != null) {
+                    s.body.end();
+                }
+                return;
+            }
+            if (streamId % 2 == 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "Even stream id " + streamId);
+            }
+            lastStreamId = streamId;
+            if (goingAway) {
+                return;
+            }
+            if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+                rst(streamId, REFUSED_STREAM);
+                return;
+            }
+            s = new Stream(streamId);
+            s.remoteClosed = endStream;
+            streams.put(streamId, s);
+        }
+        byte[] bytes = head.toHttp1();
+        if (bytes == null) {
+            rst(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        if (bytes.length > HttpRequestParser.MAX_HEAD_BYTES) {
+            dispatch(s, null, HttpServer.HEAD_TOO_LARGE);
+            return;
+        }
+        HttpRequest req = new HttpRequest();
+        req.client = client;
+        if (!HttpRequestParser.parse(bytes, 0, bytes.length, req)) {
+            rst(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        if (!endStream) {
+            // The body arrives in DATA frames, as the handler reads it.
+            Stream stream = s;
+            BodyPipe pipe = new BodyPipe(null, n -> credit(stream, n));
+            s.body = pipe;
+            req.body = new BodyStream(pipe, BodyStream.UNTIL_END, HttpServer.maxBodyBytes(), null);
+        }
+        dispatch(s, req, null);
+    }
+
+    /**
+     * Runs the handler of a stream on the executor, or answers it with
+     * {@code fixed} when there is nothing to run.
+     */
+    private void dispatch(Stream s, HttpRequest req, byte[] fixed) throws IOException {
+        StreamOutput sout = new StreamOutput(s, req != null && req.isHead());
+        if (fixed == null) {
+            req.keepAlive = true;
+            try {
+                executor.execute(HttpServer.refusable(() -> serve(sout, req), () -> shed(sout)));
+                return;
+            } catch (RejectedExecutionException e) {
+                Metrics.shed.increment();
+                fixed = HttpServer.SERVICE_UNAVAILABLE;
+            }
+        }
+        Metrics.status(fixed);
+        sout.write(fixed);
+        sout.close();
+    }
+
+    /**
+     * Answers a stream whose handler will not run, because the server is
+     * stopping, with {@code 503}.
+     */
+    private void shed(StreamOutput sout) {
+        Metrics.shed.increment();
+        Metrics.status(HttpServer.SERVICE_UNAVAILABLE);
+        try {
+            sout.write(HttpServer.SERVICE_UNAVAILABLE);
+            sout.close();
+        } catch (IOException e) {
+            sout.fail(e);
+        }
+    }
+
+    private void serve(StreamOutput sout, HttpRequest req) {
+        CompletableFuture<Void> later;
+        try {
+            later = HttpServer.dispatchAsync(req, sout);
+        } catch (Exception e) {
+            sout.fail(e);
+            return;
+        }
+        if (later == null) {
+            sout.finish(null);
+        } else {
+            later.whenComplete((v, t) -> sout.finish(t));
+        }
+    }
+
+    private void applySettings(ByteBuffer in, int p, int length) throws ConnectionError {
+        for (int i = p; i < p + length; i += 6) {
+            int id = in.getShort(i) & 0xFFFF;
+            int value = in.getInt(i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (this) {
+                        encoder.maxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    }
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "ENABLE_PUSH " + value);
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE " + value);
+                    }
+                    synchronized (this) {
+                        int delta = value - initialSendWindow;
+                        initialSendWindow = value;
+                        for (Stream s : streams.values()) {
+                            s.sendWindow += delta;
+                        }
+                        notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < 16384 || value > 16777215) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value);
+                    }
+                    synchronized (this) {
+                        maxFrameSize = value;
+                    }
+                    break;
+                default:
+                    // MAX_CONCURRENT_STREAMS limits pushes, which we never send.
+            }
+        }
+    }
+
+    private void onWindowUpdate(int increment, int streamId, int length) throws IOException, ConnectionError {
+        if (length != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE length " + length);
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+                }
+                if ((long) connectionSendWindow + increment > Integer.MAX_VALUE) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                connectionSendWindow += increment;
+                notifyAll();
+                return;
+            }
+            Stream s = streams.get(streamId);
+            if (s == null) {
+                return;
+            }
+            if (increment == 0 || (long) s.sendWindow + increment > Integer.MAX_VALUE) {
+                rst(streamId, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+                return;
+            }
+            s.sendWindow += increment;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Whether no stream is in progress, so an idle connection can be closed.
+     */
+    synchronized boolean isIdle() {
+        return streams.isEmpty();
+    }
+
+    /**
+     * Ends the connection, telling the peer which streams were processed.
+     */
+    synchronized void goAway(int code) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        for (Stream s : streams.values()) {
+            if (s.body != null) {
+                s.body.fail(new IOException("Connection closed"));
+            }
+        }
+        ByteBuffer f = frame(8, GOAWAY, 0, 0);
+        f.putInt(lastStreamId).putInt(code);
+        try {
+            out.write(f.flip());
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Ends the connection without error, e.g. when it has been idle.
+     */
+    void close() {
+        goAway(NO_ERROR);
+    }
+
+    private synchronized void rst(int streamId, int code) throws IOException {
+        Stream s = streams.remove(streamId);
+        if (s != null) {
+            if (s.reset) {
+                return;
+            }
+            s.reset = true;
+            notifyAll();
+            if (s.body != null) {
+                s.body.fail(new IOException("Stream reset"));
+            }
+        }
+        ByteBuffer f = frame(4, RST_STREAM, 0, streamId);
+        f.putInt(code);
+        out.write(f.flip());
+        if (goingAway && streams.isEmpty()) {
+            out.close();
+        }
+    }
+
+    private synchronized void windowUpdate(int streamId, int increment) throws IOException {
+        ByteBuffer f = frame(4, WINDOW_UPDATE, 0, streamId);
+        f.putInt(increment);
+        out.write(f.flip());
+    }
+
+    private static ByteBuffer frame(int length, int type, int flags, int streamId) {
+        ByteBuffer f = ByteBuffer.allocate(9 + length);
+        putHeader(f, length, type, flags, streamId);
+        return f;
+    }
+
+    private static void putHeader(ByteBuffer f, int length, int type, int flags, int streamId) {
+        f.put(0, (byte) (length >>> 16)).put(1, (byte) (length >>> 8)).put(2, (byte) length)
+                .put(3, (byte) type).put(4, (byte) flags).putInt(5, streamId);
+        if (f.position() < 9) {
+            f.position(9);
+        }
+    }
+
+    private void streamEnded(Stream s) {
+        streams.remove(s.id);
+        if (s.body != null) {
+            s.body.close();
+        }
+        if (!s.remoteClosed && !closed) {
+            // Answered before the body ended; the rest is not wanted (RFC 9113 8.1).
+            ByteBuffer f = frame(4, RST_STREAM, 0, s.id);
+            f.putInt(NO_ERROR);
+            try {
+                out.write(f.flip());
+            } catch (IOException ignored) {
+            }
+        }
+        if (goingAway && streams.isEmpty()) {
+            out.close();
+        }
+    }
+
+    /**
+     * Takes up to {@code wanted} bytes of send window, waiting for the peer
+     * to open it.
+     *
+     * @return bytes granted
+     */
+    private int reserveWindow(Stream s, int wanted) throws IOException {
+        long deadline = System.currentTimeMillis() + WINDOW_TIMEOUT_MS;
+        while (true) {
+            if (closed || s.reset) {
+                throw new IOException("Stream " + s.id + " closed");
+            }
+            int window = Math.min(connectionSendWindow, s.sendWindow);
+            if (window > 0) {
+                int n = Math.min(window, wanted);
+                connectionSendWindow -= n;
+                s.sendWindow -= n;
+                return n;
+            }
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new IOException("Flow control window of stream " + s.id + " stayed closed");
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the flow control window");
+            }
+        }
+    }
+
+    /**
+     * Collects a request's fields and writes them back as an HTTP/1.1 head.
+     */
+    private static final class RequestHead implements Hpack.FieldSink {
+
+        private String method;
+        private String path;
+        private String authority;
+        private boolean host;
+        private final StringBuilder fields = new StringBuilder();
+        private StringBuilder cookie;
+        private boolean regular;
+        private boolean malformed;
+
+        @Override
+        public void field(String name, String value) {
+            if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\0') >= 0) {
+                malformed = true;
+                return;
+            }
+            if (name.startsWith(":")) {
+                malformed |= regular;
+                switch (name) {
+                    case ":method":
+                        malformed |= method != null;
+                        method = value;
+                        break;
+                    case ":path":
+                        malformed |= path != null || value.isEmpty();
+                        path = value;
+                        break;
+                    case ":authority":
+                        malformed |= authority != null;
+                        authority = value;
+                        break;
+                    case ":scheme":
+                        break;
+                    default:
+                        malformed = true;
+                }
+                return;
+            }
+            regular = true;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                malformed |= c >= 'A' && c <= 'Z' || c <= ' ' || c == ':' || c >= 127;
+            }
+            switch (name) {
+                case "connection":
+                case "keep-alive":
+                case "proxy-connection":
+                case "transfer-encoding":
+                case "upgrade":
+                    malformed = true;
+                    return;
+                case "te":
+                    malformed |= !value.equals("trailers");
+                    return;
+                case "cookie":
+                    // Split cookies are joined again for HTTP/1.1 (RFC 9113 8.2.3).
+                    if (cookie == null) {
+                        cookie = new StringBuilder(value);
+                    } else {
+                        cookie.append("; ").append(value);
+                    }
+                    return;
+                case "host":
+                    host = true;
+                    break;
+                default:
+            }
+            fields.append(name).append(": ").append(value).append("\r\n");
+        }
+
+        /**
+         * @return the head, or {@code null} if the request is malformed
+         */
+        byte[] toHttp1() {
+            if (malformed || method == null || path == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(64 + fields.length());
+            sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            if (!host && authority != null) {
+                sb.append("host: ").append(authority).append("\r\n");
+            }
+            sb.append(fields);
+            if (cookie != null) {
+                sb.append("cookie: ").append(cookie).append("\r\n");
+            }
+            sb.append("\r\n");
+            return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Where a stream's handler writes its HTTP/1.1 response. The head is
+     * collected and sent as HEADERS; the body, de-chunked if needed, is sent
+     * in DATA frames of up to one pooled buffer, on flush or when full.
+     */
+    private final class StreamOutput extends OutputStream {
+
+        private static final int HEAD = 0;
+        private static final int SIZED = 1;
+        private static final int CHUNKED = 2;
+        private static final int UNTIL_CLOSE = 3;
+        private static final int DONE = 4;
+
+        // Chunked framing: the size line, its data, the CRLF after it, trailers.
+        private static final int CHUNK_SIZE = 0;
+        private static final int CHUNK_EXTENSION = 1;
+        private static final int CHUNK_DATA = 2;
+        private static final int CHUNK_END = 3;
+        private static final int TRAILERS = 4;
+
+        private final Stream stream;
+        // A HEAD response ends with its HEADERS frame.
+        private final boolean headOnly;
+        private byte[] head = new byte[256];
+        private int headLength;
+        private int mode = HEAD;
+        private long remaining;
+        private int chunkState;
+        private int lineLength;
+        private ByteBuffer data;
+        private final byte[] one = new byte[1];
+
+        StreamOutput(Stream stream, boolean headOnly) {
+            this.stream = stream;
+            this.headOnly = headOnly;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            one[0] = (byte) b;
+            write(one, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                switch (mode) {
+                    case HEAD:
+                        n = collectHead(b, off, len);
+                        break;
+                    case SIZED:
+                        n = (int) Math.min(len, remaining);
+                        body(b, off, n);
+                        remaining -= n;
+                        if (remaining == 0) {
+                            mode = DONE;
+                            sendData(true);
+                        }
+                        break;
+                    case CHUNKED:
+                        n = dechunk(b, off, len);
+                        break;
+                    case UNTIL_CLOSE:
+                        n = len;
+                        body(b, off, n);
+                        break;
+                    default:
+                        n = len;
+                }
+                off += n;
+                len -= n;
+            }
+        }
+
+        private int collectHead(byte[] b, int off, int len) throws IOException {
+            for (int i = 0; i < len; i++) {
+                if (headLength == head.length) {
+                    if (head.length >= 4 * HttpRequestParser.MAX_HEAD_BYTES) {
+                        throw new IOException("Response head too large");
+                    }
+                    head = Arrays.copyOf(head, head.length * 2);
+                }
+                head[headLength++] = b[off + i];
+                if (headLength >= 4 && head[headLength - 1] == '\n' && head[headLength - 2] == '\r'
+                        && head[headLength - 3] == '\n' && head[headLength - 4] == '\r') {
+                    sendHead();
+                    return i + 1;
+                }
+            }
+            return len;
+        }
+
+        /**
+         * Turns the collected HTTP/1.1 head into a HEADERS frame and picks
+         * how the body is delimited.
+         */
+        private void sendHead() throws IOException {
+            String text = new String(head, 0, headLength - 4, StandardCharsets.ISO_8859_1);
+            head = null;
+            String[] lines = text.split("\r\n");
+            String status = lines[0].length() >= 12 ? lines[0].substring(9, 12) : "500";
+            List<String> fields = new ArrayList<>(2 * lines.length);
+            mode = UNTIL_CLOSE;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                switch (name) {
+                    case "connection":
+                    case "keep-alive":
+                    case "proxy-connection":
+                    case "upgrade":
+                        continue;
+                    case "transfer-encoding":
+                        mode = CHUNKED;
+                        continue;
+                    case "content-length":
+                        if (mode != CHUNKED) {
+                            mode = SIZED;
+                            remaining = Long.parseLong(value);
+                        }
+                        break;
+                    default:
+                }
+                fields.add(name);
+                fields.add(value);
+            }
+            boolean empty = headOnly || status.equals("204") || status.equals("304")
+                    || (mode == SIZED && remaining == 0);
+            if (empty) {
+                mode = DONE;
+            }
+            out.awaitRoom();
+            synchronized (Http2Connection.this) {
+                if (closed || stream.reset) {
+                    throw new IOException("Stream " + stream.id + " closed");
+                }
+                headerBlock.reset();
+                encoder.begin(headerBlock);
+                encoder.field(headerBlock, ":status", status, true);
+                for (int i = 0; i < fields.size(); i += 2) {
+                    String name = fields.get(i);
+                    encoder.field(headerBlock, name, fields.get(i + 1), indexable(name));
+                }
+                byte[] block = headerBlock.toByteArray();
+                int max = Math.min(maxFrameSize, MAX_FRAME_SIZE);
+                int off = 0;
+                do {
+                    int n = Math.min(max, block.length - off);
+                    int flags = off + n == block.length ? END_HEADERS : 0;
+                    if (off == 0 && empty) {
+                        flags |= END_STREAM;
+                    }
+                    ByteBuffer f = frame(n, off == 0 ? HEADERS : CONTINUATION, flags, stream.id);
+                    f.put(block, off, n);
+                    out.write(f.flip());
+                    off += n;
+                } while (off < block.length);
+                if (empty) {
+                    streamEnded(stream);
+                }
+            }
+        }
+
+        private boolean indexable(String name) {
+            switch (name) {
+                case "content-length":
+                case "content-range":
+                case "etag":
+                case "last-modified":
+                case "date":
+                case "set-cookie":
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private int dechunk(byte[] b, int off, int len) throws IOException {
+            if (chunkState == CHUNK_DATA) {
+                int n = (int) Math.min(len, remaining);
+                body(b, off, n);
+                remaining -= n;
+                if (remaining == 0) {
+                    chunkState = CHUNK_END;
+                }
+                return n;
+            }
+            int c = b[off];
+            switch (chunkState) {
+                case CHUNK_SIZE:
+                    int digit = Character.digit(c, 16);
+                    if (digit >= 0) {
+                        remaining = remaining * 16 + digit;
+                    } else if (c == ';') {
+                        chunkState = CHUNK_EXTENSION;
+                    } else if (c == '\n') {
+                        endSizeLine();
+                    }
+                    break;
+                case CHUNK_EXTENSION:
+                    if (c == '\n') {
+                        endSizeLine();
+                    }
+                    break;
+                case CHUNK_END:
+                    if (c == '\n') {
+                        chunkState = CHUNK_SIZE;
+                    }
+                    break;
+                default:
+                    // Trailers end at an empty line.
+                    if (c == '\n') {
+                        if (lineLength == 0) {
+                            mode = DONE;
+                            sendData(true);
+                        }
+                        lineLength = 0;
+                    } else if (c != '\r') {
+                        lineLength++;
+                    }
+            }
+            return 1;
+        }
+
+        private void endSizeLine() {
+            chunkState = remaining == 0 ? TRAILERS : CHUNK_DATA;
+            lineLength = 0;
+        }
+
+        private void body(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (data == null) {
+                    data = BufferPool.OUTPUT.acquire();
+                    data.position(9);
+                }
+                int n = Math.min(len, 9 + MAX_DATA - data.position());
+                data.put(b, off, n);
+                off += n;
+                len -= n;
+                if (data.position() == 9 + MAX_DATA) {
+                    sendData(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (data != null && data.position() > 9) {
+                sendData(false);
+            }
+        }
+
+        /**
+         * Sends the buffered body, splitting it when the flow control window
+         * is smaller.
+         */
+        private void sendData(boolean end) throws IOException {
+            ByteBuffer buf = data;
+            data = null;
+            if (buf == null) {
+                if (!end) {
+                    return;
+                }
+                buf = ByteBuffer.allocate(9).position(9);
+            }
+            int length = buf.position() - 9;
+            int max = Math.min(maxFrameSizeSnapshot(), MAX_DATA);
+            try {
+                while (true) {
+                    out.awaitRoom();
+                    synchronized (Http2Connection.this) {
+                        int granted = length == 0 ? 0 : reserveWindow(stream, Math.min(length, max));
+                        if (granted == length) {
+                            putHeader(buf, length, DATA, end ? END_STREAM : 0, stream.id);
+                            out.write(buf.flip());
+                            buf = null;
+                            if (end) {
+                                streamEnded(stream);
+                            }
+                            return;
+                        }
+                        ByteBuffer rest = BufferPool.OUTPUT.acquire();
+                        rest.position(9);
+                        rest.put(buf.duplicate().limit(9 + length).position(9 + granted));
+                        buf.position(9 + granted);
+                        putHeader(buf, granted, DATA, 0, stream.id);
+                        out.write(buf.flip());
+                        buf = rest;
+                        length -= granted;
+                    }
+                }
+            } finally {
+                if (buf != null) {
+                    BufferPool.OUTPUT.release(buf);
+                }
+            }
+        }
+
+        private int maxFrameSizeSnapshot() {
+            synchronized (Http2Connection.this) {
+                return maxFrameSize;
+            }
+        }
+
+        /**
+         * Ends the stream once the handler is done with it.
+         */
+        void finish(Throwable error) {
+            if (error != null) {
+                fail(error);
+                return;
+            }
+            try {
+                close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void fail(Throwable e) {
+            if (data != null) {
+                BufferPool.OUTPUT.release(data);
+                data = null;
+            }
+            synchronized (Http2Connection.this) {
+                if (stream.reset || closed) {
+                    return;
+                }
+            }
+            Metrics.connectionErrors.increment();
+            System.err.println("Stream error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+            try {
+                rst(stream.id, mode == HEAD ? INTERNAL_ERROR : CANCEL);
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mode == DONE) {
+                return;
+            }
+            if (mode == HEAD) {
+                throw new IOException("No response written");
+            }
+            mode = DONE;
+            sendData(true);
+        }
+    }
+}
@@ -4,13 +4,31 @@
  */
 package edu.eci.arep.docker;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * Client helpers for the tests and a load generator.
+ * <p>
+ * {@link #load} keeps {@code concurrency} keep-alive connections busy, each
+ * sending one request at a time. With a target rate, every connection follows
+ * a fixed schedule and latency is measured from when a request was due, not
+ * from when it could be sent, so a server stall is charged to every request
+ * it delayed (no coordinated omission). Without a rate the connections send
+ * back to back and the latencies are service times only.
  *
  * @author Jaider Vargas
  */
@@ -18,85 +36,264 @@ public class HttpConnection {
 
     private static final String USER_AGENT = "Mozilla/5.0";
     private static String BASE_URL = "http://localhost:35000";
-    
+
+    /**
+     * The outcome of one {@link #load} run.
+     */
+    public static final class LoadResult {
+
+        public final String path;
+        // Nanoseconds, from when each request was due until its response was read.
+        public final LatencyHistogram latencies;
+        public final long errors;
+        public final double seconds;
+
+        LoadResult(String path, LatencyHistogram latencies, long errors, double seconds) {
+            this.path = path;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+
+        public double requestsPerSecond() {
+            return latencies.count() / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %9d req %6d err %10.1f req/s  p50 %8.3f  p90 %8.3f  p99 %8.3f  p99.9 %8.3f  max %8.3f ms",
+                    path, latencies.count(), errors, requestsPerSecond(),
+                    millis(latencies.percentile(50)), millis(latencies.percentile(90)),
+                    millis(latencies.percentile(99)), millis(latencies.percentile(99.9)), millis(latencies.max()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
     public static void port(int port){
         BASE_URL = "http://localhost:" + port;
     }
 
-    public static void main(String[] args) throws IOException {
-
-        stablishConnection("GET","/");
-    }
-       public static byte[] makeRequestBytes(String method, String path) throws IOException {
-        URL obj = new URL(BASE_URL + path);
-        HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-        con.setRequestMethod(method);
-        con.setRequestProperty("User-Agent", USER_AGENT);
-        
-        //The following invocation perform the connection implicitly before getting the code
-        int responseCode = con.getResponseCode();
-        System.out.println("GET Response Code :: " + responseCode);
-        StringBuffer response = new StringBuffer();
-        if (responseCode == HttpURLConnection.HTTP_OK) { // success
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    con.getInputStream()));
-            String inputLine;
-            
-
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
+    /**
+     * Without arguments, checks that the server answers {@code GET /}.
+     * Otherwise runs {@link #load} on each path given:
+     * <pre>
+     * HttpConnection [-u http://host:port] [-c connections] [-r requests/s] [-d seconds] [-w warmup seconds] path...
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            stablishConnection("GET","/");
+            return;
+        }
+        int concurrency = 16;
+        int rate = 0;
+        int seconds = 10;
+        int warmup = 2;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-u": BASE_URL = args[++i].replaceFirst("/$", ""); break;
+                case "-c": concurrency = Integer.parseInt(args[++i]); break;
+                case "-r": rate = Integer.parseInt(args[++i]); break;
+                case "-d": seconds = Integer.parseInt(args[++i]); break;
+                case "-w": warmup = Integer.parseInt(args[++i]); break;
+                default: paths.add(args[i]);
             }
-            in.close();
-
-            // print result
-            System.out.println(response.toString());
-        } else {
-            System.out.println(method + " request not worked");
         }
-        System.out.println(method + " DONE");
-        return response.toString().getBytes();
-    }
-    public static String makeRequest(String method, String path) throws IOException {
-        URL obj = new URL(BASE_URL + path);
-        HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-        con.setRequestMethod(method);
-        con.setRequestProperty("User-Agent", USER_AGENT);
-        
-        //The following invocation perform the connection implicitly before getting the code
-        int responseCode = con.getResponseCode();
-        System.out.println("GET Response Code :: " + responseCode);
-        StringBuffer response = new StringBuffer();
-        if (responseCode == HttpURLConnection.HTTP_OK) { // success
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    con.getInputStream()));
-            String inputLine;
-            
-
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
+        System.out.println(BASE_URL + ": " + concurrency + " connections, "
+                + (rate > 0 ? rate + " req/s" : "unthrottled") + ", " + seconds + " s per path");
+        for (String path : paths) {
+            if (warmup > 0) {
+                load(path, concurrency, rate, warmup * 1000L);
             }
-            in.close();
+            System.out.println(load(path, concurrency, rate, seconds * 1000L));
+        }
+    }
 
-            // print result
-            System.out.println(response.toString());
-        } else {
-            System.out.println(method + " request not worked");
+    public static byte[] makeRequestBytes(String method, String path) throws IOException {
+        HttpURLConnection con = stablishConnection(method, path);
+        if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            return new byte[0];
+        }
+        try (InputStream in = con.getInputStream()) {
+            return in.readAllBytes();
         }
-        System.out.println(method + " DONE");
-        return response.toString();
     }
-    
+
+    public static String makeRequest(String method, String path) throws IOException {
+        return new String(makeRequestBytes(method, path), StandardCharsets.UTF_8);
+    }
+
     public static HttpURLConnection stablishConnection(String method, String path) throws IOException{
         URL obj = new URL(BASE_URL + path);
         HttpURLConnection con = (HttpURLConnection) obj.openConnection();
         con.setRequestMethod(method);
         con.setRequestProperty("User-Agent", USER_AGENT);
-        
+
         //The following invocation perform the connection implicitly before getting the code
-        int responseCode = con.getResponseCode();
-        System.out.println("GET Response Code :: " + responseCode);
-        
+        con.getResponseCode();
+
         return con;
     }
 
-} 
+    /**
+     * Sends {@code GET path} for {@code durationMs} over {@code concurrency}
+     * connections, at {@code rate} requests per second in total, or as fast
+     * as the server answers if {@code rate} is 0. Responses other than 2xx or
+     * 3xx, and failed connections, count as errors.
+     */
+    public static LoadResult load(String path, int concurrency, int rate, long durationMs) throws InterruptedException {
+        URI base = URI.create(BASE_URL);
+        InetSocketAddress address = new InetSocketAddress(base.getHost(), base.getPort() < 0 ? 80 : base.getPort());
+        byte[] request = ("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + base.getAuthority() + "\r\n"
+                + "User-Agent: " + USER_AGENT + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        long interval = rate > 0 ? Math.max(1, (long) (1e9 * concurrency / rate)) : 0;
+        long start = System.nanoTime();
+        long end = start + durationMs * 1_000_000L;
+
+        LoadWorker[] workers = new LoadWorker[concurrency];
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            // Staggered so the connections do not all fire together.
+            workers[i] = new LoadWorker(address, request, start + interval * i / concurrency, interval, end);
+            threads[i] = new Thread(workers[i], "load-" + i);
+            threads[i].start();
+        }
+        LatencyHistogram latencies = new LatencyHistogram();
+        long errors = 0;
+        for (int i = 0; i < concurrency; i++) {
+            threads[i].join();
+            latencies.add(workers[i].latencies);
+            errors += workers[i].errors;
+        }
+        return new LoadResult(path, latencies, errors, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static final class LoadWorker implements Runnable {
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long errors;
+
+        private final InetSocketAddress address;
+        private final byte[] request;
+        private final long first;
+        private final long interval;
+        private final long end;
+        private SocketChannel channel;
+        private InputStream in;
+
+        LoadWorker(InetSocketAddress address, byte[] request, long first, long interval, long end) {
+            this.address = address;
+            this.request = request;
+            this.first = first;
+            this.interval = interval;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long i = 0;; i++) {
+                    long due = interval > 0 ? first + i * interval : System.nanoTime();
+                    if (due >= end) {
+                        return;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < due) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                    try {
+                        if (channel == null) {
+                            channel = SocketChannel.open(address);
+                            channel.socket().setTcpNoDelay(true);
+                            in = new BufferedInputStream(Channels.newInputStream(channel), 16 * 1024);
+                        }
+                        channel.write(ByteBuffer.wrap(request));
+                        int status = readResponse();
+                        latencies.record(System.nanoTime() - due);
+                        if (status < 200 || status >= 400) {
+                            errors++;
+                        }
+                    } catch (IOException e) {
+                        errors++;
+                        close();
+                    }
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Reads one response, closing the connection afterwards if the
+         * server asked to.
+         *
+         * @return the status code
+         */
+        private int readResponse() throws IOException {
+            int status = -1;
+            long length = -1;
+            boolean chunked = false;
+            boolean close = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                if (status < 0) {
+                    status = Integer.parseInt(line.substring(9, 12));
+                } else if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(line.substring(15).trim());
+                } else if (line.regionMatches(true, 0, "Transfer-Encoding:", 0, 18)) {
+                    chunked = line.toLowerCase().contains("chunked");
+                } else if (line.regionMatches(true, 0, "Connection:", 0, 11)) {
+                    close = line.toLowerCase().contains("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                    in.skipNBytes(size + 2);
+                }
+                while (!readLine().isEmpty()) {
+                    // trailers
+                }
+            } else if (length >= 0) {
+                in.skipNBytes(length);
+            } else {
+                close = true;
+                in.transferTo(java.io.OutputStream.nullOutputStream());
+            }
+            if (close) {
+                close();
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+    }
+
+}
@@ -4,25 +4,369 @@
  */
 package edu.eci.arep.docker;
 
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
+ * A parsed request head. The request keeps offsets into the connection's head
+ * buffer rather than copies, and only builds strings (percent-decoded where it
+ * applies) when a caller asks for them. One instance is reused per connection,
+ * so it must not be kept after the response has been written.
  *
  * @author luisdanielbenavidesnavarro
  */
 public class HttpRequest {
-    
-    URI requri = null;
 
-    HttpRequest(URI requri) {
-        this.requri = requri;
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"};
+
+    byte[] buf;
+    int methodStart, methodEnd;
+    int pathStart, pathEnd;
+    // -1 when the target has no '?'
+    int queryStart = -1, queryEnd = -1;
+    boolean http10;
+    // "PRI * HTTP/2.0": the client speaks HTTP/2 with prior knowledge.
+    boolean http2Preface;
+    // nameStart, nameEnd, valueStart, valueEnd for each header
+    int[] headerOffsets = new int[4 * 16];
+    int headerCount;
+    // Decided by the server once the connection limits are known.
+    boolean keepAlive;
+    // The peer's address, set by the connection; kept across reset().
+    InetAddress client;
+    // Set by the connection when the request has a body; read by the handler.
+    BodyStream body;
+    // Set by the router: the matched route's variable names, and the start
+    // and end of each value in getPath()
+    String[] variableNames;
+    int[] variableBounds = new int[2 * 4];
+    // Where the response of an asynchronous handler is written; null for
+    // the server's workers.
+    Executor writer;
+    // Filled in while the response is written, for the metrics
+    int status;
+    Metrics.Histogram route;
+
+    private String method;
+    private String path;
+    private URI requri;
+    private Map<String, String> queryParams;
+
+    HttpRequest() {
+    }
+
+    /**
+     * Forgets the previous request before the parser fills in the next one.
+     */
+    void reset(byte[] buf) {
+        this.buf = buf;
+        queryStart = -1;
+        queryEnd = -1;
+        headerCount = 0;
+        http10 = false;
+        http2Preface = false;
+        keepAlive = false;
+        body = null;
+        writer = null;
+        variableNames = null;
+        status = 0;
+        route = null;
+        method = null;
+        path = null;
+        requri = null;
+        queryParams = null;
+    }
+
+    void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int i = headerCount * 4;
+        if (i == headerOffsets.length) {
+            int[] grown = new int[headerOffsets.length * 2];
+            System.arraycopy(headerOffsets, 0, grown, 0, i);
+            headerOffsets = grown;
+        }
+        headerOffsets[i] = nameStart;
+        headerOffsets[i + 1] = nameEnd;
+        headerOffsets[i + 2] = valueStart;
+        headerOffsets[i + 3] = valueEnd;
+        headerCount++;
+    }
+
+    public String getMethod() {
+        if (method == null) {
+            for (String m : METHODS) {
+                if (equalsAscii(methodStart, methodEnd, m, false)) {
+                    method = m;
+                    return m;
+                }
+            }
+            method = new String(buf, methodStart, methodEnd - methodStart, StandardCharsets.US_ASCII);
+        }
+        return method;
+    }
+
+    /**
+     * @return the percent-decoded path, without the query
+     */
+    public String getPath() {
+        if (path == null) {
+            path = decode(buf, pathStart, pathEnd, false);
+        }
+        return path;
+    }
+
+    /**
+     * @return the raw query string, or {@code null} if the target had none
+     */
+    public String getQuery() {
+        return queryStart < 0 ? null : new String(buf, queryStart, queryEnd - queryStart, StandardCharsets.UTF_8);
+    }
+
+    public URI getUri() {
+        if (requri == null) {
+            int end = queryStart < 0 ? pathEnd : queryEnd;
+            requri = URI.create(new String(buf, pathStart, end - pathStart, StandardCharsets.UTF_8));
+        }
+        return requri;
+    }
+
+    /**
+     * @param name header name, case-insensitive
+     * @return the header value, or {@code null} if it was not sent
+     */
+    public String getHeader(String name) {
+        int i = findHeader(name);
+        if (i < 0) {
+            return null;
+        }
+        return new String(buf, headerOffsets[i + 2], headerOffsets[i + 3] - headerOffsets[i + 2], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the first value of query parameter {@code name}, decoded, or
+     * {@code null} if it is absent
+     */
+    public String getQueryParam(String name) {
+        if (queryParams != null) {
+            return queryParams.get(name);
+        }
+        int pos = queryStart;
+        while (pos >= 0 && pos < queryEnd) {
+            int amp = indexOf('&', pos, queryEnd);
+            int eq = indexOf('=', pos, amp);
+            if (keyMatches(pos, eq, name)) {
+                return eq == amp ? "" : decode(buf, eq + 1, amp, true);
+            }
+            pos = amp + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @return every query parameter, decoded; the first value wins when a name
+     * repeats
+     */
+    public Map<String, String> getQueryParams() {
+        if (queryParams == null) {
+            Map<String, String> params = new LinkedHashMap<>();
+            int pos = queryStart;
+            while (pos >= 0 && pos < queryEnd) {
+                int amp = indexOf('&', pos, queryEnd);
+                int eq = indexOf('=', pos, amp);
+                if (eq > pos) {
+                    params.putIfAbsent(decode(buf, pos, eq, true), eq == amp ? "" : decode(buf, eq + 1, amp, true));
+                }
+                pos = amp + 1;
+            }
+            queryParams = Collections.unmodifiableMap(params);
+        }
+        return queryParams;
+    }
+
+    /**
+     * @return the value of path variable {@code name} of the matched route,
+     * or {@code null} if the route has no such variable
+     */
+    public String getPathVariable(String name) {
+        if (variableNames != null) {
+            for (int i = 0; i < variableNames.length; i++) {
+                if (name.equals(variableNames[i])) {
+                    return getPath().substring(variableBounds[2 * i], variableBounds[2 * i + 1]);
+                }
+            }
+        }
+        return null;
     }
 
     public String getValue(String paramName) {
-        
-        //Extrae el valor de paramName desde el query.
-        String paramValue = requri.getQuery().split("=")[1]; //Ejemplo: /app/hello?name=jhon
-        return paramValue;
+
+        //Extrae el valor de paramName desde el query. Ejemplo: /app/hello?name=jhon
+        return getQueryParam(paramName);
+    }
+
+    /**
+     * Whether the client asked to reuse the connection: HTTP/1.1 unless it
+     * sent {@code Connection: close}, HTTP/1.0 only with an explicit
+     * {@code Connection: keep-alive}.
+     */
+    boolean wantsKeepAlive() {
+        int i = findHeader("connection");
+        if (http10) {
+            return i >= 0 && equalsAscii(headerOffsets[i + 2], headerOffsets[i + 3], "keep-alive", true);
+        }
+        return i < 0 || !equalsAscii(headerOffsets[i + 2], headerOffsets[i + 3], "close", true);
+    }
+
+    /**
+     * @return the declared body length, {@code 0} if there is none, or
+     * {@code -1} if the body is chunked or the length is invalid
+     */
+    long contentLength() {
+        if (findHeader("transfer-encoding") >= 0) {
+            return -1;
+        }
+        int i = findHeader("content-length");
+        if (i < 0) {
+            return 0;
+        }
+        int start = headerOffsets[i + 2];
+        int end = headerOffsets[i + 3];
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long n = 0;
+        for (int p = start; p < end; p++) {
+            int d = buf[p] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    /**
+     * @return whether the body is in chunked transfer coding, its last coding
+     */
+    boolean chunked() {
+        int i = findHeader("transfer-encoding");
+        if (i < 0) {
+            return false;
+        }
+        int end = headerOffsets[i + 3];
+        while (end > headerOffsets[i + 2] && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) {
+            end--;
+        }
+        int start = end - "chunked".length();
+        return start >= headerOffsets[i + 2] && equalsAscii(start, end, "chunked", true)
+                && (start == headerOffsets[i + 2] || buf[start - 1] == ',' || buf[start - 1] == ' ');
+    }
+
+    /**
+     * @return whether the client waits for {@code 100 Continue} before
+     * sending the body
+     */
+    boolean expectsContinue() {
+        int i = findHeader("expect");
+        return i >= 0 && equalsAscii(headerOffsets[i + 2], headerOffsets[i + 3], "100-continue", true);
+    }
+
+    /**
+     * @return whether this is a {@code HEAD} request, answered without a
+     * body
+     */
+    boolean isHead() {
+        return equalsAscii(methodStart, methodEnd, "HEAD", false);
+    }
+
+    private int findHeader(String name) {
+        for (int i = 0; i < headerCount * 4; i += 4) {
+            if (equalsAscii(headerOffsets[i], headerOffsets[i + 1], name, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsAscii(int start, int end, String s, boolean ignoreCase) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int a = buf[start + i];
+            int b = s.charAt(i);
+            if (a != b && (!ignoreCase || toLower(a) != toLower(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyMatches(int start, int end, String name) {
+        for (int p = start; p < end; p++) {
+            if (buf[p] == '%' || buf[p] == '+') {
+                return decode(buf, start, end, true).equals(name);
+            }
+        }
+        return equalsAscii(start, end, name, false);
+    }
+
+    private int indexOf(char c, int from, int end) {
+        for (int p = from; p < end; p++) {
+            if (buf[p] == c) {
+                return p;
+            }
+        }
+        return end;
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+
+    /**
+     * Percent-decodes {@code buf[start, end)} as UTF-8. Malformed escapes are
+     * kept as they are.
+     */
+    static String decode(byte[] buf, int start, int end, boolean plusAsSpace) {
+        boolean plain = true;
+        for (int p = start; p < end && plain; p++) {
+            plain = buf[p] != '%' && !(plusAsSpace && buf[p] == '+');
+        }
+        if (plain) {
+            return new String(buf, start, end - start, StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        for (int p = start; p < end; p++) {
+            byte b = buf[p];
+            if (b == '+' && plusAsSpace) {
+                out.write(' ');
+            } else if (b == '%' && p + 2 < end && hex(buf[p + 1]) >= 0 && hex(buf[p + 2]) >= 0) {
+                out.write(hex(buf[p + 1]) << 4 | hex(buf[p + 2]));
+                p += 2;
+            } else {
+                out.write(b);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
     }
 
 }
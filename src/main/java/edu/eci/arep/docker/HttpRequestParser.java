@@ -0,0 +1,224 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Byte-level HTTP/1.x request head parser. One parser is kept per connection,
+ * so the head buffer and the {@link HttpRequest} holding offsets into it are
+ * reused across keep-alive and pipelined requests.
+ *
+ * @author Jaider Vargas
+ */
+final class HttpRequestParser {
+
+    static final int MAX_HEAD_BYTES = 8192;
+
+    /**
+     * Thrown for a head that cannot be answered normally; carries the
+     * pre-encoded response to send before closing.
+     */
+    static final class BadRequestException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final byte[] response;
+
+        BadRequestException(String message, byte[] response) {
+            super(message);
+            this.response = response;
+        }
+    }
+
+    private final byte[] head = new byte[MAX_HEAD_BYTES];
+    private final HttpRequest request = new HttpRequest();
+
+    /**
+     * Blocks until a full head has been read from {@code in}. The stream must
+     * be buffered: bytes of a pipelined request that follow the head stay in it.
+     *
+     * @return this parser's request, refilled, or {@code null} if the peer
+     * closed the connection between requests
+     */
+    HttpRequest read(InputStream in) throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (length == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed inside request head");
+            }
+            if (length == 0 && (b == '\r' || b == '\n')) {
+                // Stray CRLF between pipelined requests is allowed (RFC 9112 2.2).
+                continue;
+            }
+            if (length == head.length) {
+                throw new BadRequestException("Request head too large", HttpServer.HEAD_TOO_LARGE);
+            }
+            head[length++] = (byte) b;
+            if (b == '\n' && length >= 4 && head[length - 2] == '\r'
+                    && head[length - 3] == '\n' && head[length - 4] == '\r') {
+                if (!parse(head, 0, length, request)) {
+                    throw new BadRequestException("Malformed request head", HttpServer.BAD_REQUEST);
+                }
+                return request;
+            }
+        }
+    }
+
+    /**
+     * Scans {@code buf[from, limit)} for the blank line ending a head.
+     *
+     * @return the index just past the terminating CRLFCRLF, or -1
+     */
+    static int findHeadEnd(byte[] buf, int from, int limit) {
+        for (int i = Math.max(0, from); i + 3 < limit; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the complete head in {@code buf[off, end)} into {@code req},
+     * recording offsets only; nothing is copied or decoded here.
+     *
+     * @return {@code false} if the head is malformed
+     */
+    static boolean parse(byte[] buf, int off, int end, HttpRequest req) {
+        req.reset(buf);
+        int p = off;
+        while (p < end && buf[p] != ' ') {
+            if (!isTokenChar(buf[p])) {
+                return false;
+            }
+            p++;
+        }
+        if (p == off || p >= end) {
+            return false;
+        }
+        req.methodStart = off;
+        req.methodEnd = p;
+
+        int target = ++p;
+        while (p < end && buf[p] != ' ') {
+            if (buf[p] <= ' ' || buf[p] == 127) {
+                return false;
+            }
+            p++;
+        }
+        if (p == target || p >= end) {
+            return false;
+        }
+        int targetEnd = p;
+        int pathStart = target;
+        if (buf[target] != '/' && !(targetEnd - target == 1 && buf[target] == '*')) {
+            // absolute-form, e.g. http://host/path: route on the path only
+            int scheme = indexOf(buf, target, targetEnd, "://");
+            if (scheme < 0) {
+                return false;
+            }
+            pathStart = indexOf(buf, scheme + 3, targetEnd, "/");
+            if (pathStart < 0) {
+                return false;
+            }
+        }
+        req.pathStart = pathStart;
+        req.pathEnd = targetEnd;
+        int q = indexOf(buf, pathStart, targetEnd, "?");
+        if (q >= 0) {
+            req.pathEnd = q;
+            req.queryStart = q + 1;
+            req.queryEnd = targetEnd;
+        }
+
+        p++;
+        int lineEnd = lineEnd(buf, p, end);
+        if (lineEnd - p == 8 && indexOf(buf, p, lineEnd, "HTTP/2.0") == p
+                && req.methodEnd - off == 3 && indexOf(buf, off, p, "PRI * ") == off) {
+            // The start of the HTTP/2 client preface; the server takes it from here.
+            req.http2Preface = true;
+            return true;
+        }
+        if (lineEnd - p != 8 || indexOf(buf, p, p + 7, "HTTP/1.") != p
+                || (buf[p + 7] != '0' && buf[p + 7] != '1')) {
+            return false;
+        }
+        req.http10 = buf[p + 7] == '0';
+
+        p = lineEnd + 2;
+        while (p < end) {
+            lineEnd = lineEnd(buf, p, end);
+            if (lineEnd < 0) {
+                return false;
+            }
+            if (lineEnd == p) {
+                break;
+            }
+            int nameEnd = p;
+            while (nameEnd < lineEnd && buf[nameEnd] != ':') {
+                if (!isTokenChar(buf[nameEnd])) {
+                    return false;
+                }
+                nameEnd++;
+            }
+            if (nameEnd == p || nameEnd == lineEnd) {
+                return false;
+            }
+            int valueStart = nameEnd + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && (buf[valueStart] == ' ' || buf[valueStart] == '\t')) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && (buf[valueEnd - 1] == ' ' || buf[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+            req.addHeader(p, nameEnd, valueStart, valueEnd);
+            p = lineEnd + 2;
+        }
+        return true;
+    }
+
+    private static boolean isTokenChar(byte b) {
+        if (b <= ' ' || b >= 127) {
+            return false;
+        }
+        switch (b) {
+            case '(': case ')': case ',': case '/': case ':': case ';': case '<': case '=':
+            case '>': case '?': case '@': case '[': case '\\': case ']': case '{': case '}': case '"':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static int indexOf(byte[] buf, int from, int end, String s) {
+        outer:
+        for (int i = from; i + s.length() <= end; i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (buf[i + j] != s.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int lineEnd(byte[] buf, int from, int end) {
+        for (int i = from; i + 1 < end; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
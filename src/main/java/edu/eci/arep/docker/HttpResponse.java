@@ -4,10 +4,193 @@
  */
 package edu.eci.arep.docker;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * A response streamed to the client as it is produced. A handler that
+ * declares an {@code HttpResponse} parameter writes its output here instead
+ * of returning it; handlers returning a {@code Stream}, {@code Iterator} or
+ * {@code Flow.Publisher} are written through one as well.
+ * <p>
+ * The head goes out with the first flush, with
+ * {@code Transfer-Encoding: chunked} (HTTP/1.0 clients get the body up to
+ * the connection close instead). Output is gathered in a fixed
+ * {@value #BUFFER_SIZE}-byte buffer and sent one chunk per buffer, so the
+ * memory held for a response does not grow with its size.
  *
  * @author luisdanielbenavidesnavarro
  */
-public class HttpResponse {
-    
+public final class HttpResponse {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private final HttpRequest request;
+    private final OutputStream connection;
+    private String contentType = "text/plain; charset=utf-8";
+    private OutputStream body;
+    private Writer writer;
+    private boolean committed;
+    private boolean finished;
+
+    HttpResponse(HttpRequest request, OutputStream connection) {
+        this.request = request;
+        this.connection = connection;
+    }
+
+    /**
+     * Sets the {@code Content-Type}; only has an effect before anything has
+     * been flushed.
+     */
+    public void setContentType(String contentType) {
+        if (!committed) {
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * @return the body stream; flushing it sends what was written so far
+     */
+    public OutputStream getOutputStream() {
+        if (body == null) {
+            body = new BufferedOutputStream(new OutputStream() {
+                private OutputStream framed;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (framed == null) {
+                        framed = commit();
+                    }
+                    framed.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (framed == null) {
+                        framed = commit();
+                    }
+                    framed.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (framed == null) {
+                        framed = commit();
+                    }
+                    framed.close();
+                }
+            }, BUFFER_SIZE);
+        }
+        return body;
+    }
+
+    /**
+     * @return a UTF-8 writer over {@link #getOutputStream()}
+     */
+    public Writer getWriter() {
+        if (writer == null) {
+            writer = new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8);
+        }
+        return writer;
+    }
+
+    public void write(CharSequence text) throws IOException {
+        getWriter().append(text);
+    }
+
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        } else {
+            getOutputStream().flush();
+        }
+    }
+
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Ends the body, sending the head first if nothing was written.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (writer != null) {
+            writer.close();
+        } else {
+            getOutputStream().close();
+        }
+    }
+
+    /**
+     * Writes the head and returns the stream that frames the body.
+     */
+    private OutputStream commit() throws IOException {
+        committed = true;
+        request.status = 200;
+        String coding = Compression.negotiate(request);
+        if (HttpServer.compressionMinSize() < 0) {
+            coding = null;
+        }
+        if (request.http10) {
+            // No chunked coding in HTTP/1.0: the end of the body is the close.
+            request.keepAlive = false;
+        }
+        connection.write(ResponseHeads.OK);
+        connection.write(ResponseHeads.contentType(contentType));
+        if (coding != null) {
+            connection.write(ResponseHeads.contentEncoding(coding));
+            connection.write(ResponseHeads.VARY);
+        }
+        if (!request.http10) {
+            connection.write(ResponseHeads.CHUNKED);
+        }
+        ResponseHeads.end(connection, request);
+        OutputStream framed = request.http10 ? new Unclosed(connection) : new ChunkedOutputStream(connection);
+        return coding == null ? framed : Compression.flushingEncoder(coding, framed);
+    }
+
+    /**
+     * Passes writes through but leaves the connection open on close.
+     */
+    private static final class Unclosed extends OutputStream {
+
+        private final OutputStream out;
+
+        Unclosed(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
 }
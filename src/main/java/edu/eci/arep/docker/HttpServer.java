@@ -1,29 +1,64 @@
 package edu.eci.arep.docker;
 
 import edu.eci.arep.docker.annotations.GetMapping;
-import edu.eci.arep.docker.annotations.RequestParam;
+import edu.eci.arep.docker.annotations.PostMapping;
+import edu.eci.arep.docker.annotations.PutMapping;
+import edu.eci.arep.docker.annotations.RateLimit;
 import edu.eci.arep.docker.annotations.RestController;
 import java.net.*;
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
+import java.lang.reflect.Modifier;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class HttpServer {
 
-    private static volatile ServerSocket serverSocket;
+    private static volatile List<ServerSocketChannel> listeners = List.of();
     private static final AtomicBoolean running = new AtomicBoolean(true);
+    // Set while a CRaC checkpoint is taken; the listeners are closed then.
+    private static volatile boolean suspended;
+    private static final Object checkpointLock = new Object();
     private static ExecutorService executor;
+    // Runs the streams of blocking HTTP/2 connections, whose own threads only read frames.
+    private static ExecutorService streamExecutor;
+    private static volatile NioServer nioServer;
+    private static IoMode ioMode = IoMode.BLOCKING;
+    private static ExecutorMode executorMode = ExecutorMode.FIXED;
+    private static int maxConcurrency = 0;
+    private static Semaphore permits;
+    private static AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT;
+    private static int queueCapacity = 1024;
+    // Slots for queued plus running work; null when nothing bounds the workers.
+    private static Semaphore admission;
+    private static long latencyTargetMs = 0;
+    private static volatile AdaptiveLimiter limiter;
+    private static double rateLimitPerSecond = 0;
+    private static int rateLimitBurst = 1;
+    private static int rateLimitMaxClients = 100_000;
+    // Requests per client address across all paths; null when unlimited.
+    private static volatile RateLimiter clientLimiter;
     private static final Map<String, String> mimeTypes = new HashMap<String, String>() {
         {
             put("html", "text/html");
@@ -35,63 +70,514 @@ public class HttpServer {
         }
     };
 
-    public static Map<String, Method> services = new java.util.concurrent.ConcurrentHashMap<>();
+    static {
+        for (String type : mimeTypes.values()) {
+            ResponseHeads.contentType(type);
+        }
+    }
+
+    // Rebuilt by loadServices and only read once the server is running.
+    // Routes by method; HEAD requests take the GET ones.
+    static volatile Map<String, Router<RouteInvoker>> routes = Map.of();
+    private static long maxBodyBytes = 64L << 20;
     private static String staticResourceFolder;
+    private static StaticFileCache staticCache = new StaticFileCache(32L << 20, 1024, 1L << 20);
+    // Responses of @Cacheable handlers; null when disabled.
+    private static volatile ResponseCache responseCache = new ResponseCache(16L << 20);
+    private static boolean watchStaticFiles = false;
+    private static int compressionMinSize = 512;
+    private static long asyncTimeoutMs = 30_000;
+    private static final int PUBLISHER_DEMAND = 16;
 
     private static int basePort = 35000;
+    private static int acceptors = 1;
+    private static int listenBacklog = 0;
+    private static boolean tcpNoDelay = true;
+    private static int receiveBuffer = 0;
+    private static int sendBuffer = 0;
+    private static SocketSettings sockets;
+    // Serves plain HTTP while no key store is set.
+    private static Path tlsKeyStore;
+    private static char[] tlsPassword;
+    private static String tlsStoreType = "PKCS12";
+    private static String[] tlsProtocols;
+    private static String[] tlsCipherSuites;
+    private static String[] tlsApplicationProtocols = {"h2", "http/1.1"};
+    private static int tlsSessionCacheSize = 20_000;
+    private static int tlsSessionTimeout = 86_400;
+    private static boolean tlsSessionTickets = true;
+    private static Tls tls;
+    private static int keepAliveTimeout = 5000;
+    private static int readTimeout = 10_000;
+    private static int minReadRate = 500;
+    private static int writeTimeout = 30_000;
+    // Deadlines of blocking connections, advanced by one timer thread.
+    private static final TimingWheel deadlines = new TimingWheel(100, 512, System.currentTimeMillis());
+    private static int maxKeepAliveRequests = 100;
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    static final byte[] BAD_REQUEST = ("HTTP/1.1 400 Bad Request\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: close\r\n\r\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final byte[] HEAD_TOO_LARGE = ("HTTP/1.1 431 Request Header Fields Too Large\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: close\r\n\r\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: close\r\n\r\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final byte[] REQUEST_TIMEOUT = ("HTTP/1.1 408 Request Timeout\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 15\r\n"
+            + "Connection: close\r\n\r\n"
+            + "Request Timeout").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final byte[] PAYLOAD_TOO_LARGE = ("HTTP/1.1 413 Content Too Large\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 17\r\n"
+            + "Connection: close\r\n\r\n"
+            + "Content Too Large").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    // Heads up to the Connection header, and bodies, of the other fixed responses.
+    private static final byte[] NOT_FOUND_BODY = ResponseHeads.ascii("<h1>File not found 404</h1>");
+    private static final byte[] NOT_FOUND_HEAD = ResponseHeads.ascii("HTTP/1.1 404 Not Found\r\n"
+            + "content-type: text/html\r\n"
+            + "Content-Length: " + NOT_FOUND_BODY.length + "\r\n");
+    private static final byte[] SERVER_ERROR_BODY = ResponseHeads.ascii("ERROR");
+    private static final byte[] SERVER_ERROR_HEAD = ResponseHeads.ascii("HTTP/1.1 500 Internal Server Error\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: " + SERVER_ERROR_BODY.length + "\r\n");
+    private static final byte[] TOO_MANY_REQUESTS_BODY = ResponseHeads.ascii("Too Many Requests");
+    private static final byte[] TOO_MANY_REQUESTS_HEAD = ResponseHeads.ascii("HTTP/1.1 429 Too Many Requests\r\n"
+            + "Retry-After: 1\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: " + TOO_MANY_REQUESTS_BODY.length + "\r\n");
+    private static final byte[] METHOD_NOT_ALLOWED_BODY = ResponseHeads.ascii("Method Not Allowed");
+    private static final byte[] METHOD_NOT_ALLOWED_HEAD = ResponseHeads.ascii("HTTP/1.1 405 Method Not Allowed\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: " + METHOD_NOT_ALLOWED_BODY.length + "\r\n");
+    private static final byte[] GATEWAY_TIMEOUT_BODY = ResponseHeads.ascii("Gateway Timeout");
+    private static final byte[] GATEWAY_TIMEOUT_HEAD = ResponseHeads.ascii("HTTP/1.1 504 Gateway Timeout\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: " + GATEWAY_TIMEOUT_BODY.length + "\r\n");
 
     public static void runServer(String[] controllers)
             throws IOException, URISyntaxException, ClassNotFoundException {
 
         loadServices(controllers);
+        if (watchStaticFiles) {
+            staticCache.watch(staticResourceFolder == null ? "" : staticResourceFolder);
+        }
 
-        executor = Executors.newFixedThreadPool(
-                Math.max(4, Runtime.getRuntime().availableProcessors() * 4));
+        tls = newTls();
+        sockets = new SocketSettings(listenBacklog, tcpNoDelay, receiveBuffer, sendBuffer);
+        executor = newExecutor();
+        permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        admission = newAdmission();
+        limiter = latencyTargetMs > 0
+                ? new AdaptiveLimiter(32, 1, maxConcurrency > 0 ? maxConcurrency : 1024, latencyTargetMs * 1_000_000L)
+                : null;
+        clientLimiter = rateLimitPerSecond > 0
+                ? new RateLimiter(rateLimitPerSecond, rateLimitBurst, rateLimitMaxClients)
+                : null;
 
         Runtime.getRuntime().addShutdownHook(new Thread(HttpServer::gracefulShutdown, "shutdown-hook"));
 
-        serverSocket = new ServerSocket(basePort);
-        System.out.println("Listening on port " + basePort);
+        if (ioMode == IoMode.NIO) {
+            runNioServer();
+            return;
+        }
 
+        // Sized like the workers but apart from them, so connection threads
+        // waiting on their streams cannot starve them.
+        streamExecutor = executorMode == ExecutorMode.VIRTUAL ? executor : boundedPool();
+        Thread timer = new Thread(HttpServer::advanceDeadlines, "connection-deadlines");
+        timer.setDaemon(true);
+        timer.start();
+        // Opened through channels so accepted sockets can use FileChannel.transferTo.
+        listeners = sockets.listen(basePort, acceptors);
+        System.out.println("Listening on port " + basePort + (tls == null ? "" : " (tls)")
+                + (acceptors > 1 ? " with " + acceptors + " acceptors" : ""));
+        Checkpoints.register(HttpServer::beforeCheckpoint, HttpServer::afterRestore);
+        for (int i = 1; i < acceptors; i++) {
+            int index = i;
+            Thread acceptor = new Thread(() -> acceptLoop(index), "acceptor-" + i);
+            acceptor.start();
+        }
         try {
-            while (running.get()) {
+            acceptLoop(0);
+        } finally {
+            gracefulShutdown();
+        }
+    }
+
+    /**
+     * Runs acceptor {@code index} until the server stops, on the listeners
+     * opened again after each checkpoint. Without SO_REUSEPORT the acceptors
+     * take turns on one listener.
+     */
+    private static void acceptLoop(int index) {
+        while (running.get()) {
+            List<ServerSocketChannel> current = listeners;
+            accept(current.get(index % current.size()).socket());
+            if (!awaitRestore()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accepts connections from {@code serverSocket} and hands them to the
+     * workers until it is closed.
+     */
+    private static void accept(ServerSocket serverSocket) {
+        while (running.get()) {
+            // Under BLOCK the slot is taken before accepting, so excess
+            // clients wait in the listen backlog.
+            boolean admitted = admissionPolicy == AdmissionPolicy.BLOCK && admit();
+            try {
+                final Socket client = serverSocket.accept();
+                // Responses leave in whole buffers already; Nagle would only delay the last segment.
+                sockets.configure(client.getChannel());
+                Metrics.connections.increment();
+                if (admissionPolicy == AdmissionPolicy.REJECT) {
+                    admitted = tryAdmit();
+                }
+                if (!admitted) {
+                    reject(client);
+                    continue;
+                }
                 try {
-                    final Socket client = serverSocket.accept();
-                    client.setSoTimeout(8000);
                     executor.submit(() -> {
                         try {
-                            handleClient(client);
+                            runLimited(refusable(() -> handleClient(client), () -> reject(client)));
                         } catch (Exception e) {
                         } finally {
+                            releaseAdmission();
                             try {
                                 client.close();
                             } catch (IOException ignored) {
                             }
                         }
                     });
-                } catch (SocketException se) {
-                    if (running.get()) {
-                        System.err.println("SocketException inesperada: " + se.getMessage());
-                    }
-                    break;
+                } catch (java.util.concurrent.RejectedExecutionException re) {
+                    releaseAdmission();
+                    reject(client);
+                }
+            } catch (SocketException | java.nio.channels.AsynchronousCloseException se) {
+                if (admitted && admissionPolicy == AdmissionPolicy.BLOCK) {
+                    releaseAdmission();
                 }
+                if (running.get() && !suspended) {
+                    System.err.println("SocketException inesperada: " + se.getMessage());
+                }
+                return;
+            } catch (IOException e) {
+                System.err.println("Accept error: " + e.getMessage());
             }
+        }
+    }
+
+    /**
+     * Closes the listeners and lets open connections finish before a CRaC
+     * checkpoint, since it cannot be taken with sockets open.
+     */
+    private static void beforeCheckpoint() throws InterruptedException {
+        System.out.println("Checkpoint: closing listeners and connections");
+        suspended = true;
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (nioServer != null) {
+            nioServer.suspend();
+        }
+        // Idle keep-alive connections notice within a poll interval; busy ones get until the idle timeout.
+        long deadline = System.currentTimeMillis() + keepAliveTimeout + 1000;
+        while (Metrics.activeConnections.sum() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Binds the listeners again after a restore and resumes accepting.
+     */
+    private static void afterRestore() throws IOException {
+        listeners = sockets.listen(basePort, acceptors);
+        if (nioServer != null) {
+            nioServer.resume(listeners);
+        }
+        synchronized (checkpointLock) {
+            suspended = false;
+            checkpointLock.notifyAll();
+        }
+        System.out.println("Restored, listening on port " + basePort);
+    }
+
+    /**
+     * Waits out a checkpoint that closed the listener.
+     *
+     * @return {@code false} if the server stopped instead
+     */
+    private static boolean awaitRestore() {
+        synchronized (checkpointLock) {
+            while (suspended && running.get()) {
+                try {
+                    checkpointLock.wait(100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return running.get();
+    }
+
+    /**
+     * Runs tasks on {@code pool} when an admission slot is free and throws
+     * {@link java.util.concurrent.RejectedExecutionException} otherwise. The
+     * callers are event loops and HTTP/2 readers, which must never block, so
+     * a full queue is always reported to them, whatever the policy.
+     */
+    private static Executor admitted(ExecutorService pool) {
+        return task -> {
+            if (!tryAdmit()) {
+                throw new java.util.concurrent.RejectedExecutionException("Work queue full");
+            }
+            try {
+                pool.execute(() -> {
+                    try {
+                        runLimited(task);
+                    } finally {
+                        releaseAdmission();
+                    }
+                });
+            } catch (java.util.concurrent.RejectedExecutionException re) {
+                releaseAdmission();
+                throw re;
+            }
+        };
+    }
+
+    private static void runNioServer() throws IOException {
+        // NioServer applies the admission policy to what the workers refuse.
+        Executor workers = admitted(executor);
+        // With several acceptors every loop gets its own SO_REUSEPORT listener.
+        int loops = acceptors > 1 ? acceptors : Runtime.getRuntime().availableProcessors();
+        listeners = sockets.listen(basePort, acceptors);
+        nioServer = new NioServer(listeners, loops, workers, admissionPolicy, tls, sockets);
+        Checkpoints.register(HttpServer::beforeCheckpoint, HttpServer::afterRestore);
+        System.out.println("Listening on port " + basePort + (tls == null ? " (nio)" : " (nio, tls)")
+                + (acceptors > 1 ? " with " + acceptors + " acceptors" : ""));
+        try {
+            nioServer.run();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         } finally {
             gracefulShutdown();
         }
     }
 
+    private static Tls newTls() throws IOException {
+        if (tlsKeyStore == null) {
+            return null;
+        }
+        Tls.sessionTickets(tlsSessionTickets);
+        try {
+            return new Tls(tlsKeyStore, tlsPassword, tlsStoreType, tlsProtocols, tlsCipherSuites,
+                    tlsApplicationProtocols, tlsSessionCacheSize, tlsSessionTimeout);
+        } catch (java.security.GeneralSecurityException e) {
+            throw new IOException("Could not load key store " + tlsKeyStore, e);
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        if (executorMode == ExecutorMode.VIRTUAL) {
+            try {
+                // Looked up reflectively so the project still builds and runs on Java 17.
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads need Java 21+, using a cached thread pool instead");
+                return Executors.newCachedThreadPool();
+            }
+        }
+        return boundedPool();
+    }
+
+    private static ThreadPoolExecutor boundedPool() {
+        int threads = workerThreads();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new java.util.concurrent.ArrayBlockingQueue<>(Math.max(1, queueCapacity)));
+    }
+
+    private static int workerThreads() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Sizes the admission slots: one per worker that can run at once plus the
+     * queue capacity. Virtual threads without a concurrency limit have no
+     * bound to protect, so nothing is counted.
+     */
+    private static Semaphore newAdmission() {
+        int running;
+        if (executorMode == ExecutorMode.FIXED) {
+            running = workerThreads();
+        } else if (maxConcurrency > 0) {
+            running = maxConcurrency;
+        } else {
+            return null;
+        }
+        return new Semaphore(running + Math.max(1, queueCapacity));
+    }
+
+    private static boolean tryAdmit() {
+        Semaphore a = admission;
+        return a == null || a.tryAcquire();
+    }
+
+    /**
+     * Waits for an admission slot.
+     *
+     * @return {@code false} if the server stopped first
+     */
+    private static boolean admit() {
+        Semaphore a = admission;
+        if (a == null) {
+            return true;
+        }
+        try {
+            while (!a.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (!running.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void releaseAdmission() {
+        Semaphore a = admission;
+        if (a != null) {
+            a.release();
+        }
+    }
+
+    /**
+     * Turns a connection away with the pre-encoded 503, from the accepting
+     * thread or a worker that never started on it; the response fits in a
+     * fresh socket's send buffer.
+     */
+    private static void reject(Socket client) {
+        Metrics.shed.increment();
+        Metrics.status(SERVICE_UNAVAILABLE);
+        try {
+            // Over TLS the 503 would need a handshake first, so the client only sees the close.
+            if (tls == null) {
+                client.getOutputStream().write(SERVICE_UNAVAILABLE);
+                Metrics.bytesOut.add(SERVICE_UNAVAILABLE.length);
+            }
+            client.shutdownOutput();
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs {@code task} once a concurrency permit is available. Waiting gives
+     * up when the server stops so a draining shutdown is not held by queued
+     * work; a task made by {@link #refusable} is then refused instead.
+     */
+    private static void runLimited(Runnable task) {
+        Semaphore p = permits;
+        if (p == null) {
+            task.run();
+            return;
+        }
+        try {
+            while (!p.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (!running.get()) {
+                    refuse(task);
+                    return;
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            refuse(task);
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            p.release();
+        }
+    }
+
+    /**
+     * @return work for the workers that runs {@code task}, or
+     * {@code refuse} if the server stops before a permit is free, so the
+     * client is answered instead of left waiting
+     */
+    static Runnable refusable(Runnable task, Runnable refuse) {
+        return new Refusable(task, refuse);
+    }
+
+    private static void refuse(Runnable task) {
+        if (task instanceof Refusable) {
+            ((Refusable) task).refuse.run();
+        }
+    }
+
+    private static final class Refusable implements Runnable {
+
+        final Runnable task;
+        final Runnable refuse;
+
+        Refusable(Runnable task, Runnable refuse) {
+            this.task = task;
+            this.refuse = refuse;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Stops a running server the way the shutdown hook does.
+     */
+    static void stop() {
+        gracefulShutdown();
+    }
+
     private static void gracefulShutdown() {
         if (!running.getAndSet(false)) {
             return;
         }
         System.out.println("Shutting down gracefully...");
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        for (ServerSocketChannel listener : listeners) {
             try {
-                serverSocket.close();
+                listener.close();
             } catch (IOException ignored) {
             }
         }
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        staticCache.close();
+        if (streamExecutor != null && streamExecutor != executor) {
+            streamExecutor.shutdown();
+        }
         if (executor != null) {
             executor.shutdown();
             try {
@@ -109,63 +595,583 @@ public class HttpServer {
     }
 
     private static void handleClient(Socket clientSocket) {
-        try (OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream()); BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
+        Metrics.activeConnections.increment();
+        TlsConnection secure = tls == null ? null : new TlsConnection(tls.newEngine());
+        Deadline deadline = new Deadline(clientSocket);
+        try (SocketOutputStream out = new SocketOutputStream(clientSocket, secure);
+                InputStream in = new BufferedInputStream(secure == null
+                        ? deadline.watch(Metrics.countInput(clientSocket.getInputStream()))
+                        : secure.input(deadline.watch(Metrics.countInput(clientSocket.getInputStream())), clientSocket.getChannel()))) {
+            deadline.out = out;
 
-            String inputLine;
-            boolean firstline = true;
-            URI requri = null;
+            HttpRequestParser parser = new HttpRequestParser();
+            Handoff writes = new Handoff();
+            int served = 0;
 
-            try {
-                while ((inputLine = in.readLine()) != null) {
-                    if (firstline) {
-                        String[] parts = inputLine.split(" ");
-                        if (parts.length >= 2) {
-                            requri = new URI(parts[1]);
-                        }
-                        firstline = false;
-                    }
-                    if (!in.ready()) {
-                        break;
-                    }
+            while (running.get()) {
+                if (served > 0 && !awaitNextRequest(clientSocket, in)) {
+                    return;
                 }
-            } catch (java.net.SocketTimeoutException te) {
-                byte[] body = "Request Timeout".getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                String hdr = "HTTP/1.1 408 Request Timeout\r\n"
-                        + "Content-Type: text/plain\r\n"
-                        + "Content-Length: " + body.length + "\r\n"
-                        + "Connection: close\r\n\r\n";
+                deadline.await(ConnectionTimeout.HEAD);
+                HttpRequest req;
                 try {
-                    out.write(hdr.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-                    out.write(body);
+                    req = parser.read(in);
+                } catch (HttpRequestParser.BadRequestException be) {
+                    Metrics.status(be.response);
+                    out.write(be.response);
                     out.flush();
-                } catch (IOException ignore) {
+                    return;
+                } catch (java.net.SocketException | EOFException se) {
+                    requestTimeout(deadline, out);
+                    return;
                 }
+
+                if (req == null) {
+                    requestTimeout(deadline, out);
+                    return;
+                }
+                req.client = clientSocket.getInetAddress();
+                if (req.http2Preface && served > 0) {
+                    Metrics.status(BAD_REQUEST);
+                    out.write(BAD_REQUEST);
+                    out.flush();
+                    return;
+                }
+                if (req.http2Preface || (secure == null && Http2Connection.isUpgrade(req))) {
+                    serveHttp2(clientSocket, in, out, deadline, req.http2Preface ? null : req);
+                    return;
+                }
+
+                served++;
+                BodyStream body;
+                try {
+                    // The write deadline takes over once the handler has read the body.
+                    body = requestBody(req, in, () -> deadline.await(ConnectionTimeout.WRITE));
+                } catch (HttpRequestParser.BadRequestException be) {
+                    Metrics.status(be.response);
+                    out.write(be.response);
+                    out.flush();
+                    return;
+                }
+                req.body = body;
+                req.keepAlive = req.wantsKeepAlive() && !req.chunked()
+                        && served < maxKeepAliveRequests && running.get();
+
+                deadline.await(body == null ? ConnectionTimeout.WRITE : ConnectionTimeout.BODY);
+                dispatch(req, out, writes);
+                out.flush();
+
+                if (!req.keepAlive) {
+                    return;
+                }
+                // Anything after the body is the next pipelined request.
+                if (body != null && !body.finished()) {
+                    deadline.await(ConnectionTimeout.BODY);
+                    try {
+                        body.skipRemaining();
+                    } catch (IOException e) {
+                        requestTimeout(deadline, out);
+                        return;
+                    }
+                }
+                deadline.cancel();
+            }
+
+        } catch (Exception e) {
+            if (deadline.expired == null) {
+                Metrics.connectionErrors.increment();
+                System.err.println("Client error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+            }
+        } finally {
+            deadline.cancel();
+            Metrics.activeConnections.decrement();
+            if (secure != null) {
+                secure.close(clientSocket.getChannel());
+            }
+            try {
+                clientSocket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Runs an HTTP/2 connection after its preface, or after {@code upgrade}
+     * asked for h2c. This thread only reads frames; every stream's handler
+     * runs on {@link #streamExecutor} and writes its frames itself. Streams
+     * take admission slots like any other work, and one that finds none is
+     * answered with {@code 503} rather than waited for, since this thread
+     * must keep reading window updates.
+     */
+    private static void serveHttp2(Socket clientSocket, InputStream in, SocketOutputStream out, Deadline deadline,
+            HttpRequest upgrade) throws IOException {
+        BlockingFrameOutput frames = new BlockingFrameOutput(clientSocket, out);
+        Executor streams = admitted(streamExecutor);
+        Http2Connection h2 = new Http2Connection(frames, streams, clientSocket.getInetAddress(),
+                upgrade == null ? Http2Connection.PRI_HEAD_LENGTH : 0);
+        Metrics.http2Connections.increment();
+        try {
+            if (upgrade != null) {
+                out.write(Http2Connection.SWITCHING_PROTOCOLS);
+            }
+            h2.start(upgrade);
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(Http2Connection.INPUT_BUFFER_SIZE);
+            deadline.h2 = h2;
+            deadline.await(ConnectionTimeout.IDLE);
+            while (running.get()) {
+                // Ends when the deadline finds the connection idle.
+                int n = in.read(buf.array(), buf.position(), buf.remaining());
+                if (n < 0) {
+                    break;
+                }
+                buf.position(buf.position() + n).flip();
+                boolean open = h2.receive(buf);
+                buf.compact();
+                if (!open) {
+                    break;
+                }
+            }
+            h2.close();
+        } finally {
+            frames.close();
+        }
+    }
+
+    /**
+     * Frames of a blocking HTTP/2 connection, written by whichever thread
+     * sends them. Once closed, writers get an {@link IOException} and the
+     * reading thread sees the end of its input.
+     */
+    private static final class BlockingFrameOutput implements Http2Connection.Output {
+
+        private final Socket socket;
+        private final SocketOutputStream out;
+        private boolean closed;
+
+        BlockingFrameOutput(Socket socket, SocketOutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        @Override
+        public void awaitRoom() {
+            // Writes block on the socket instead.
+        }
+
+        @Override
+        public synchronized void write(java.nio.ByteBuffer frame) throws IOException {
+            try {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                out.write(frame);
+            } finally {
+                if (frame.isDirect()) {
+                    BufferPool.OUTPUT.release(frame);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
                 return;
-            } catch (java.net.SocketException se) {
-                return;
             }
+            closed = true;
+            try {
+                socket.shutdownInput();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Answers {@code 408} when the connection's input ended because its
+     * deadline for a head or body expired, rather than the client leaving.
+     */
+    private static void requestTimeout(Deadline deadline, OutputStream out) {
+        if (deadline.expired != ConnectionTimeout.HEAD && deadline.expired != ConnectionTimeout.BODY) {
+            return;
+        }
+        Metrics.status(REQUEST_TIMEOUT);
+        try {
+            out.write(REQUEST_TIMEOUT);
+            out.flush();
+        } catch (IOException ignore) {
+        }
+    }
 
-            if (requri == null) {
+    /**
+     * Runs on the timer thread of blocking mode.
+     */
+    private static void advanceDeadlines() {
+        while (true) {
+            try {
+                Thread.sleep(deadlines.tickMillis());
+            } catch (InterruptedException e) {
                 return;
             }
+            synchronized (deadlines) {
+                deadlines.advance(System.currentTimeMillis());
+            }
+        }
+    }
 
-            if (requri.getPath().startsWith("/app")) {
-                invokeService(requri, out);
-            } else {
-                readFileService(requri, out);
+    /**
+     * The deadline of a blocking connection, on the shared wheel. No socket
+     * timeout covers its thread, so an expired read deadline shuts the
+     * socket's input, which ends the blocked read as if the client had
+     * finished, and an expired write deadline closes the socket. The thread
+     * then tells the two apart by {@link #expired}.
+     */
+    private static final class Deadline extends TimingWheel.Timeout {
+
+        private final Socket socket;
+        SocketOutputStream out;
+        // Set once the connection is on HTTP/2, whose idle deadline waits for its streams.
+        Http2Connection h2;
+        private volatile ConnectionTimeout waitingFor;
+        volatile ConnectionTimeout expired;
+        // Only used by the connection's thread.
+        private long readStart;
+        private long received;
+
+        Deadline(Socket socket) {
+            this.socket = socket;
+        }
+
+        void await(ConnectionTimeout kind) {
+            long now = System.currentTimeMillis();
+            readStart = now;
+            received = 0;
+            synchronized (deadlines) {
+                waitingFor = kind;
+                deadlines.schedule(this, kind == ConnectionTimeout.WRITE ? now + writeTimeout
+                        : kind == ConnectionTimeout.IDLE ? now + keepAliveTimeout
+                        : ConnectionTimeout.readDeadline(now, 0));
             }
+        }
 
-        } catch (Exception e) {
-            System.err.println("Client error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+        void cancel() {
+            synchronized (deadlines) {
+                waitingFor = null;
+                deadlines.cancel(this);
+            }
+        }
+
+        /**
+         * Counts what the connection's thread reads towards the minimum rate.
+         * Once a read deadline has expired, the end of the input it caused
+         * is a {@code 408} for whoever is reading, the parser or a handler
+         * reading the body.
+         */
+        InputStream watch(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        received(1);
+                    } else {
+                        checkExpired();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        received(n);
+                    } else if (n < 0) {
+                        checkExpired();
+                    }
+                    return n;
+                }
+            };
+        }
+
+        private void checkExpired() throws HttpRequestParser.BadRequestException {
+            ConnectionTimeout kind = expired;
+            if (kind == ConnectionTimeout.HEAD || kind == ConnectionTimeout.BODY) {
+                throw new HttpRequestParser.BadRequestException("Timed out reading the request", REQUEST_TIMEOUT);
+            }
+        }
+
+        private void received(int n) {
+            ConnectionTimeout kind = waitingFor;
+            if (kind == ConnectionTimeout.HEAD || kind == ConnectionTimeout.BODY) {
+                received += n;
+                postpone(ConnectionTimeout.readDeadline(readStart, received));
+            } else if (kind == ConnectionTimeout.IDLE) {
+                postpone(System.currentTimeMillis() + keepAliveTimeout);
+            }
+        }
+
+        // Called with the wheel locked.
+        @Override
+        void expire(long now) {
+            ConnectionTimeout kind = waitingFor;
+            if (kind == null) {
+                return;
+            }
+            if (kind == ConnectionTimeout.WRITE || kind == ConnectionTimeout.BODY || h2 != null) {
+                // A handler may write before it has read the whole body.
+                long since = out == null ? 0 : out.stalledSince();
+                if (since != 0 && now - since >= writeTimeout) {
+                    expired = ConnectionTimeout.WRITE;
+                    ConnectionTimeout.WRITE.expired.increment();
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                    return;
+                }
+                if (kind == ConnectionTimeout.WRITE) {
+                    // The handler is still working, or the write is progressing.
+                    deadlines.schedule(this, (since != 0 ? since : now) + writeTimeout);
+                    return;
+                }
+                if (h2 != null && !h2.isIdle()) {
+                    deadlines.schedule(this, now + Math.min(keepAliveTimeout, writeTimeout));
+                    return;
+                }
+            }
+            expired = kind;
+            kind.expired.increment();
+            try {
+                socket.shutdownInput();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Waits on an idle keep-alive connection for the first byte of the next
+     * request. Gives the worker back early if other connections are queued
+     * for one, so idle clients cannot starve the pool.
+     */
+    private static boolean awaitNextRequest(Socket clientSocket, InputStream in) throws IOException {
+        if (in.available() > 0) {
+            return true;
+        }
+        try {
+            return pollNextRequest(clientSocket, in);
         } finally {
+            // The request itself is bounded by its deadline instead.
+            clientSocket.setSoTimeout(0);
+        }
+    }
+
+    private static boolean pollNextRequest(Socket clientSocket, InputStream in) throws IOException {
+        long deadline = System.currentTimeMillis() + keepAliveTimeout;
+        while (running.get() && !suspended) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            clientSocket.setSoTimeout((int) Math.min(remaining, 200));
+            in.mark(1);
             try {
-                clientSocket.close();
-            } catch (IOException ignore) {
+                if (in.read() < 0) {
+                    return false;
+                }
+                in.reset();
+                return true;
+            } catch (java.net.SocketTimeoutException te) {
+                if (workersBusy()) {
+                    return false;
+                }
             }
         }
+        return false;
     }
 
-    private static String getMymeType(String fileName) {
+    private static boolean workersBusy() {
+        if (permits != null && permits.hasQueuedThreads()) {
+            return true;
+        }
+        return executor instanceof ThreadPoolExecutor
+                && !((ThreadPoolExecutor) executor).getQueue().isEmpty();
+    }
+
+    /**
+     * Writes the response to {@code req}. When the handler is asynchronous
+     * this thread waits for the result and writes it too, through
+     * {@code writes}.
+     */
+    static void dispatch(HttpRequest req, OutputStream out, Handoff writes) throws IOException {
+        req.writer = writes;
+        CompletableFuture<Void> later = dispatchAsync(req, out);
+        if (later == null) {
+            return;
+        }
+        try {
+            writes.runUntil(later);
+            later.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Interrupted waiting for the handler");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Hands the writes of asynchronous results to the connection thread that
+     * waits for them, so neither the JDK's timer thread nor the thread that
+     * completed the result blocks on a slow client.
+     */
+    static final class Handoff implements Executor {
+
+        private static final Runnable WAKE_UP = () -> {
+        };
+        private final java.util.concurrent.BlockingQueue<Runnable> writes = new java.util.concurrent.LinkedBlockingQueue<>();
+
+        @Override
+        public void execute(Runnable write) {
+            writes.add(write);
+        }
+
+        /**
+         * Runs what is handed over until {@code later} completes.
+         */
+        void runUntil(CompletableFuture<?> later) throws InterruptedException {
+            later.whenComplete((v, t) -> writes.add(WAKE_UP));
+            while (!later.isDone()) {
+                writes.take().run();
+            }
+        }
+    }
+
+    /**
+     * Writes the results of asynchronous handlers that no connection thread
+     * waits for: HTTP/2 streams in blocking mode, on their pool, and every
+     * request under NIO, on the workers. A pool that refuses leaves the write
+     * to the thread that completed the result.
+     */
+    private static final Executor completions = write -> {
+        ExecutorService pool = streamExecutor != null ? streamExecutor : executor;
+        try {
+            pool.execute(write);
+        } catch (java.util.concurrent.RejectedExecutionException re) {
+            write.run();
+        }
+    };
+
+    /**
+     * Starts the response to {@code req} without waiting for asynchronous
+     * handlers, so the calling worker can be given back.
+     *
+     * @return {@code null} if the response has been written, otherwise a
+     * future that completes once it has been written and recorded, on
+     * {@link HttpRequest#writer}, or the workers when it is not set
+     */
+    static CompletableFuture<Void> dispatchAsync(HttpRequest req, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        if (req.isHead()) {
+            // Answered like a GET, whatever writes the response, minus the body.
+            out = new HeadOnlyOutputStream(out);
+        }
+        AdaptiveLimiter l = null;
+        CompletableFuture<Void> later = null;
+        try {
+            String path = req.getPath();
+            if (path.equals("/metrics")) {
+                // Never shed, so the server stays observable under load.
+                metrics(req, out);
+                return null;
+            }
+            RateLimiter clients = clientLimiter;
+            if (clients != null && req.client != null && !clients.tryAcquire(req.client)) {
+                req.route = Metrics.RATE_LIMITED;
+                tooManyRequests(req, out);
+                return null;
+            }
+            l = limiter;
+            if (l != null && !l.tryAcquire()) {
+                l = null;
+                shed(req, out);
+                return null;
+            }
+            if (path.startsWith("/app")) {
+                later = invokeService(req, out);
+            } else {
+                readFileService(req, out);
+            }
+        } finally {
+            if (later == null) {
+                finish(req, l, start);
+            }
+        }
+        if (later == null) {
+            return null;
+        }
+        // The limiter permit is held until the response is written.
+        AdaptiveLimiter permit = l;
+        return later.whenComplete((v, t) -> finish(req, permit, start));
+    }
+
+    private static void finish(HttpRequest req, AdaptiveLimiter l, long start) {
+        long nanos = System.nanoTime() - start;
+        if (l != null) {
+            l.release(nanos);
+        }
+        Metrics.record(req, nanos);
+    }
+
+    private static void shed(HttpRequest req, OutputStream out) throws IOException {
+        Metrics.shed.increment();
+        req.route = Metrics.SHED;
+        req.status = 503;
+        req.keepAlive = false;
+        out.write(SERVICE_UNAVAILABLE);
+        out.flush();
+    }
+
+    /**
+     * Answers a client over its rate limit, before any handler or file work.
+     * The connection stays open, so a client that backs off does not pay
+     * for a new one.
+     */
+    private static void tooManyRequests(HttpRequest req, OutputStream out) throws IOException {
+        Metrics.rateLimited.increment();
+        req.status = 429;
+        out.write(TOO_MANY_REQUESTS_HEAD);
+        ResponseHeads.end(out, req);
+        out.write(TOO_MANY_REQUESTS_BODY);
+        out.flush();
+    }
+
+    private static long queued(ExecutorService pool) {
+        return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) pool).getQueue().size() : 0;
+    }
+
+    private static void metrics(HttpRequest req, OutputStream out) throws IOException {
+        req.route = Metrics.METRICS;
+        req.status = 200;
+        long queued = queued(executor) + (streamExecutor != executor ? queued(streamExecutor) : 0);
+        long waiting = permits == null ? 0 : permits.getQueueLength();
+        AdaptiveLimiter l = limiter;
+        byte[] body = Metrics.render(queued, waiting, l == null ? -1 : l.limit(), clientLimiter, staticCache, responseCache).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: " + Metrics.CONTENT_TYPE + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + connectionHeader(req)
+                + "\r\n";
+        out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    static String connectionHeader(HttpRequest req) {
+        return req.keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n";
+    }
+
+    static String getMymeType(String fileName) {
         String[] parts = fileName.split("\\.");
         String extention = parts[parts.length - 1];
         String mymeType = mimeTypes.get(extention);
@@ -179,121 +1185,797 @@ public class HttpServer {
         basePort = port;
     }
 
-    private static void readFileService(URI requestUri, OutputStream out) throws IOException {
-        String fileName = requestUri.getPath();
+    /**
+     * Accepts on {@code count} listeners bound to the port with
+     * {@code SO_REUSEPORT}, each with its own thread, so the kernel spreads
+     * connections over them. In NIO mode each event loop owns one and there
+     * are {@code count} loops. {@code 1} keeps a single listener.
+     */
+    public static void acceptors(int count) {
+        acceptors = Math.max(1, count);
+    }
+
+    /**
+     * @param backlog accept queue length of each listener; {@code 0} for the
+     * JDK default
+     * @param noDelay whether {@code TCP_NODELAY} is set on accepted sockets
+     * @param receiveBufferBytes {@code SO_RCVBUF}, or {@code 0} for the OS
+     * default
+     * @param sendBufferBytes {@code SO_SNDBUF}, or {@code 0} for the OS
+     * default
+     */
+    public static void socketOptions(int backlog, boolean noDelay, int receiveBufferBytes, int sendBufferBytes) {
+        listenBacklog = backlog;
+        tcpNoDelay = noDelay;
+        receiveBuffer = receiveBufferBytes;
+        sendBuffer = sendBufferBytes;
+    }
+
+    /**
+     * Serves HTTPS instead of plain HTTP, with the first key entry of
+     * {@code keyStore} as the server certificate.
+     *
+     * @param storeType {@code PKCS12} or {@code JKS}
+     */
+    public static void tls(Path keyStore, char[] password, String storeType) {
+        tlsKeyStore = keyStore;
+        tlsPassword = password;
+        tlsStoreType = storeType;
+    }
+
+    /**
+     * @param protocols enabled versions such as {@code TLSv1.3}, or
+     * {@code null} for the JDK defaults
+     * @param cipherSuites enabled suites, most preferred first, or
+     * {@code null} for the JDK defaults
+     * @param applicationProtocols ALPN protocols, most preferred first
+     */
+    public static void tlsOptions(String[] protocols, String[] cipherSuites, String[] applicationProtocols) {
+        tlsProtocols = protocols;
+        tlsCipherSuites = cipherSuites;
+        tlsApplicationProtocols = applicationProtocols;
+    }
+
+    /**
+     * Lets clients resume sessions and skip the full handshake.
+     *
+     * @param cacheSize sessions kept by the server for resumption by ID
+     * @param timeoutSeconds how long a session can be resumed
+     * @param tickets whether to issue stateless session tickets, which need
+     * no server-side cache
+     */
+    public static void tlsSessions(int cacheSize, int timeoutSeconds, boolean tickets) {
+        tlsSessionCacheSize = cacheSize;
+        tlsSessionTimeout = timeoutSeconds;
+        tlsSessionTickets = tickets;
+    }
+
+    /**
+     * Keeps connections open between requests.
+     *
+     * @param idleTimeoutMs how long an idle connection waits for the next request
+     * @param maxRequests requests served on one connection before it is closed
+     */
+    public static void keepAlive(int idleTimeoutMs, int maxRequests) {
+        keepAliveTimeout = idleTimeoutMs;
+        maxKeepAliveRequests = maxRequests;
+    }
+
+    /**
+     * Bounds how long a client may take over its side of a request.
+     *
+     * @param readTimeoutMs time for a request head, or for the rest of a
+     * body, to arrive; each is answered {@code 408} when it runs out
+     * @param minReadRate bytes per second that earn a head or body another
+     * second, so a client trickling one in slower than that is cut off;
+     * {@code 0} gives exactly {@code readTimeoutMs}
+     * @param writeTimeoutMs how long a response may wait on a client that
+     * takes none of it before the connection is closed
+     */
+    public static void timeouts(int readTimeoutMs, int minReadRate, int writeTimeoutMs) {
+        readTimeout = readTimeoutMs;
+        HttpServer.minReadRate = minReadRate;
+        writeTimeout = writeTimeoutMs;
+    }
+
+    /**
+     * @return whether the server is accepting connections; for the startup
+     * training run
+     */
+    static boolean isListening() {
+        return running.get() && !suspended && !listeners.isEmpty() && listeners.get(0).isOpen();
+    }
+
+    static int port() {
+        return basePort;
+    }
+
+    /**
+     * @return the template of every registered {@code GET} route
+     */
+    static List<String> routeTemplates() {
+        List<String> templates = new ArrayList<>();
+        Router<RouteInvoker> get = routes.get("GET");
+        if (get != null) {
+            for (Router.Route<RouteInvoker> route : get.routes()) {
+                templates.add(route.template);
+            }
+        }
+        return templates;
+    }
+
+    static long maxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    static int keepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    static int readTimeout() {
+        return readTimeout;
+    }
+
+    static int minReadRate() {
+        return minReadRate;
+    }
+
+    static int writeTimeout() {
+        return writeTimeout;
+    }
+
+    static int maxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public static void ioMode(IoMode mode) {
+        ioMode = mode;
+    }
+
+    public static void executorMode(ExecutorMode mode) {
+        executorMode = mode;
+    }
+
+    /**
+     * Caps the number of requests handled at once; {@code 0} means no limit
+     * beyond the executor itself.
+     */
+    public static void maxConcurrency(int limit) {
+        maxConcurrency = limit;
+    }
+
+    /**
+     * Bounds the work waiting for a worker: connections in blocking mode,
+     * requests in NIO mode.
+     *
+     * @param policy what to do with new work once {@code capacity} items are
+     * queued
+     */
+    public static void admission(AdmissionPolicy policy, int capacity) {
+        admissionPolicy = policy;
+        queueCapacity = capacity;
+    }
+
+    /**
+     * Sheds requests beyond an adaptive concurrency limit that backs off
+     * whenever a request takes longer than {@code targetMs}; {@code 0} turns
+     * it off. The limit never exceeds {@link #maxConcurrency(int)} when that
+     * is set.
+     */
+    public static void latencyTarget(long targetMs) {
+        latencyTargetMs = targetMs;
+    }
+
+    /**
+     * Limits each client address to {@code perSecond} requests on average,
+     * and {@code burst} at once, answering the rest {@code 429}; {@code 0}
+     * turns it off. {@code /metrics} is not limited. Routes annotated with
+     * {@link RateLimit} have their own limit per client on top of this one.
+     *
+     * @param maxClients addresses tracked by each limit before idle ones,
+     * and then any, are forgotten
+     */
+    public static void rateLimit(double perSecond, int burst, int maxClients) {
+        rateLimitPerSecond = perSecond;
+        rateLimitBurst = burst;
+        rateLimitMaxClients = maxClients;
+    }
+
+    /**
+     * Bounds request bodies: larger ones are answered {@code 413}, before
+     * the handler runs when the client declares the length. Bodies are
+     * streamed to handlers as they arrive, so this is not memory held.
+     */
+    public static void requestBodies(long maxBytes) {
+        maxBodyBytes = maxBytes;
+    }
+
+    /**
+     * @return the body of {@code req}, read from {@code in} as the handler
+     * asks for it, or {@code null} if it has none
+     * @throws HttpRequestParser.BadRequestException if the body is framed in
+     * a way that cannot be read
+     */
+    static BodyStream requestBody(HttpRequest req, InputStream in, Runnable onEnd) throws HttpRequestParser.BadRequestException {
+        long length = req.contentLength();
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 && !req.chunked()) {
+            throw new HttpRequestParser.BadRequestException("Unknown body length", BAD_REQUEST);
+        }
+        return new BodyStream(in, length < 0 ? BodyStream.CHUNKED : length, maxBodyBytes, onEnd);
+    }
+
+    private static void readFileService(HttpRequest req, OutputStream out) throws IOException {
+        String fileName = req.getPath();
         if (fileName.equals("/")) {
             fileName = "index.html";
         }
 
+        String relative = fileName.startsWith("/") ? fileName.substring(1) : fileName;
         String resourcePath = (staticResourceFolder == null || staticResourceFolder.isBlank())
-                ? fileName.replaceFirst("^/", "")
-                : (staticResourceFolder + "/" + fileName.replaceFirst("^/", ""));
+                ? relative
+                : staticResourceFolder + "/" + relative;
 
-        InputStream is = null;
-        ClassLoader cl = Thread.currentThread().getContextClassLoader();
-        if (cl == null) {
-            cl = HttpServer.class.getClassLoader();
+        StaticFileCache.Entry file = staticCache.get(resourcePath);
+        if (file == null) {
+            notFound(req, out);
+            return;
         }
-
-        is = cl.getResourceAsStream(resourcePath);
-        if (is == null) {
-            is = cl.getResourceAsStream("/" + resourcePath);
+        StaticFileCache.Variant variant = file.select(req);
+        if (variant.isNotModified(req)) {
+            req.status = 304;
+            out.write(variant.notModifiedHead(req));
+            out.flush();
+            return;
         }
-        if (is == null) {
-            Path abs = Paths.get("/usrapp/bin/classes", resourcePath).normalize();
-            if (Files.exists(abs) && !Files.isDirectory(abs)) {
-                is = Files.newInputStream(abs);
+
+        String range = req.getHeader("range");
+        if (range != null && file.length > 0 && file.rangeApplies(req)) {
+            long[] span = parseRange(range, file.length);
+            if (span == UNSATISFIABLE) {
+                req.status = 416;
+                String header = "HTTP/1.1 416 Range Not Satisfiable\r\n"
+                        + "Content-Range: bytes */" + file.length + "\r\n"
+                        + "Content-Length: 0\r\n"
+                        + connectionHeader(req)
+                        + "\r\n";
+                out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+            if (span != null) {
+                req.status = 206;
+                out.write(file.partialHead(req, span[0], span[1]));
+                if (!req.isHead()) {
+                    writeFileBody(file, span[0], span[1] - span[0] + 1, out);
+                }
+                out.flush();
+                return;
             }
         }
 
-        if (is == null) {
-            String bodyStr = "<h1>File not found 404</h1>";
-            String header = "HTTP/1.1 404 Not Found\r\ncontent-type: text/html\r\n\r\n";
-            out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-            out.write(bodyStr.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            out.flush();
-            return;
+        req.status = 200;
+        out.write(variant.okHead(req));
+        if (req.isHead()) {
+            // The file is not read.
+        } else if (variant.body != null) {
+            out.write(variant.body);
+        } else {
+            writeFileBody(file, 0, file.length, out);
         }
-
-        byte[] fileBytes = is.readAllBytes();
-        is.close();
-        String mime = getMymeType(resourcePath);
-        String header = "HTTP/1.1 200 OK\r\n"
-                + "Content-Type: " + mime + "\r\n"
-                + "Content-Length: " + fileBytes.length + "\r\n\r\n";
-        out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-        out.write(fileBytes);
         out.flush();
     }
 
-    public static void loadServices(String args[]) {
+    private static void writeFileBody(StaticFileCache.Entry file, long position, long count, OutputStream out) throws IOException {
+        if (file.identity.body == null && file.path != null && out instanceof ZeroCopyOutput) {
+            ((ZeroCopyOutput) out).writeFile(file, position, count);
+        } else {
+            file.copyTo(out, position, count);
+        }
+    }
+
+    /**
+     * Parses a single {@code bytes=} range. Multiple or malformed ranges are
+     * ignored, which means the whole file is sent.
+     *
+     * @return {@code {first, last}}, {@code null} to send everything, or
+     * {@link #UNSATISFIABLE}
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
         try {
-            Class c = Class.forName(args[0]);
-            if (c.isAnnotationPresent(RestController.class)) {
-                Method[] methods = c.getDeclaredMethods();
-                for (Method m : methods) {
-                    if (m.isAnnotationPresent(GetMapping.class)) {
-                        String key = m.getAnnotation(GetMapping.class).value();
-                        services.put(key, m);
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (first >= length) {
+                    return UNSATISFIABLE;
+                }
+                if (last < first) {
+                    return null;
+                }
+                last = Math.min(last, length - 1);
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers the {@code @GetMapping}, {@code @PostMapping} and
+     * {@code @PutMapping} methods of every controller class named in
+     * {@code args}. A controller or handler that cannot be loaded is logged
+     * and skipped.
+     *
+     * @throws IllegalArgumentException if a mapping is not a valid route
+     * template, or names a path variable its template lacks
+     * @throws IllegalStateException if two mappings of one method match the
+     * same paths
+     */
+    public static void loadServices(String args[]) {
+        Map<String, Router<RouteInvoker>> byMethod = new HashMap<>();
+        for (String name : args) {
+            try {
+                Class<?> c = Class.forName(name);
+                if (!c.isAnnotationPresent(RestController.class)) {
+                    continue;
+                }
+                Object controller = null;
+                for (Method m : c.getDeclaredMethods()) {
+                    Map<String, String> mappings = mappings(m);
+                    if (mappings.isEmpty()) {
+                        continue;
+                    }
+                    if (controller == null && !Modifier.isStatic(m.getModifiers())) {
+                        controller = c.getDeclaredConstructor().newInstance();
+                    }
+                    RouteInvoker invoker;
+                    try {
+                        invoker = RouteInvoker.compile(m, controller);
+                    } catch (IllegalArgumentException ex) {
+                        Logger.getLogger(HttpServer.class.getName()).log(Level.SEVERE, null, ex);
+                        continue;
+                    }
+                    RateLimit limit = m.getAnnotation(RateLimit.class);
+                    if (limit != null) {
+                        invoker.rateLimiter = new RateLimiter(limit.perSecond(), limit.burst(), rateLimitMaxClients);
+                    }
+                    for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+                        String template = mapping.getValue();
+                        Router.Route<RouteInvoker> route = byMethod.computeIfAbsent(mapping.getKey(), k -> new Router<>())
+                                .add(template, invoker);
+                        invoker.latency = Metrics.route(template);
+                        for (String var : invoker.pathVariables()) {
+                            if (!Arrays.asList(route.variables).contains(var)) {
+                                throw new IllegalArgumentException(m + ": no {" + var + "} in " + template);
+                            }
+                        }
                     }
                 }
+            } catch (ReflectiveOperationException ex) {
+                Logger.getLogger(HttpServer.class.getName()).log(Level.SEVERE, null, ex);
             }
-        } catch (ClassNotFoundException ex) {
-            Logger.getLogger(HttpServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        routes = Map.copyOf(byMethod);
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            // Keyed by invoker, so entries of the replaced routes are unreachable.
+            cache.clear();
         }
     }
 
-    private static void invokeService(URI requri, OutputStream out) throws IOException {
+    /**
+     * @return the route template of each HTTP method {@code m} is mapped to
+     */
+    private static Map<String, String> mappings(Method m) {
+        Map<String, String> mappings = new HashMap<>();
+        GetMapping get = m.getAnnotation(GetMapping.class);
+        if (get != null) {
+            mappings.put("GET", get.value());
+        }
+        PostMapping post = m.getAnnotation(PostMapping.class);
+        if (post != null) {
+            mappings.put("POST", post.value());
+        }
+        PutMapping put = m.getAnnotation(PutMapping.class);
+        if (put != null) {
+            mappings.put("PUT", put.value());
+        }
+        return mappings;
+    }
 
-        HttpRequest req = new HttpRequest(requri);
-        HttpResponse res = new HttpResponse();
-        String servicePath = requri.getPath().substring(4);
-        Method s = services.get(servicePath);
-        RequestParam rp = (RequestParam) s.getParameterAnnotations()[0][0];
+    /**
+     * Matches the path of {@code req}, after the "/app" prefix, against
+     * {@code router}, leaving the variables' bounds in the request.
+     */
+    private static Router.Route<RouteInvoker> match(Router<RouteInvoker> router, HttpRequest req) {
+        if (req.variableBounds.length < 2 * router.maxVariables()) {
+            req.variableBounds = new int[2 * router.maxVariables()];
+        }
+        return router.find(req.getPath(), 4, req.variableBounds);
+    }
 
-        String[] argsValues = new String[]{};
-        if (requri.getQuery() == null) {
-            argsValues = new String[]{rp.defaultValue()};
-        } else {
-            String queryParamName = rp.value();
-            argsValues = new String[]{req.getValue(queryParamName)};
+    /**
+     * Answers a path that has routes, but not for the request's method.
+     */
+    private static void methodNotAllowed(HttpRequest req, OutputStream out, String allow) throws IOException {
+        req.status = 405;
+        out.write(METHOD_NOT_ALLOWED_HEAD);
+        out.write(ResponseHeads.ascii("Allow: " + allow + "\r\n"));
+        ResponseHeads.end(out, req);
+        out.write(METHOD_NOT_ALLOWED_BODY);
+        out.flush();
+    }
+
+    /**
+     * Answers a request whose handler failed: with the response a
+     * {@link HttpRequestParser.BadRequestException} carries, for a body or
+     * parameter the handler could not take, and otherwise {@code 500}.
+     */
+    private static void handlerFailed(HttpRequest req, OutputStream out, Throwable ex) throws IOException {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof HttpRequestParser.BadRequestException) {
+                byte[] response = ((HttpRequestParser.BadRequestException) t).response;
+                // The rest of the body cannot be told from the next request.
+                req.keepAlive = false;
+                req.status = Metrics.statusOf(response);
+                out.write(response);
+                out.flush();
+                return;
+            }
         }
-        String header = "HTTP/1.1 200 OK\r\n"
-                + "content-type: text/plain\r\n"
-                + "\r\n";
-        try {
-            String result = (String) s.invoke(null, argsValues);
-            byte[] body = result.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-            out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-            out.write(body);
+        serverError(req, out);
+    }
+
+    private static void notFound(HttpRequest req, OutputStream out) throws IOException {
+        req.status = 404;
+        out.write(NOT_FOUND_HEAD);
+        ResponseHeads.end(out, req);
+        out.write(NOT_FOUND_BODY);
+        out.flush();
+    }
+
+    /**
+     * @return {@code null} once the response has been written, or a future
+     * that completes when the handler's asynchronous result has been written
+     */
+    private static CompletableFuture<Void> invokeService(HttpRequest req, OutputStream out) throws IOException {
+
+        Map<String, Router<RouteInvoker>> byMethod = routes;
+        String method = req.getMethod();
+        Router<RouteInvoker> router = byMethod.get(method.equals("HEAD") ? "GET" : method);
+        Router.Route<RouteInvoker> route = router == null ? null : match(router, req);
+        if (route == null) {
+            req.route = Metrics.UNMATCHED;
+            StringBuilder allow = new StringBuilder();
+            for (Map.Entry<String, Router<RouteInvoker>> other : byMethod.entrySet()) {
+                if (other.getValue() != router && match(other.getValue(), req) != null) {
+                    allow.append(allow.length() == 0 ? "" : ", ").append(other.getKey())
+                            .append(other.getKey().equals("GET") ? ", HEAD" : "");
+                }
+            }
+            if (allow.length() > 0) {
+                methodNotAllowed(req, out, allow.toString());
+            } else {
+                notFound(req, out);
+            }
+            return null;
+        }
+        req.variableNames = route.variables;
+        RouteInvoker s = route.handler;
+        req.route = s.latency;
+        RateLimiter limit = s.rateLimiter;
+        if (limit != null && req.client != null && !limit.tryAcquire(req.client)) {
+            tooManyRequests(req, out);
+            return null;
+        }
+
+        ResponseCache cache = responseCache;
+        if (s.ttlNanos > 0 && cache != null) {
+            byte[] response;
+            try {
+                response = cache.get(s, req).response(req);
+            } catch (Exception ex) {
+                handlerFailed(req, out, ex);
+                return null;
+            }
+            req.status = 200;
+            out.write(response);
             out.flush();
-        } catch (IllegalAccessException ex) {
-            byte[] body = "ERROR".getBytes(java.nio.charset.StandardCharsets.UTF_8);
-            header
-                    = "HTTP/1.1 500 Internal Server Error\r\n"
-                    + "Content-Type: text/plain; charset=utf-8\r\n"
-                    + "Content-Length: " + body.length + "\r\n"
-                    + "Connection: close\r\n"
-                    + "\r\n";
-            out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-            out.write(body);
+            return null;
+        }
+
+        BodyStream body = req.body;
+        if (body != null) {
+            if (body.length() > maxBodyBytes) {
+                handlerFailed(req, out, new HttpRequestParser.BadRequestException("Request body too large", PAYLOAD_TOO_LARGE));
+                return null;
+            }
+            if (req.expectsContinue()) {
+                body.expectContinue(out);
+            }
+        }
+        HttpResponse res = s.responseIndex >= 0 ? new HttpResponse(req, out) : null;
+        Object result;
+        try {
+            result = s.invoke(req, res);
+        } catch (Exception ex) {
+            if (res != null && res.isCommitted()) {
+                // Too late for a 500; the missing last chunk tells the client.
+                throw new IOException("Handler failed after the response started", ex);
+            }
+            handlerFailed(req, out, ex);
+            return null;
+        }
+        if (res != null) {
+            res.finish();
             out.flush();
-        } catch (InvocationTargetException ex) {
-            byte[] body = "ERROR".getBytes(java.nio.charset.StandardCharsets.UTF_8);
-            header
-                    = "HTTP/1.1 500 Internal Server Error\r\n"
-                    + "Content-Type: text/plain; charset=utf-8\r\n"
-                    + "Content-Length: " + body.length + "\r\n"
-                    + "Connection: close\r\n"
-                    + "\r\n";
-            out.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
-            out.write(body);
+            return null;
+        }
+        if (s.async) {
+            return writeLater(req, out, (CompletionStage<?>) result, s.timeoutMs > 0 ? s.timeoutMs : asyncTimeoutMs);
+        }
+        if (result instanceof Stream) {
+            try (Stream<?> elements = (Stream<?>) result) {
+                writeElements(req, out, elements.iterator());
+            }
+            return null;
+        }
+        if (result instanceof Iterator) {
+            writeElements(req, out, (Iterator<?>) result);
+            return null;
+        }
+        if (result instanceof Flow.Publisher) {
+            return writePublished(req, out, (Flow.Publisher<?>) result);
+        }
+        writeResult(req, out, (String) result);
+        return null;
+    }
+
+    /**
+     * Streams each element as text, as it is produced, in chunks of at most
+     * {@link HttpResponse#BUFFER_SIZE} bytes.
+     */
+    private static void writeElements(HttpRequest req, OutputStream out, Iterator<?> elements) throws IOException {
+        HttpResponse res = new HttpResponse(req, out);
+        try {
+            while (elements.hasNext()) {
+                res.write(String.valueOf(elements.next()));
+            }
+        } catch (RuntimeException ex) {
+            if (res.isCommitted()) {
+                throw new IOException("Stream failed after the response started", ex);
+            }
+            serverError(req, out);
+            return;
+        }
+        res.finish();
+        out.flush();
+    }
+
+    /**
+     * Streams the items of {@code publisher} as text. At most
+     * {@value #PUBLISHER_DEMAND} items are requested ahead of what has been
+     * written, and a write blocks while the client is behind, so a fast
+     * publisher is held back by a slow client.
+     */
+    private static CompletableFuture<Void> writePublished(HttpRequest req, OutputStream out, Flow.Publisher<?> publisher) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        HttpResponse res = new HttpResponse(req, out);
+        publisher.subscribe(new Flow.Subscriber<Object>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(PUBLISHER_DEMAND);
+            }
+
+            @Override
+            public void onNext(Object item) {
+                if (written.isDone()) {
+                    return;
+                }
+                try {
+                    res.write(String.valueOf(item));
+                } catch (IOException | RuntimeException e) {
+                    subscription.cancel();
+                    written.completeExceptionally(e);
+                    return;
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (written.isDone()) {
+                    return;
+                }
+                try {
+                    if (res.isCommitted()) {
+                        throw new IOException("Publisher failed after the response started", error);
+                    }
+                    serverError(req, out);
+                    written.complete(null);
+                } catch (IOException e) {
+                    written.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (written.isDone()) {
+                    return;
+                }
+                try {
+                    res.finish();
+                    out.flush();
+                    written.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    written.completeExceptionally(e);
+                }
+            }
+        });
+        return written;
+    }
+
+    /**
+     * Writes the result of an asynchronous handler when it completes, or a
+     * {@code 504} if it takes longer than {@code timeoutMs}. The handler's own
+     * future is left alone; a late result is dropped.
+     */
+    private static CompletableFuture<Void> writeLater(HttpRequest req, OutputStream out, CompletionStage<?> stage, long timeoutMs) {
+        if (stage == null) {
+            stage = CompletableFuture.failedFuture(new NullPointerException("Handler returned no future"));
+        }
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        stage.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        // Not written on the timer thread or the backend's: the write may block on the client.
+        result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenCompleteAsync((value, error) -> {
+            try {
+                if (error == null && value instanceof String) {
+                    writeResult(req, out, (String) value);
+                } else if (error instanceof TimeoutException) {
+                    gatewayTimeout(req, out);
+                } else {
+                    serverError(req, out);
+                }
+                written.complete(null);
+            } catch (IOException | RuntimeException e) {
+                written.completeExceptionally(e);
+            }
+        }, req.writer != null ? req.writer : completions);
+        return written;
+    }
+
+    private static void writeResult(HttpRequest req, OutputStream out, String result) throws IOException {
+        req.status = 200;
+        byte[] body = result.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        String coding = Compression.negotiate(req);
+        if (coding != null && compressionMinSize >= 0 && body.length >= compressionMinSize && !req.http10) {
+            // Compressed on the way out in chunks; the final size is not known up front.
+            out.write(ResponseHeads.OK);
+            out.write(ResponseHeads.TEXT_PLAIN);
+            out.write(ResponseHeads.contentEncoding(coding));
+            out.write(ResponseHeads.VARY);
+            out.write(ResponseHeads.CHUNKED);
+            ResponseHeads.end(out, req);
+            try (OutputStream z = Compression.encoder(coding, new ChunkedOutputStream(out))) {
+                z.write(body);
+            }
             out.flush();
+            return;
         }
+        out.write(ResponseHeads.OK);
+        out.write(ResponseHeads.TEXT_PLAIN);
+        ResponseHeads.contentLength(out, body.length);
+        ResponseHeads.end(out, req);
+        out.write(body);
+        out.flush();
+    }
+
+    private static void serverError(HttpRequest req, OutputStream out) throws IOException {
+        req.status = 500;
+        out.write(SERVER_ERROR_HEAD);
+        ResponseHeads.end(out, req);
+        out.write(SERVER_ERROR_BODY);
+        out.flush();
+    }
+
+    private static void gatewayTimeout(HttpRequest req, OutputStream out) throws IOException {
+        req.status = 504;
+        out.write(GATEWAY_TIMEOUT_HEAD);
+        ResponseHeads.end(out, req);
+        out.write(GATEWAY_TIMEOUT_BODY);
+        out.flush();
     }
 
     public static void staticfiles(String resourceFolder) {
         staticResourceFolder = resourceFolder.replaceFirst("^/", "");
+        staticCache.clear();
+    }
+
+    static String staticFolder() {
+        return staticResourceFolder == null ? "" : staticResourceFolder;
+    }
+
+    /**
+     * Sizes the static file cache.
+     *
+     * @param maxBytes total bytes kept in memory
+     * @param maxEntries number of files kept
+     * @param maxEntryBytes files larger than this are streamed, not cached
+     */
+    public static void staticCache(long maxBytes, int maxEntries, long maxEntryBytes) {
+        staticCache.close();
+        staticCache = new StaticFileCache(maxBytes, maxEntries, maxEntryBytes);
+    }
+
+    /**
+     * How long an asynchronous handler may take before the client gets a
+     * {@code 504}, unless its {@code @GetMapping} sets its own timeout.
+     */
+    public static void asyncTimeout(long timeoutMs) {
+        asyncTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Sizes the cache of {@code @Cacheable} responses.
+     *
+     * @param maxBytes total bytes kept in memory; 0 turns the cache off and
+     * the handlers run on every request
+     */
+    public static void responseCache(long maxBytes) {
+        responseCache = maxBytes > 0 ? new ResponseCache(maxBytes) : null;
+    }
+
+    /**
+     * Compresses static text files and controller responses of at least
+     * {@code minSize} bytes for clients that accept gzip or deflate.
+     */
+    public static void compression(boolean enabled, int minSize) {
+        compressionMinSize = enabled ? Math.max(0, minSize) : -1;
+        staticCache.clear();
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    static int compressionMinSize() {
+        return compressionMinSize;
+    }
+
+    /**
+     * Drops cached static files when they change on disk.
+     */
+    public static void watchStaticFiles(boolean watch) {
+        watchStaticFiles = watch;
     }
 
     public static void start(String[] args) throws IOException, URISyntaxException, ClassNotFoundException {
@@ -0,0 +1,17 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+/**
+ * How {@link HttpServer} accepts and reads connections.
+ *
+ * @author Jaider Vargas
+ */
+public enum IoMode {
+    /** One blocking {@code accept()} and one worker per connection. */
+    BLOCKING,
+    /** Selector event loops; workers are only used to run the handlers. */
+    NIO
+}
@@ -0,0 +1,287 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server counters, exposed on {@code /metrics} in the Prometheus text format.
+ * Everything recorded on the request path is a {@link LongAdder}, which
+ * stripes its cells across threads, so recording never contends on a lock or
+ * a single CAS target; the totals are only summed when scraped.
+ *
+ * @author Jaider Vargas
+ */
+final class Metrics {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Fixed-bucket latency histogram in the Prometheus layout: one adder per
+     * bucket, cumulated when rendered.
+     */
+    static final class Histogram {
+
+        // Upper bounds in seconds.
+        private static final double[] BOUNDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+            0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+            }
+        }
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            int i = 0;
+            while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        private void render(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf";
+                sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+    static final LongAdder requests = new LongAdder();
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    static final LongAdder connections = new LongAdder();
+    static final LongAdder activeConnections = new LongAdder();
+    static final LongAdder http2Connections = new LongAdder();
+    static final LongAdder connectionErrors = new LongAdder();
+    static final LongAdder shed = new LongAdder();
+    static final LongAdder rateLimited = new LongAdder();
+    // Milliseconds from JVM start to the first response written, -1 until then.
+    private static volatile long firstResponseMillis = -1;
+    private static final LongAdder[] statuses = new LongAdder[600];
+
+    // Latency by route template; static files and unmatched /app paths share one each.
+    private static final Map<String, Histogram> routes = new ConcurrentHashMap<>();
+    static final Histogram STATIC_FILES = route("static");
+    static final Histogram UNMATCHED = route("unmatched");
+    static final Histogram METRICS = route("metrics");
+    static final Histogram SHED = route("shed");
+    static final Histogram RATE_LIMITED = route("rate_limited");
+
+    static {
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the histogram for {@code route}, created on first use; meant to
+     * be looked up once, when routes are registered
+     */
+    static Histogram route(String route) {
+        return routes.computeIfAbsent(route, r -> new Histogram());
+    }
+
+    /**
+     * Counts a response that was written outside {@code dispatch}, such as a
+     * 400 for an unparseable head.
+     */
+    static void status(int code) {
+        if (code >= 100 && code < statuses.length) {
+            statuses[code].increment();
+        }
+    }
+
+    /**
+     * Counts a pre-encoded response by the status code in its status line.
+     */
+    static void status(byte[] response) {
+        status(statusOf(response));
+    }
+
+    /**
+     * @return the status code in the status line of a pre-encoded response
+     */
+    static int statusOf(byte[] response) {
+        return (response[9] - '0') * 100 + (response[10] - '0') * 10 + (response[11] - '0');
+    }
+
+    /**
+     * Records a dispatched request once its response has been written.
+     */
+    static void record(HttpRequest req, long nanos) {
+        if (firstResponseMillis < 0) {
+            firstResponse();
+        }
+        requests.increment();
+        status(req.status);
+        (req.route == null ? STATIC_FILES : req.route).record(nanos);
+    }
+
+    /**
+     * Measures and logs the time to first response, the part of startup a
+     * client waits for.
+     */
+    private static synchronized void firstResponse() {
+        if (firstResponseMillis >= 0) {
+            return;
+        }
+        long started = ProcessHandle.current().info().startInstant()
+                .map(java.time.Instant::toEpochMilli)
+                .orElse(java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime());
+        firstResponseMillis = Math.max(0, System.currentTimeMillis() - started);
+        System.out.println("First response " + firstResponseMillis + " ms after JVM start");
+    }
+
+    static long firstResponseMillis() {
+        return firstResponseMillis;
+    }
+
+    static InputStream countInput(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytesIn.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    static OutputStream countOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesOut.add(len);
+            }
+        };
+    }
+
+    /**
+     * Renders every metric. The gauges that belong to other components are
+     * passed in, read at scrape time; a negative {@code limit} means there is
+     * no adaptive limit, and a {@code null} rate limiter or response cache
+     * that it is off.
+     */
+    static String render(long queueDepth, long waitingForPermit, int limit, RateLimiter clients,
+            StaticFileCache cache, ResponseCache responses) {
+        StringBuilder sb = new StringBuilder(4096);
+        counter(sb, "http_requests_total", "Requests dispatched.", requests.sum());
+        gauge(sb, "http_first_response_milliseconds", "Time from JVM start to the first response.", firstResponseMillis);
+        counter(sb, "http_received_bytes_total", "Bytes read from clients.", bytesIn.sum());
+        counter(sb, "http_sent_bytes_total", "Bytes written to clients.", bytesOut.sum());
+        counter(sb, "http_connections_total", "Connections accepted.", connections.sum());
+        counter(sb, "http2_connections_total", "Connections switched to HTTP/2.", http2Connections.sum());
+        counter(sb, "http_connection_errors_total", "Connections ended by an unexpected error.", connectionErrors.sum());
+        gauge(sb, "http_active_connections", "Open client connections.", activeConnections.sum());
+        gauge(sb, "http_executor_queue_depth", "Tasks waiting for a worker thread.", queueDepth);
+        gauge(sb, "http_concurrency_waiting", "Requests waiting for a concurrency permit.", waitingForPermit);
+        counter(sb, "http_shed_total", "Connections or requests turned away with 503.", shed.sum());
+        if (limit >= 0) {
+            gauge(sb, "http_concurrency_limit", "Current adaptive concurrency limit.", limit);
+        }
+        sb.append("# HELP http_timeouts_total Connection deadlines that expired, by what they waited for.\n");
+        sb.append("# TYPE http_timeouts_total counter\n");
+        for (ConnectionTimeout t : ConnectionTimeout.values()) {
+            sb.append("http_timeouts_total{kind=\"").append(t.label).append("\"} ").append(t.expired.sum()).append('\n');
+        }
+        counter(sb, "http_rate_limited_total", "Requests answered 429 for going over a rate limit.", rateLimited.sum());
+        if (clients != null) {
+            gauge(sb, "http_rate_limit_clients", "Client addresses with a rate limit bucket.", clients.clients());
+        }
+
+        sb.append("# HELP http_responses_total Responses by status code.\n");
+        sb.append("# TYPE http_responses_total counter\n");
+        for (int code = 100; code < statuses.length; code++) {
+            long n = statuses[code].sum();
+            if (n > 0) {
+                sb.append("http_responses_total{code=\"").append(code).append("\"} ").append(n).append('\n');
+            }
+        }
+
+        sb.append("# HELP http_request_duration_seconds Time to produce a response, by route.\n");
+        sb.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, Histogram> e : routes.entrySet()) {
+            e.getValue().render(sb, "http_request_duration_seconds", "route=\"" + escape(e.getKey()) + "\"");
+        }
+
+        counter(sb, "static_cache_hits_total", "Static file lookups answered from the cache.", cache.hits.sum());
+        counter(sb, "static_cache_misses_total", "Static file lookups that had to load the file.", cache.misses.sum());
+        gauge(sb, "static_cache_bytes", "Bytes held by the static file cache.", cache.bytes());
+        gauge(sb, "static_cache_entries", "Files held by the static file cache.", cache.entryCount());
+        counter(sb, "buffer_pool_output_allocations_total", "Output buffers allocated because the pool had none free.", BufferPool.OUTPUT.allocated.sum());
+        counter(sb, "buffer_pool_heads_allocations_total", "Request head buffers allocated because the pool had none free.", BufferPool.HEADS.allocated.sum());
+        if (responses != null) {
+            counter(sb, "response_cache_hits_total", "@Cacheable responses served from the cache.", responses.hits.sum());
+            counter(sb, "response_cache_misses_total", "@Cacheable handler calls.", responses.misses.sum());
+            counter(sb, "response_cache_coalesced_total", "Requests that waited for another request's handler call.", responses.coalesced.sum());
+            gauge(sb, "response_cache_bytes", "Bytes held by the response cache.", responses.bytes());
+            gauge(sb, "response_cache_entries", "Responses held by the response cache.", responses.entryCount());
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
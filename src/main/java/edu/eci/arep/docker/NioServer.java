@@ -0,0 +1,1230 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking front end for {@link HttpServer}. Every event loop owns one
+ * {@link Selector} and accepts, reads and writes its own connections; once the
+ * request head is complete it is handed to the worker executor, so handlers
+ * may still block without stalling the loop. Handlers that return a
+ * {@code CompletionStage} hold no worker while their result is pending.
+ * The loops either share one listener or, with {@code SO_REUSEPORT}, own
+ * one each so the kernel balances new connections between them.
+ * <p>
+ * With TLS, each connection runs its own {@link TlsConnection}: records are
+ * decrypted into the read buffer before parsing, and queued output is
+ * encrypted as it is written, so workers only ever see plain text.
+ * <p>
+ * A connection that opens with the HTTP/2 preface, or upgrades to h2c,
+ * hands its input to an {@link Http2Connection} from then on; frames are
+ * queued and written like any other response bytes.
+ *
+ * @author Jaider Vargas
+ */
+class NioServer {
+
+    // Resolution of the connection deadlines; the wheel turns once every 51.2 s.
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SLOTS = 512;
+    static final int MAX_PENDING_BYTES = 256 * 1024;
+    // Request body read ahead of the handler before the loop stops reading it.
+    private static final int MAX_BODY_QUEUED = 64 * 1024;
+    // Buffers handed to one gathering write.
+    private static final int GATHER = 16;
+
+    private volatile List<ServerSocketChannel> listeners;
+    private final SocketSettings sockets;
+    private final Executor workers;
+    private final AdmissionPolicy admission;
+    // Null for plain HTTP.
+    private final Tls tls;
+    private final EventLoop[] loops;
+    private volatile boolean running = true;
+
+    /**
+     * @param workers runs the handlers; throws
+     * {@link RejectedExecutionException} when its queue is full
+     * @param admission what to do with a request {@code workers} rejects
+     * @param tls the TLS settings, or {@code null} for plain HTTP
+     * @param listeners bound listeners, dealt out to the loops in turn
+     */
+    NioServer(List<ServerSocketChannel> listeners, int loopCount, Executor workers, AdmissionPolicy admission, Tls tls,
+            SocketSettings sockets) throws IOException {
+        this.workers = workers;
+        this.admission = admission;
+        this.tls = tls;
+        this.listeners = listeners;
+        this.sockets = sockets;
+        for (ServerSocketChannel listener : listeners) {
+            listener.configureBlocking(false);
+        }
+        loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i, listeners.get(i % listeners.size()));
+        }
+    }
+
+    /**
+     * Starts every event loop and blocks until all of them have stopped.
+     */
+    void run() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.join();
+        }
+    }
+
+    /**
+     * Stops accepting and closes every connection, so a CRaC checkpoint can
+     * be taken. The caller closes the listeners.
+     */
+    void suspend() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(loops.length);
+        for (EventLoop loop : loops) {
+            loop.execute(() -> {
+                loop.suspend();
+                done.countDown();
+            });
+        }
+        done.await(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Accepts again, on the listeners bound after a restore.
+     */
+    void resume(List<ServerSocketChannel> listeners) throws IOException {
+        for (ServerSocketChannel listener : listeners) {
+            listener.configureBlocking(false);
+        }
+        this.listeners = listeners;
+        for (int i = 0; i < loops.length; i++) {
+            EventLoop loop = loops[i];
+            ServerSocketChannel listener = listeners.get(i % listeners.size());
+            loop.execute(() -> loop.listen(listener));
+        }
+    }
+
+    void close() {
+        running = false;
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        final Selector selector;
+        final Thread thread;
+        ServerSocketChannel listener;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Connections with a request the workers had no room for (BLOCK policy).
+        final List<Connection> stalled = new ArrayList<>();
+        // Every connection's deadline; only this loop's thread touches it.
+        final TimingWheel wheel = new TimingWheel(TICK_MS, WHEEL_SLOTS, System.currentTimeMillis());
+        SelectionKey acceptKey;
+
+        EventLoop(int id, ServerSocketChannel listener) throws IOException {
+            this.listener = listener;
+            selector = Selector.open();
+            thread = new Thread(this, "nio-loop-" + id);
+        }
+
+        /**
+         * Runs {@code task} on this loop's thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                acceptKey = listener.register(selector, SelectionKey.OP_ACCEPT);
+                while (running) {
+                    selector.select(!stalled.isEmpty() ? 10 : wheel.isEmpty() ? 1000 : TICK_MS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    retryStalled();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handleKey(key);
+                    }
+                    wheel.advance(System.currentTimeMillis());
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Event loop error: " + e.getMessage());
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        void suspend() {
+            if (acceptKey != null) {
+                acceptKey.cancel();
+            }
+            stalled.clear();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+        }
+
+        void listen(ServerSocketChannel listener) {
+            this.listener = listener;
+            try {
+                acceptKey = listener.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                System.err.println("Could not listen again: " + e.getMessage());
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection conn = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    conn.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.onWritable();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                conn.close();
+            }
+        }
+
+        private void accept() {
+            // Loops sharing a listener race for it; a loop that loses just gets null.
+            for (int i = 0; i < 16; i++) {
+                try {
+                    SocketChannel ch = listener.accept();
+                    if (ch == null) {
+                        return;
+                    }
+                    ch.configureBlocking(false);
+                    sockets.configure(ch);
+                    SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                    Connection conn = new Connection(this, ch, key, tls == null ? null : new TlsConnection(tls.newEngine()));
+                    key.attach(conn);
+                    conn.awaitRead(ConnectionTimeout.HEAD, System.currentTimeMillis());
+                    Metrics.connections.increment();
+                    Metrics.activeConnections.increment();
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("Accept error: " + e.getMessage());
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Parks a connection whose request could not be queued. It is neither
+         * read from nor is anything new accepted by this loop until the
+         * workers have room again.
+         */
+        void stall(Connection conn) {
+            // Waiting for a worker is not the client's fault.
+            wheel.cancel(conn);
+            stalled.add(conn);
+            if (acceptKey.isValid()) {
+                acceptKey.interestOps(0);
+            }
+        }
+
+        private void retryStalled() {
+            if (stalled.isEmpty()) {
+                return;
+            }
+            List<Connection> retry = new ArrayList<>(stalled);
+            stalled.clear();
+            for (Connection conn : retry) {
+                if (conn.state == State.READING) {
+                    conn.processInput();
+                }
+            }
+            if (stalled.isEmpty() && acceptKey.isValid()) {
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+    }
+
+    private enum State {
+        READING, PROCESSING, HTTP2, CLOSED
+    }
+
+    /**
+     * Per-socket state machine. Reads accumulate until the blank line that ends
+     * the request head; the response produced by the worker is queued as
+     * buffers and drained whenever the socket is writable, up to
+     * {@value #GATHER} buffers per gathering write, after which a keep-alive
+     * connection goes back to reading.
+     * <p>
+     * The read buffer and the queued output buffers come from
+     * {@link BufferPool}s and go back once written or when the connection
+     * closes. Read-only buffers (slices of mapped files) are not pooled.
+     * <p>
+     * A request body is read by the loop while the handler works, into
+     * pooled buffers handed over through a {@link BodyPipe}, never further
+     * than the body's declared end. Reading stops while the handler is
+     * {@value #MAX_BODY_QUEUED} bytes behind and resumes when it catches up,
+     * so a large upload is held in memory a window at a time.
+     * <p>
+     * The connection is its own entry in the loop's {@link TimingWheel}, with
+     * one deadline at a time: for the head or body being read, for the client
+     * to take queued output, or for the next request. None runs while a
+     * handler works on the request and no body is awaited.
+     */
+    private final class Connection extends TimingWheel.Timeout {
+
+        final EventLoop loop;
+        final SocketChannel channel;
+        final SelectionKey key;
+        // Null for plain HTTP.
+        final TlsConnection tls;
+        // Replaced by a buffer that holds a whole frame once on HTTP/2.
+        ByteBuffer readBuffer = BufferPool.HEADS.acquire();
+        // Holds offsets into readBuffer, which stays put until the response is written.
+        final HttpRequest request = new HttpRequest();
+        final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        final AtomicLong pendingBytes = new AtomicLong();
+        // Taken from pending by the loop for the next gathering write.
+        final ByteBuffer[] batch = new ByteBuffer[GATHER];
+        int batchSize;
+        volatile State state = State.READING;
+        HttpRequest current;
+        boolean responseComplete;
+        int scanned;
+        int headLength;
+        long discard;
+        // The body of the request being processed, while it is being read.
+        volatile BodyPipe body;
+        // Body bytes still in the socket; -1 once the body cannot be finished.
+        long bodyRemaining;
+        // Set while the handler is too far behind; cleared by whoever resumes reading.
+        final AtomicBoolean bodyPaused = new AtomicBoolean();
+        int served;
+        ConnectionTimeout waitingFor;
+        // When the current head or body began to arrive, and the bytes read since.
+        long readStart;
+        long received;
+        Http2Connection h2;
+        // HTTP/2 only: close once the queued frames are written.
+        boolean closing;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key, TlsConnection tls) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.tls = tls;
+            request.client = channel.socket().getInetAddress();
+        }
+
+        void onReadable() throws IOException {
+            if (state == State.PROCESSING) {
+                readBody();
+                return;
+            }
+            int n = channel.read(tls == null ? readBuffer : tls.netIn);
+            if (n < 0) {
+                close();
+                return;
+            }
+            Metrics.bytesIn.add(n);
+            if (state == State.HTTP2) {
+                postpone(System.currentTimeMillis() + HttpServer.keepAliveTimeout());
+            } else if (waitingFor == ConnectionTimeout.IDLE) {
+                awaitRead(ConnectionTimeout.HEAD, System.currentTimeMillis());
+                received = n;
+            } else {
+                received += n;
+                postpone(ConnectionTimeout.readDeadline(readStart, received));
+            }
+            processInput();
+        }
+
+        /**
+         * Starts waiting for {@code kind}: a head or body must then arrive at
+         * the minimum rate, and a keep-alive connection may stay idle for the
+         * keep-alive timeout.
+         */
+        void awaitRead(ConnectionTimeout kind, long now) {
+            waitingFor = kind;
+            readStart = now;
+            received = 0;
+            loop.wheel.schedule(this, kind == ConnectionTimeout.IDLE
+                    ? now + HttpServer.keepAliveTimeout()
+                    : ConnectionTimeout.readDeadline(now, 0));
+        }
+
+        @Override
+        void expire(long now) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            if (state == State.HTTP2) {
+                if (batchSize > 0 || !pending.isEmpty() || closing) {
+                    // Frames have been waiting for the client since the last progress.
+                    ConnectionTimeout.WRITE.expired.increment();
+                    close();
+                } else if (h2.isIdle()) {
+                    ConnectionTimeout.IDLE.expired.increment();
+                    h2.close();
+                    closeAfterFlush();
+                } else {
+                    loop.wheel.schedule(this, now + HttpServer.keepAliveTimeout());
+                }
+                return;
+            }
+            waitingFor.expired.increment();
+            if (state == State.PROCESSING && waitingFor == ConnectionTimeout.BODY) {
+                // The handler is reading it, and answers the 408.
+                bodyFailed(new HttpRequestParser.BadRequestException("Request body timed out", HttpServer.REQUEST_TIMEOUT));
+                return;
+            }
+            if (waitingFor == ConnectionTimeout.HEAD || waitingFor == ConnectionTimeout.BODY) {
+                abort(HttpServer.REQUEST_TIMEOUT);
+            } else {
+                close();
+            }
+        }
+
+        /**
+         * Parses the next request from the buffered bytes, if a whole head is
+         * there. Only one request per connection is in flight, so pipelined
+         * requests are answered in order.
+         */
+        void processInput() {
+            if (tls != null && !decrypt()) {
+                return;
+            }
+            if (state == State.HTTP2) {
+                receiveFrames();
+                return;
+            }
+            while (discard > 0) {
+                int skip = (int) Math.min(discard, readBuffer.position());
+                consume(skip);
+                discard -= skip;
+                if (discard > 0 && (tls == null || !decrypt() || readBuffer.position() == 0)) {
+                    return;
+                }
+            }
+            if (waitingFor == ConnectionTimeout.BODY) {
+                // The body is done with; anything after it starts the next head.
+                awaitRead(readBuffer.position() > 0 ? ConnectionTimeout.HEAD : ConnectionTimeout.IDLE,
+                        System.currentTimeMillis());
+            }
+            int limit = readBuffer.position();
+            int end = HttpRequestParser.findHeadEnd(readBuffer.array(), scanned - 3, limit);
+            if (end < 0) {
+                scanned = limit;
+                if (!readBuffer.hasRemaining()) {
+                    abort(HttpServer.HEAD_TOO_LARGE);
+                }
+                return;
+            }
+            HttpRequest req = request;
+            if (!HttpRequestParser.parse(readBuffer.array(), 0, end, req) || (req.http2Preface && served > 0)) {
+                abort(HttpServer.BAD_REQUEST);
+                return;
+            }
+            if (req.http2Preface || (tls == null && Http2Connection.isUpgrade(req))) {
+                startHttp2(req, end);
+                return;
+            }
+            served++;
+            long bodyLength = req.contentLength();
+            BodyPipe pipe = bodyLength != 0 ? new BodyPipe(BufferPool.HEADS, this::bodyRead) : null;
+            try {
+                req.body = pipe == null ? null : HttpServer.requestBody(req, pipe, null);
+            } catch (HttpRequestParser.BadRequestException e) {
+                abort(e.response);
+                return;
+            }
+            req.keepAlive = req.wantsKeepAlive() && bodyLength >= 0
+                    && served < HttpServer.maxKeepAliveRequests() && running;
+            current = req;
+            headLength = end;
+            state = State.PROCESSING;
+            key.interestOps(0);
+            loop.wheel.cancel(this);
+            try {
+                workers.execute(HttpServer.refusable(() -> process(req), () -> loop.execute(this::shed)));
+            } catch (RejectedExecutionException e) {
+                if (admission == AdmissionPolicy.BLOCK && running) {
+                    // Undo, and parse the same head again once there is room.
+                    served--;
+                    req.body = null;
+                    current = null;
+                    state = State.READING;
+                    loop.stall(this);
+                } else {
+                    Metrics.shed.increment();
+                    abort(HttpServer.SERVICE_UNAVAILABLE);
+                }
+                return;
+            }
+            if (pipe != null) {
+                try {
+                    startBody(pipe, bodyLength);
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Hands the handler the part of the body that came with the head, and
+         * reads the rest as it arrives. A pipelined request behind the body
+         * moves up to just after the head.
+         */
+        private void startBody(BodyPipe pipe, long length) throws IOException {
+            body = pipe;
+            bodyRemaining = length > 0 ? length : Long.MAX_VALUE;
+            int buffered = readBuffer.position() - headLength;
+            int take = (int) Math.min(buffered, bodyRemaining);
+            if (take > 0) {
+                ByteBuffer chunk = BufferPool.HEADS.acquire();
+                chunk.put(readBuffer.array(), headLength, take);
+                byte[] array = readBuffer.array();
+                System.arraycopy(array, headLength + take, array, headLength, buffered - take);
+                readBuffer.position(readBuffer.position() - take);
+                offerBody(chunk.flip());
+            }
+            if (tls != null) {
+                // Records that did not fit the read buffer.
+                decryptBody();
+            }
+            if (state != State.CLOSED) {
+                bodyDeadline();
+                updateInterest();
+            }
+        }
+
+        /**
+         * Reads more of the body when the socket has some, never past its end:
+         * bytes of a pipelined request stay in the socket, or in the TLS
+         * buffers, until the response is written.
+         */
+        private void readBody() throws IOException {
+            if (!readingBody()) {
+                updateInterest();
+                return;
+            }
+            int n;
+            if (tls == null) {
+                ByteBuffer chunk = BufferPool.HEADS.acquire();
+                if (chunk.remaining() > bodyRemaining) {
+                    chunk.limit((int) bodyRemaining);
+                }
+                n = channel.read(chunk);
+                if (n > 0) {
+                    Metrics.bytesIn.add(n);
+                    offerBody(chunk.flip());
+                } else {
+                    BufferPool.HEADS.release(chunk);
+                }
+            } else {
+                n = channel.read(tls.netIn);
+                if (n > 0) {
+                    Metrics.bytesIn.add(n);
+                    decryptBody();
+                }
+            }
+            if (n < 0) {
+                bodyFailed(new HttpRequestParser.BadRequestException("Request body ended early", HttpServer.BAD_REQUEST));
+                return;
+            }
+            if (state == State.CLOSED) {
+                return;
+            }
+            if (waitingFor == ConnectionTimeout.BODY) {
+                received += n;
+                postpone(ConnectionTimeout.readDeadline(readStart, received));
+            }
+            bodyDeadline();
+            updateInterest();
+        }
+
+        /**
+         * Moves decrypted body bytes to the handler, leaving any beyond the
+         * body in the TLS buffers.
+         */
+        private void decryptBody() throws IOException {
+            while (readingBody()) {
+                boolean open = tls.unwrap();
+                ByteBuffer chunk = BufferPool.HEADS.acquire();
+                if (chunk.remaining() > bodyRemaining) {
+                    chunk.limit((int) bodyRemaining);
+                }
+                int moved = tls.transferTo(chunk);
+                if (moved > 0) {
+                    offerBody(chunk.flip());
+                } else {
+                    BufferPool.HEADS.release(chunk);
+                }
+                if (!open) {
+                    bodyFailed(new HttpRequestParser.BadRequestException("Request body ended early", HttpServer.BAD_REQUEST));
+                    break;
+                }
+                if (moved == 0) {
+                    break;
+                }
+            }
+            if (state != State.CLOSED && tls.needsWrap()) {
+                flushTls();
+            }
+        }
+
+        private void offerBody(ByteBuffer chunk) {
+            BodyPipe pipe = body;
+            bodyRemaining -= chunk.remaining();
+            pipe.offer(chunk);
+            if (bodyRemaining == 0) {
+                pipe.end();
+            } else if (pipe.queued() >= MAX_BODY_QUEUED) {
+                bodyPaused.set(true);
+                // The handler may have caught up before it could see the flag.
+                if (pipe.queued() < MAX_BODY_QUEUED) {
+                    bodyPaused.compareAndSet(true, false);
+                }
+            }
+        }
+
+        /**
+         * Called on the handler's thread after each read of the body.
+         */
+        private void bodyRead(int n) {
+            BodyPipe pipe = body;
+            if (pipe != null && pipe.queued() <= MAX_BODY_QUEUED / 2 && bodyPaused.compareAndSet(true, false)) {
+                loop.execute(this::resumeBody);
+            }
+        }
+
+        private void resumeBody() {
+            if (state != State.PROCESSING || body == null) {
+                return;
+            }
+            try {
+                if (tls != null) {
+                    decryptBody();
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (state != State.CLOSED) {
+                bodyDeadline();
+                updateInterest();
+            }
+        }
+
+        /**
+         * Makes the handler's next read of the body throw {@code e}; the
+         * connection closes after the response.
+         */
+        private void bodyFailed(IOException e) {
+            body.fail(e);
+            bodyRemaining = -1;
+            bodyDeadline();
+            updateInterest();
+        }
+
+        /**
+         * Drops what the handler left of the body and wakes it if it is
+         * still reading.
+         */
+        private void releaseBody() {
+            BodyPipe pipe = body;
+            if (pipe != null) {
+                body = null;
+                pipe.close();
+            }
+            bodyRemaining = 0;
+            bodyPaused.set(false);
+        }
+
+        private boolean readingBody() {
+            return body != null && bodyRemaining > 0 && !bodyPaused.get();
+        }
+
+        /**
+         * Runs the body's read deadline while the loop waits on the client
+         * for it, but not while the handler is behind. A write deadline
+         * already running is left alone.
+         */
+        private void bodyDeadline() {
+            if (readingBody()) {
+                if (!isScheduled()) {
+                    awaitRead(ConnectionTimeout.BODY, System.currentTimeMillis());
+                }
+            } else if (waitingFor == ConnectionTimeout.BODY) {
+                loop.wheel.cancel(this);
+            }
+        }
+
+        private void updateInterest() {
+            if (state == State.CLOSED || !key.isValid()) {
+                return;
+            }
+            boolean writing = batchSize > 0 || !pending.isEmpty() || (tls != null && tls.netOut.hasRemaining());
+            key.interestOps((readingBody() ? SelectionKey.OP_READ : 0) | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+
+        /**
+         * Switches to HTTP/2 after a preface or an h2c upgrade request whose
+         * head ends at {@code end}. The upgrade is answered on stream 1, after
+         * the {@code 101}.
+         */
+        private void startHttp2(HttpRequest req, int end) {
+            boolean upgrade = !req.http2Preface;
+            ByteBuffer input = ByteBuffer.allocate(Http2Connection.INPUT_BUFFER_SIZE);
+            input.put(readBuffer.array(), end, readBuffer.position() - end);
+            state = State.HTTP2;
+            key.interestOps(SelectionKey.OP_READ);
+            waitingFor = ConnectionTimeout.IDLE;
+            loop.wheel.schedule(this, System.currentTimeMillis() + HttpServer.keepAliveTimeout());
+            h2 = new Http2Connection(new FrameOutput(), workers, request.client,
+                    upgrade ? 0 : Http2Connection.PRI_HEAD_LENGTH);
+            Metrics.http2Connections.increment();
+            try {
+                if (upgrade) {
+                    pendingBytes.addAndGet(Http2Connection.SWITCHING_PROTOCOLS.length);
+                    pending.add(ByteBuffer.wrap(Http2Connection.SWITCHING_PROTOCOLS));
+                }
+                // Copies what it needs of the head, which is still in readBuffer.
+                h2.start(upgrade ? req : null);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            BufferPool.HEADS.release(readBuffer);
+            readBuffer = input;
+            enableWrite();
+            receiveFrames();
+        }
+
+        /**
+         * Hands buffered bytes to the HTTP/2 connection, decrypting more as
+         * frames are taken.
+         */
+        private void receiveFrames() {
+            try {
+                while (true) {
+                    readBuffer.flip();
+                    boolean open = h2.receive(readBuffer);
+                    readBuffer.compact();
+                    if (!open) {
+                        closeAfterFlush();
+                        return;
+                    }
+                    int before = readBuffer.position();
+                    if (tls == null || !decrypt() || readBuffer.position() == before) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void closeAfterFlush() {
+            closing = true;
+            loop.wheel.schedule(this, System.currentTimeMillis() + HttpServer.writeTimeout());
+            enableWrite();
+        }
+
+        /**
+         * Moves whatever TLS can decrypt into the read buffer and sends any
+         * handshake reply.
+         *
+         * @return {@code false} if the connection was closed
+         */
+        private boolean decrypt() {
+            try {
+                boolean open;
+                while (true) {
+                    open = tls.unwrap();
+                    int moved = tls.transferTo(readBuffer);
+                    // Records left behind when appIn filled up.
+                    if (!open || moved == 0 || !readBuffer.hasRemaining() || tls.netIn.position() == 0) {
+                        break;
+                    }
+                }
+                if (tls.needsWrap()) {
+                    flushTls();
+                }
+                if (!open) {
+                    close();
+                }
+                return open;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * Writes pending TLS records, producing handshake messages as they
+         * become due, and waits for the socket to be writable when it is full.
+         *
+         * @return {@code true} once nothing is left to write
+         */
+        private boolean flushTls() throws IOException {
+            while (true) {
+                if (tls.netOut.hasRemaining()) {
+                    Metrics.bytesOut.add(channel.write(tls.netOut));
+                    if (tls.netOut.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return false;
+                    }
+                }
+                if (!tls.needsWrap()) {
+                    return true;
+                }
+                tls.wrapHandshake();
+            }
+        }
+
+        /**
+         * Drops {@code n} bytes from the front of the read buffer.
+         */
+        private void consume(int n) {
+            readBuffer.flip();
+            readBuffer.position(n);
+            readBuffer.compact();
+        }
+
+        /**
+         * Runs on a worker. An asynchronous handler gives the worker back at
+         * once; its response is finished by whichever thread completes it.
+         */
+        private void process(HttpRequest req) {
+            OutputStream out = new ResponseStream(this);
+            CompletableFuture<Void> later;
+            try {
+                later = HttpServer.dispatchAsync(req, out);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            if (later == null) {
+                complete(out, null);
+            } else {
+                later.whenComplete((v, t) -> complete(out, t));
+            }
+        }
+
+        private void complete(OutputStream out, Throwable error) {
+            if (error == null) {
+                try {
+                    out.close();
+                    return;
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            fail(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+        }
+
+        private void fail(Throwable e) {
+            Metrics.connectionErrors.increment();
+            System.err.println("Client error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+            loop.execute(this::close);
+        }
+
+        /**
+         * Goes back to reading once a keep-alive response has been written,
+         * starting with any pipelined bytes that arrived meanwhile.
+         */
+        private void nextRequest() {
+            // Whatever the handler did not read is still in the socket.
+            discard = bodyRemaining;
+            releaseBody();
+            consume(headLength);
+            scanned = 0;
+            responseComplete = false;
+            current = null;
+            state = State.READING;
+            awaitRead(discard > 0 ? ConnectionTimeout.BODY
+                    : readBuffer.position() > 0 ? ConnectionTimeout.HEAD : ConnectionTimeout.IDLE,
+                    System.currentTimeMillis());
+            key.interestOps(SelectionKey.OP_READ);
+            processInput();
+        }
+
+        /**
+         * Called from a worker thread. Blocks while too much output is queued so
+         * a fast producer cannot outrun a slow client.
+         */
+        void enqueue(ByteBuffer buf) throws IOException {
+            awaitRoom();
+            pendingBytes.addAndGet(buf.remaining());
+            pending.add(buf);
+            loop.execute(this::enableWrite);
+        }
+
+        private void awaitRoom() throws IOException {
+            synchronized (this) {
+                while (pendingBytes.get() > MAX_PENDING_BYTES && state != State.CLOSED) {
+                    try {
+                        wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing response");
+                    }
+                }
+            }
+            if (state == State.CLOSED) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        void finish() {
+            loop.execute(() -> {
+                responseComplete = true;
+                enableWrite();
+            });
+        }
+
+        private void enableWrite() {
+            if (state != State.CLOSED && key.isValid()) {
+                // HTTP/2 keeps reading while frames go out.
+                key.interestOps(state == State.HTTP2 || readingBody()
+                        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+            }
+        }
+
+        void onWritable() throws IOException {
+            long written = 0;
+            if (tls != null) {
+                if (!flushTls()) {
+                    awaitWrite(false, 0);
+                    return;
+                }
+                if (state == State.READING) {
+                    // Only a handshake message was waiting.
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            while (true) {
+                ByteBuffer buf;
+                while (batchSize < batch.length && (buf = pending.poll()) != null) {
+                    batch[batchSize++] = buf;
+                }
+                if (batchSize == 0) {
+                    break;
+                }
+                long n;
+                if (tls == null) {
+                    n = channel.write(batch, 0, batchSize);
+                    Metrics.bytesOut.add(n);
+                } else {
+                    n = tls.wrap(batch, 0, batchSize);
+                }
+                pendingBytes.addAndGet(-n);
+                written += n;
+                int done = 0;
+                while (done < batchSize && !batch[done].hasRemaining()) {
+                    recycle(batch[done]);
+                    done++;
+                }
+                System.arraycopy(batch, done, batch, 0, batchSize - done);
+                Arrays.fill(batch, batchSize - done, batchSize, null);
+                batchSize -= done;
+                // Either way, the socket buffer is full.
+                if (tls == null ? batchSize > 0 : !flushTls()) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+            boolean drained = batchSize == 0 && pending.isEmpty() && (tls == null || !tls.netOut.hasRemaining());
+            awaitWrite(drained, written);
+            if (drained) {
+                if (state == State.HTTP2) {
+                    if (closing) {
+                        close();
+                    } else {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (responseComplete) {
+                    if (current.keepAlive && bodyRemaining >= 0) {
+                        nextRequest();
+                    } else {
+                        close();
+                    }
+                } else {
+                    key.interestOps(readingBody() ? SelectionKey.OP_READ : 0);
+                }
+            }
+        }
+
+        /**
+         * Keeps a deadline on output the client is not taking: it starts when
+         * the socket buffer fills and moves on with every write that makes
+         * progress. HTTP/2 connections count that progress against their idle
+         * deadline instead.
+         */
+        private void awaitWrite(boolean drained, long written) {
+            long now = System.currentTimeMillis();
+            if (state == State.READING) {
+                // Only a TLS handshake message; the head's deadline still runs.
+                return;
+            }
+            if (state == State.HTTP2) {
+                if (written > 0 && !closing) {
+                    postpone(now + HttpServer.keepAliveTimeout());
+                }
+            } else if (drained) {
+                if (waitingFor == ConnectionTimeout.WRITE) {
+                    // What comes next is the handler's doing, a new request, or more body.
+                    loop.wheel.cancel(this);
+                    bodyDeadline();
+                }
+            } else if (waitingFor != ConnectionTimeout.WRITE || !isScheduled()) {
+                waitingFor = ConnectionTimeout.WRITE;
+                loop.wheel.schedule(this, now + HttpServer.writeTimeout());
+            } else if (written > 0) {
+                postpone(now + HttpServer.writeTimeout());
+            }
+        }
+
+        /**
+         * Answers a request the workers will not run, because the server is
+         * stopping, with {@code 503}.
+         */
+        private void shed() {
+            if (state == State.PROCESSING) {
+                Metrics.shed.increment();
+                abort(HttpServer.SERVICE_UNAVAILABLE);
+            }
+        }
+
+        void abort(byte[] response) {
+            Metrics.status(response);
+            try {
+                if (tls == null) {
+                    Metrics.bytesOut.add(channel.write(ByteBuffer.wrap(response)));
+                } else {
+                    tls.wrap(new ByteBuffer[]{ByteBuffer.wrap(response)}, 0, 1);
+                    Metrics.bytesOut.add(channel.write(tls.netOut));
+                }
+            } catch (IOException ignored) {
+            }
+            close();
+        }
+
+        void close() {
+            if (state == State.CLOSED) {
+                return;
+            }
+            // A worker may still be reading the head of a request in progress.
+            boolean idle = state == State.READING;
+            state = State.CLOSED;
+            Metrics.activeConnections.decrement();
+            loop.wheel.cancel(this);
+            key.cancel();
+            if (tls != null) {
+                tls.close(channel);
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+            if (h2 != null) {
+                // Wakes streams waiting for flow control.
+                h2.close();
+            }
+            releaseBody();
+            for (int i = 0; i < batchSize; i++) {
+                recycle(batch[i]);
+                batch[i] = null;
+            }
+            batchSize = 0;
+            ByteBuffer buf;
+            while ((buf = pending.poll()) != null) {
+                recycle(buf);
+            }
+            if (idle) {
+                BufferPool.HEADS.release(readBuffer);
+            }
+        }
+
+        /**
+         * Where the HTTP/2 connection sends its frames: the same queue the
+         * loop drains for HTTP/1.1 responses.
+         */
+        private final class FrameOutput implements Http2Connection.Output {
+
+            @Override
+            public void awaitRoom() throws IOException {
+                // The loop itself only sends small control frames.
+                if (Thread.currentThread() != loop.thread) {
+                    Connection.this.awaitRoom();
+                }
+            }
+
+            @Override
+            public void write(ByteBuffer frame) throws IOException {
+                if (state == State.CLOSED) {
+                    recycle(frame);
+                    throw new IOException("Connection closed");
+                }
+                pendingBytes.addAndGet(frame.remaining());
+                pending.add(frame);
+                loop.execute(Connection.this::enableWrite);
+            }
+
+            @Override
+            public void close() {
+                loop.execute(Connection.this::closeAfterFlush);
+            }
+        }
+    }
+
+    private static void recycle(ByteBuffer buf) {
+        if (buf.isDirect() && !buf.isReadOnly()) {
+            BufferPool.OUTPUT.release(buf);
+        }
+    }
+
+    /**
+     * Worker-side view of a connection: bytes are gathered in a pooled direct
+     * buffer, taken on the first write, and handed to the event loop on every
+     * flush. Large files are queued as slices of their shared memory mapping,
+     * so the loop writes them to the socket without a heap copy.
+     */
+    private static final class ResponseStream extends OutputStream implements ZeroCopyOutput {
+
+        private final Connection conn;
+        private ByteBuffer buf;
+        private boolean closed;
+
+        ResponseStream(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buf == null) {
+                buf = BufferPool.OUTPUT.acquire();
+            } else if (!buf.hasRemaining()) {
+                flush();
+                buf = BufferPool.OUTPUT.acquire();
+            }
+            buf.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (buf == null) {
+                    buf = BufferPool.OUTPUT.acquire();
+                } else if (!buf.hasRemaining()) {
+                    flush();
+                    buf = BufferPool.OUTPUT.acquire();
+                }
+                int n = Math.min(len, buf.remaining());
+                buf.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buf != null && buf.position() > 0) {
+                ByteBuffer full = buf.flip();
+                buf = null;
+                conn.enqueue(full);
+            }
+        }
+
+        @Override
+        public void writeFile(StaticFileCache.Entry file, long position, long count) throws IOException {
+            MappedByteBuffer mapped = file.mapped();
+            if (mapped == null) {
+                file.copyTo(this, position, count);
+                return;
+            }
+            flush();
+            ByteBuffer region = mapped.duplicate();
+            region.position((int) position).limit((int) (position + count));
+            conn.enqueue(region);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                flush();
+                conn.finish();
+            }
+        }
+    }
+}
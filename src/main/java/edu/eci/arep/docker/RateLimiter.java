@@ -0,0 +1,120 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per client address, in a table that takes no locks on the
+ * request path.
+ * <p>
+ * A bucket is a single timestamp: the time at which it will be full again.
+ * Taking a token moves it one refill interval later, with a compare and set,
+ * and the request is refused when that would put it more than
+ * {@code burst} intervals ahead of now. Nothing refills buckets in the
+ * background; the tokens earned since the last request are implied by how
+ * far the clock has moved. A bucket whose time has passed is full, which is
+ * the same as having none, so such entries are dropped whenever the table
+ * grows past its bound. If it is still over after that, arbitrary entries
+ * go too: those clients start again with a full bucket, which is the price
+ * of memory that does not grow with the number of addresses.
+ *
+ * @author Jaider Vargas
+ */
+final class RateLimiter {
+
+    // Entries dropped beyond the full buckets when the table is still over its bound.
+    private static final int EVICT_DIVISOR = 8;
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final int maxClients;
+    private final ConcurrentHashMap<InetAddress, AtomicLong> buckets;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * @param perSecond tokens added to each bucket per second
+     * @param burst tokens a bucket holds, so requests a client may send at
+     * once after being idle
+     * @param maxClients buckets kept before idle ones are evicted
+     */
+    RateLimiter(double perSecond, int burst, int maxClients) {
+        if (perSecond <= 0 || burst < 1 || maxClients < 1) {
+            throw new IllegalArgumentException("Invalid rate limit: " + perSecond + "/s, burst " + burst
+                    + ", " + maxClients + " clients");
+        }
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.capacityNanos = intervalNanos * burst;
+        this.maxClients = maxClients;
+        this.buckets = new ConcurrentHashMap<>(Math.min(maxClients, 1024));
+    }
+
+    /**
+     * Takes a token from {@code client}'s bucket.
+     *
+     * @return whether there was one
+     */
+    boolean tryAcquire(InetAddress client) {
+        return tryAcquire(client, System.nanoTime());
+    }
+
+    boolean tryAcquire(InetAddress client, long now) {
+        AtomicLong bucket = buckets.get(client);
+        if (bucket == null) {
+            // A new client starts full, less this request.
+            bucket = buckets.putIfAbsent(client, new AtomicLong(now + intervalNanos));
+            if (bucket == null) {
+                if (buckets.size() > maxClients) {
+                    evict(now);
+                }
+                return true;
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + intervalNanos;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of clients with a bucket
+     */
+    int clients() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops full buckets, then arbitrary ones if the table is still too big.
+     * One thread sweeps at a time; the others carry on over the bound. A
+     * token taken from a bucket just as it is dropped is lost, which lets
+     * that client through once more.
+     */
+    private void evict(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+            int target = maxClients - maxClients / EVICT_DIVISOR;
+            Iterator<AtomicLong> it = buckets.values().iterator();
+            while (buckets.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+}
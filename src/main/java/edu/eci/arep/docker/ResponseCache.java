@@ -0,0 +1,267 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encoded responses of {@code @Cacheable} handlers, keyed by route and the
+ * resolved argument values, so parameter order, unused parameters and
+ * explicit defaults all map to the same entry. An entry holds complete
+ * responses, head and body in one array, ready for a single write; text
+ * large enough to compress also keeps gzip and deflate copies.
+ * <p>
+ * Concurrent misses on a key are coalesced: the first request runs the
+ * handler and the others wait for its result. Entries expire after the
+ * handler's TTL and the least recently used go when the byte budget is
+ * exceeded. Failures are not cached.
+ *
+ * @author Jaider Vargas
+ */
+final class ResponseCache {
+
+    private static final byte[] KEEP_ALIVE = "Connection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "Connection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // Rough per-entry cost of the key, the map node and the future.
+    private static final int OVERHEAD = 128;
+
+    private static final class Key {
+
+        final RouteInvoker route;
+        final String[] args;
+        final int hash;
+
+        Key(RouteInvoker route, String[] args) {
+            this.route = route;
+            this.args = args;
+            hash = System.identityHashCode(route) * 31 + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).route == route && Arrays.equals(((Key) o).args, args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        long weight() {
+            long w = OVERHEAD;
+            for (String a : args) {
+                w += a == null ? 0 : 2L * a.length();
+            }
+            return w;
+        }
+    }
+
+    /**
+     * One cached result with its pre-encoded responses.
+     */
+    static final class Entry {
+
+        private final byte[] keepAlive;
+        private final byte[] close;
+        private final byte[] gzipKeepAlive;
+        private final byte[] gzipClose;
+        private final byte[] deflateKeepAlive;
+        private final byte[] deflateClose;
+        final long expiresAt;
+        final long weight;
+        volatile long lastAccess;
+
+        Entry(byte[] body, int compressionMinSize, long expiresAt, long keyWeight) throws IOException {
+            boolean compress = compressionMinSize >= 0 && body.length >= compressionMinSize;
+            keepAlive = response(null, body, compress, KEEP_ALIVE);
+            close = response(null, body, compress, CLOSE);
+            if (compress) {
+                byte[] gzipped = Compression.encode(Compression.GZIP, body);
+                byte[] deflated = Compression.encode(Compression.DEFLATE, body);
+                gzipKeepAlive = response(Compression.GZIP, gzipped, true, KEEP_ALIVE);
+                gzipClose = response(Compression.GZIP, gzipped, true, CLOSE);
+                deflateKeepAlive = response(Compression.DEFLATE, deflated, true, KEEP_ALIVE);
+                deflateClose = response(Compression.DEFLATE, deflated, true, CLOSE);
+            } else {
+                gzipKeepAlive = gzipClose = deflateKeepAlive = deflateClose = null;
+            }
+            this.expiresAt = expiresAt;
+            weight = keyWeight + keepAlive.length + close.length
+                    + (gzipKeepAlive == null ? 0 : gzipKeepAlive.length + gzipClose.length
+                    + deflateKeepAlive.length + deflateClose.length);
+        }
+
+        /**
+         * @return the whole response for {@code req}, in the coding it
+         * prefers when the body was large enough to compress
+         */
+        byte[] response(HttpRequest req) {
+            if (gzipKeepAlive != null) {
+                String coding = Compression.negotiate(req);
+                if (Compression.GZIP.equals(coding)) {
+                    return req.keepAlive ? gzipKeepAlive : gzipClose;
+                }
+                if (Compression.DEFLATE.equals(coding)) {
+                    return req.keepAlive ? deflateKeepAlive : deflateClose;
+                }
+            }
+            return req.keepAlive ? keepAlive : close;
+        }
+
+        private static byte[] response(String coding, byte[] body, boolean vary, byte[] connection) {
+            byte[] head = ("HTTP/1.1 200 OK\r\n"
+                    + "content-type: text/plain\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + (coding == null ? "" : "Content-Encoding: " + coding + "\r\n")
+                    + (vary ? "Vary: Accept-Encoding\r\n" : "")).getBytes(StandardCharsets.US_ASCII);
+            byte[] all = new byte[head.length + connection.length + body.length];
+            System.arraycopy(head, 0, all, 0, head.length);
+            System.arraycopy(connection, 0, all, head.length, connection.length);
+            System.arraycopy(body, 0, all, head.length + connection.length, body.length);
+            return all;
+        }
+    }
+
+    private final Map<Key, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    private final long maxBytes;
+
+    ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached response of {@code route} for the arguments of
+     * {@code req}, running the handler on a miss
+     * @throws Exception what the handler threw, for this request and every
+     * request that waited on the same call
+     */
+    Entry get(RouteInvoker route, HttpRequest req) throws Exception {
+        Key key = new Key(route, route.arguments(req));
+        for (;;) {
+            CompletableFuture<Entry> pending = entries.get(key);
+            if (pending == null) {
+                CompletableFuture<Entry> mine = new CompletableFuture<>();
+                if (entries.putIfAbsent(key, mine) == null) {
+                    return load(key, mine);
+                }
+                continue;
+            }
+            if (!pending.isDone()) {
+                coalesced.increment();
+                return await(pending);
+            }
+            Entry entry = pending.join();
+            long now = System.nanoTime();
+            if (now - entry.expiresAt < 0) {
+                hits.increment();
+                entry.lastAccess = now;
+                return entry;
+            }
+            // Expired: whoever swaps in a new future reloads, the rest wait on it.
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            if (entries.replace(key, pending, mine)) {
+                size.addAndGet(-entry.weight);
+                return load(key, mine);
+            }
+        }
+    }
+
+    private Entry load(Key key, CompletableFuture<Entry> mine) throws Exception {
+        misses.increment();
+        Entry entry;
+        try {
+            String result = (String) key.route.invoke(key.args);
+            long now = System.nanoTime();
+            entry = new Entry(result.getBytes(StandardCharsets.UTF_8), HttpServer.compressionMinSize(),
+                    now + key.route.ttlNanos, key.weight());
+            entry.lastAccess = now;
+        } catch (Exception | Error e) {
+            // Removed before completing, so only the waiters see the failure.
+            entries.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        mine.complete(entry);
+        if (entry.weight > maxBytes) {
+            entries.remove(key, mine);
+        } else {
+            size.addAndGet(entry.weight);
+            evict();
+        }
+        return entry;
+    }
+
+    private static Entry await(CompletableFuture<Entry> pending) throws Exception {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private void evict() {
+        while (size.get() > maxBytes) {
+            // Scanned like the static file cache; the scan only runs on a miss
+            // that overflows the budget.
+            Key eldest = null;
+            CompletableFuture<Entry> eldestValue = null;
+            long oldest = Long.MAX_VALUE;
+            long now = System.nanoTime();
+            for (Map.Entry<Key, CompletableFuture<Entry>> e : entries.entrySet()) {
+                Entry entry = e.getValue().getNow(null);
+                if (entry == null) {
+                    continue;
+                }
+                // Expired entries go first.
+                long rank = now - entry.expiresAt >= 0 ? Long.MIN_VALUE : entry.lastAccess;
+                if (eldest == null || rank < oldest) {
+                    oldest = rank;
+                    eldest = e.getKey();
+                    eldestValue = e.getValue();
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            if (entries.remove(eldest, eldestValue)) {
+                size.addAndGet(-eldestValue.join().weight);
+            }
+        }
+    }
+
+    long bytes() {
+        return size.get();
+    }
+
+    int entryCount() {
+        return entries.size();
+    }
+
+    void clear() {
+        for (Key key : new ArrayList<>(entries.keySet())) {
+            CompletableFuture<Entry> f = entries.get(key);
+            if (f != null && f.isDone() && entries.remove(key, f)) {
+                size.addAndGet(-f.join().weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-encoded pieces of response heads, so that writing a head copies a few
+ * constant arrays instead of concatenating and encoding a {@code String} per
+ * response. Lengths are written digit by digit for the same reason.
+ *
+ * @author Jaider Vargas
+ */
+final class ResponseHeads {
+
+    static final byte[] OK = ascii("HTTP/1.1 200 OK\r\n");
+    static final byte[] TEXT_PLAIN = ascii("content-type: text/plain\r\n");
+    static final byte[] CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    static final byte[] VARY = ascii("Vary: Accept-Encoding\r\n");
+    static final byte[] GZIP = ascii("Content-Encoding: gzip\r\n");
+    static final byte[] DEFLATE = ascii("Content-Encoding: deflate\r\n");
+
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] KEEP_ALIVE_END = ascii("Connection: keep-alive\r\n\r\n");
+    private static final byte[] CLOSE_END = ascii("Connection: close\r\n\r\n");
+
+    // Types set by handlers are cached too, up to this many.
+    private static final int MAX_CONTENT_TYPES = 256;
+    private static final Map<String, byte[]> contentTypes = new ConcurrentHashMap<>();
+
+    private ResponseHeads() {
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the {@code content-type} line for {@code mimeType}
+     */
+    static byte[] contentType(String mimeType) {
+        byte[] line = contentTypes.get(mimeType);
+        if (line == null) {
+            line = ascii("content-type: " + mimeType + "\r\n");
+            if (contentTypes.size() < MAX_CONTENT_TYPES) {
+                contentTypes.put(mimeType, line);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * @return the {@code Content-Encoding} line for a coding from
+     * {@link Compression#negotiate}
+     */
+    static byte[] contentEncoding(String coding) {
+        return Compression.GZIP.equals(coding) ? GZIP : DEFLATE;
+    }
+
+    static void contentLength(OutputStream out, long length) throws IOException {
+        out.write(CONTENT_LENGTH);
+        long div = 1;
+        while (div <= length / 10) {
+            div *= 10;
+        }
+        for (; div > 0; div /= 10) {
+            out.write('0' + (int) (length / div % 10));
+        }
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the {@code Connection} header and the blank line ending the head.
+     */
+    static void end(OutputStream out, HttpRequest req) throws IOException {
+        out.write(req.keepAlive ? KEEP_ALIVE_END : CLOSE_END);
+    }
+}
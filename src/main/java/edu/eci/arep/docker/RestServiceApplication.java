@@ -5,6 +5,7 @@
 package edu.eci.arep.docker;
 
 import edu.eci.arep.docker.annotations.RestController;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -26,7 +27,29 @@ public static void main(String[] args) throws Exception{
             controllerNames[i] = controllers.get(i).getName();
         }
         HttpServer.staticfiles("static");
+        HttpServer.watchStaticFiles(Boolean.parseBoolean(System.getenv("STATIC_WATCH")));
+        HttpServer.compression(!"false".equalsIgnoreCase(System.getenv("COMPRESSION")), getCompressionMinSize());
+        HttpServer.responseCache(getResponseCacheBytes());
+        HttpServer.requestBodies(getMaxBodyBytes());
+        HttpServer.asyncTimeout(getAsyncTimeoutMs());
         HttpServer.port(getPort());
+        HttpServer.acceptors(getAcceptors());
+        HttpServer.socketOptions(getListenBacklog(), !"false".equalsIgnoreCase(System.getenv("TCP_NODELAY")),
+                getSocketBuffer("SO_RCVBUF"), getSocketBuffer("SO_SNDBUF"));
+        if (System.getenv("TLS_KEYSTORE") != null) {
+            HttpServer.tls(Path.of(System.getenv("TLS_KEYSTORE")), getTlsPassword(), getTlsKeyStoreType());
+            HttpServer.tlsOptions(getList("TLS_PROTOCOLS"), getList("TLS_CIPHERS"), getTlsAlpn());
+            HttpServer.tlsSessions(getTlsSessionCacheSize(), getTlsSessionTimeout(),
+                    !"false".equalsIgnoreCase(System.getenv("TLS_SESSION_TICKETS")));
+        }
+        HttpServer.ioMode(getIoMode());
+        HttpServer.executorMode(getExecutorMode());
+        HttpServer.maxConcurrency(getMaxConcurrency());
+        HttpServer.admission(getAdmissionPolicy(), getQueueCapacity());
+        HttpServer.latencyTarget(getLatencyTargetMs());
+        HttpServer.keepAlive(getInt("KEEP_ALIVE_TIMEOUT_MS", 5000), getInt("KEEP_ALIVE_MAX_REQUESTS", 100));
+        HttpServer.timeouts(getInt("READ_TIMEOUT_MS", 10_000), getInt("MIN_READ_RATE", 500), getInt("WRITE_TIMEOUT_MS", 30_000));
+        HttpServer.rateLimit(getRateLimitPerSecond(), getInt("RATE_LIMIT_BURST", 20), getInt("RATE_LIMIT_MAX_CLIENTS", 100_000));
         HttpServer.runServer(controllerNames);
 }
 
@@ -37,4 +60,154 @@ private static int getPort() {
     return 9000;
 }
 
+private static double getRateLimitPerSecond() {
+    if (System.getenv("RATE_LIMIT_PER_SECOND") != null) {
+        return Double.parseDouble(System.getenv("RATE_LIMIT_PER_SECOND"));
+    }
+    return 0;
+}
+
+private static int getInt(String name, int defaultValue) {
+    if (System.getenv(name) != null) {
+        return Integer.parseInt(System.getenv(name));
+    }
+    return defaultValue;
+}
+
+private static int getAcceptors() {
+    if (System.getenv("ACCEPTORS") != null) {
+        return Integer.parseInt(System.getenv("ACCEPTORS"));
+    }
+    return 1;
+}
+
+private static int getListenBacklog() {
+    if (System.getenv("LISTEN_BACKLOG") != null) {
+        return Integer.parseInt(System.getenv("LISTEN_BACKLOG"));
+    }
+    return 0;
+}
+
+private static int getSocketBuffer(String name) {
+    if (System.getenv(name) != null) {
+        return Integer.parseInt(System.getenv(name));
+    }
+    return 0;
+}
+
+private static char[] getTlsPassword() {
+    if (System.getenv("TLS_KEYSTORE_PASSWORD") != null) {
+        return System.getenv("TLS_KEYSTORE_PASSWORD").toCharArray();
+    }
+    return new char[0];
+}
+
+private static String getTlsKeyStoreType() {
+    if (System.getenv("TLS_KEYSTORE_TYPE") != null) {
+        return System.getenv("TLS_KEYSTORE_TYPE");
+    }
+    return "PKCS12";
+}
+
+private static String[] getTlsAlpn() {
+    String[] protocols = getList("TLS_ALPN");
+    return protocols != null ? protocols : new String[]{"h2", "http/1.1"};
+}
+
+private static int getTlsSessionCacheSize() {
+    if (System.getenv("TLS_SESSION_CACHE_SIZE") != null) {
+        return Integer.parseInt(System.getenv("TLS_SESSION_CACHE_SIZE"));
+    }
+    return 20_000;
+}
+
+private static int getTlsSessionTimeout() {
+    if (System.getenv("TLS_SESSION_TIMEOUT") != null) {
+        return Integer.parseInt(System.getenv("TLS_SESSION_TIMEOUT"));
+    }
+    return 86_400;
+}
+
+/**
+ * @return the comma separated values of {@code name}, or {@code null} when
+ * it is not set
+ */
+private static String[] getList(String name) {
+    String value = System.getenv(name);
+    if (value == null || value.isBlank()) {
+        return null;
+    }
+    return value.trim().split("\\s*,\\s*");
+}
+
+private static IoMode getIoMode() {
+    if (System.getenv("IO_MODE") != null) {
+        return IoMode.valueOf(System.getenv("IO_MODE").toUpperCase());
+    }
+    return IoMode.BLOCKING;
+}
+
+private static ExecutorMode getExecutorMode() {
+    if (System.getenv("EXECUTOR_MODE") != null) {
+        return ExecutorMode.valueOf(System.getenv("EXECUTOR_MODE").toUpperCase());
+    }
+    return ExecutorMode.FIXED;
+}
+
+private static int getCompressionMinSize() {
+    if (System.getenv("COMPRESSION_MIN_SIZE") != null) {
+        return Integer.parseInt(System.getenv("COMPRESSION_MIN_SIZE"));
+    }
+    return 512;
+}
+
+private static long getResponseCacheBytes() {
+    if (System.getenv("RESPONSE_CACHE_BYTES") != null) {
+        return Long.parseLong(System.getenv("RESPONSE_CACHE_BYTES"));
+    }
+    return 16L << 20;
+}
+
+private static long getMaxBodyBytes() {
+    if (System.getenv("MAX_BODY_BYTES") != null) {
+        return Long.parseLong(System.getenv("MAX_BODY_BYTES"));
+    }
+    return 64L << 20;
+}
+
+private static long getAsyncTimeoutMs() {
+    if (System.getenv("ASYNC_TIMEOUT_MS") != null) {
+        return Long.parseLong(System.getenv("ASYNC_TIMEOUT_MS"));
+    }
+    return 30_000;
+}
+
+private static AdmissionPolicy getAdmissionPolicy() {
+    if (System.getenv("ADMISSION") != null) {
+        return AdmissionPolicy.valueOf(System.getenv("ADMISSION").toUpperCase());
+    }
+    return AdmissionPolicy.REJECT;
+}
+
+private static int getQueueCapacity() {
+    if (System.getenv("QUEUE_CAPACITY") != null) {
+        return Integer.parseInt(System.getenv("QUEUE_CAPACITY"));
+    }
+    return 1024;
+}
+
+private static long getLatencyTargetMs() {
+    if (System.getenv("LATENCY_TARGET_MS") != null) {
+        return Long.parseLong(System.getenv("LATENCY_TARGET_MS"));
+    }
+    return 0;
+}
+
+private static int getMaxConcurrency() {
+    if (System.getenv("MAX_CONCURRENCY") != null) {
+        return Integer.parseInt(System.getenv("MAX_CONCURRENCY"));
+    }
+    return 0;
+}
+
 }
@@ -0,0 +1,357 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import edu.eci.arep.docker.annotations.Cacheable;
+import edu.eci.arep.docker.annotations.GetMapping;
+import edu.eci.arep.docker.annotations.PathVariable;
+import edu.eci.arep.docker.annotations.PostMapping;
+import edu.eci.arep.docker.annotations.PutMapping;
+import edu.eci.arep.docker.annotations.RequestBody;
+import edu.eci.arep.docker.annotations.RequestParam;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A controller method compiled once, when the services are loaded. The
+ * {@link RequestParam}, {@link PathVariable} and {@link RequestBody}
+ * metadata is read up front, along with the converter for each parameter's
+ * type, and the call itself goes
+ * through a {@link LambdaMetafactory}-generated {@link Function} or
+ * {@link Supplier} for the usual zero- and one-argument handlers, or a
+ * spreading {@link MethodHandle} otherwise, so a request does no reflection.
+ * A handler may also take the {@link HttpResponse} to stream its output, and
+ * the request body as an {@link InputStream} or {@link ByteBuffer}.
+ * <p>
+ * Path and query values convert to {@code String}, the primitives and their
+ * wrappers, and enums; values that do not convert are answered {@code 400}.
+ * A missing value takes the parameter's default if that converts too, and
+ * is otherwise {@code null}, or {@code 400} for a primitive.
+ *
+ * @author Jaider Vargas
+ */
+final class RouteInvoker {
+
+    // Where each parameter comes from.
+    private static final int QUERY = 0;
+    private static final int PATH = 1;
+    private static final int RESPONSE = 2;
+    private static final int BODY = 3;
+
+    final Method method;
+    // Set when the route is registered.
+    Metrics.Histogram latency;
+    // From @RateLimit, set when the route is registered; null when unlimited.
+    RateLimiter rateLimiter;
+    // How long responses may be reused, from @Cacheable; 0 when not cacheable.
+    final long ttlNanos;
+    // The handler returns a CompletionStage rather than a String.
+    final boolean async;
+    // From the mapping; 0 means the server default.
+    final long timeoutMs;
+    // Index of the HttpResponse parameter, or -1.
+    final int responseIndex;
+    private final Class<?>[] types;
+    private final int[] sources;
+    private final String[] names;
+    private final String[] defaults;
+    // From text for path and query parameters; null for the others.
+    private final List<Function<String, Object>> converters;
+    private final Supplier<Object> supplier;
+    private final Function<Object, Object> function;
+    private final MethodHandle spread;
+
+    @SuppressWarnings("unchecked")
+    private RouteInvoker(Method method, int[] sources, String[] names, String[] defaults,
+            List<Function<String, Object>> converters, int responseIndex, Object target) throws Throwable {
+        this.method = method;
+        this.types = method.getParameterTypes();
+        this.sources = sources;
+        this.names = names;
+        this.defaults = defaults;
+        this.converters = converters;
+        this.responseIndex = responseIndex;
+        Cacheable cacheable = method.getAnnotation(Cacheable.class);
+        ttlNanos = cacheable == null ? 0 : Math.max(0, cacheable.ttlMs()) * 1_000_000L;
+        async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+        timeoutMs = timeoutMs(method);
+        // A lookup inside the controller's class, so non-public handlers work too.
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+        MethodHandle handle = lookup.unreflect(method);
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        MethodType captured = isStatic
+                ? MethodType.methodType(Object.class)
+                : MethodType.methodType(Object.class, method.getDeclaringClass());
+        Object[] receiver = isStatic ? new Object[0] : new Object[]{target};
+        MethodType boxed = handle.type().dropParameterTypes(0, isStatic ? 0 : 1).wrap();
+
+        if (responseIndex >= 0 || method.getReturnType() == void.class) {
+            // Sink handlers always take the spreading path, which turns void into null.
+            MethodHandle bound = isStatic ? handle : handle.bindTo(target);
+            spread = bound.asSpreader(Object[].class, names.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            supplier = null;
+            function = null;
+        } else if (names.length == 0) {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    captured.changeReturnType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, boxed);
+            supplier = (Supplier<Object>) site.getTarget().invokeWithArguments(receiver);
+            function = null;
+            spread = null;
+        } else if (names.length == 1) {
+            // Unboxes a primitive parameter itself.
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    captured.changeReturnType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), handle, boxed);
+            function = (Function<Object, Object>) site.getTarget().invokeWithArguments(receiver);
+            supplier = null;
+            spread = null;
+        } else {
+            MethodHandle bound = isStatic ? handle : handle.bindTo(target);
+            spread = bound.asSpreader(Object[].class, names.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            supplier = null;
+            function = null;
+        }
+    }
+
+    /**
+     * Compiles {@code method}. Instance methods are bound to {@code target}.
+     *
+     * @throws IllegalArgumentException if a parameter is not a
+     * {@code @RequestParam} or {@code @PathVariable} of a convertible type, a
+     * {@code @RequestBody String} or {@code byte[]}, an {@link InputStream}
+     * or {@link ByteBuffer}, or the one {@link HttpResponse}; if more than
+     * one parameter takes the body; or if a {@code @Cacheable} handler does
+     * not return a {@code String} or takes the body
+     */
+    static RouteInvoker compile(Method method, Object target) {
+        Class<?>[] types = method.getParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        int[] sources = new int[types.length];
+        String[] names = new String[types.length];
+        String[] defaults = new String[types.length];
+        List<Function<String, Object>> converters = new ArrayList<>(types.length);
+        int responseIndex = -1;
+        int bodyIndex = -1;
+        for (int i = 0; i < types.length; i++) {
+            converters.add(null);
+            if (types[i] == HttpResponse.class && responseIndex < 0) {
+                sources[i] = RESPONSE;
+                names[i] = "";
+                responseIndex = i;
+                continue;
+            }
+            String defaultValue = null;
+            for (Annotation a : annotations[i]) {
+                if (a instanceof RequestParam) {
+                    names[i] = ((RequestParam) a).value();
+                    defaultValue = ((RequestParam) a).defaultValue();
+                } else if (a instanceof PathVariable) {
+                    names[i] = ((PathVariable) a).value();
+                    sources[i] = PATH;
+                } else if (a instanceof RequestBody) {
+                    names[i] = "";
+                    sources[i] = BODY;
+                }
+            }
+            if (names[i] == null && (types[i] == InputStream.class || types[i] == ByteBuffer.class)) {
+                names[i] = "";
+                sources[i] = BODY;
+            }
+            if (sources[i] == BODY) {
+                if (types[i] != String.class && types[i] != byte[].class
+                        && types[i] != InputStream.class && types[i] != ByteBuffer.class) {
+                    throw new IllegalArgumentException(method + ": the body binds to String, byte[], InputStream or ByteBuffer, not parameter " + i);
+                }
+                if (bodyIndex >= 0) {
+                    throw new IllegalArgumentException(method + ": parameters " + bodyIndex + " and " + i + " both take the body");
+                }
+                bodyIndex = i;
+                continue;
+            }
+            Function<String, Object> converter = Converters.fromString(types[i]);
+            converters.set(i, converter);
+            if (names[i] == null || converter == null) {
+                throw new IllegalArgumentException(method + ": parameter " + i
+                        + " must be a @RequestParam or @PathVariable of a primitive, wrapper, enum or String type");
+            }
+            defaults[i] = defaultValue != null && converts(converter, defaultValue) ? defaultValue : null;
+        }
+        if (method.isAnnotationPresent(Cacheable.class)
+                && (method.getReturnType() != String.class || responseIndex >= 0 || bodyIndex >= 0)) {
+            throw new IllegalArgumentException(method + ": @Cacheable handlers must return String and take no body");
+        }
+        if (responseIndex >= 0 && CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            throw new IllegalArgumentException(method + ": handlers taking the HttpResponse must write it before returning");
+        }
+        try {
+            return new RouteInvoker(method, sources, names, defaults, converters, responseIndex, target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Cannot compile " + method, t);
+        }
+    }
+
+    private static boolean converts(Function<String, Object> converter, String value) {
+        try {
+            converter.apply(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static long timeoutMs(Method method) {
+        GetMapping get = method.getAnnotation(GetMapping.class);
+        if (get != null) {
+            return get.timeoutMs();
+        }
+        PostMapping post = method.getAnnotation(PostMapping.class);
+        if (post != null) {
+            return post.timeoutMs();
+        }
+        PutMapping put = method.getAnnotation(PutMapping.class);
+        return put == null ? 0 : put.timeoutMs();
+    }
+
+    /**
+     * @return the names of the parameters bound to path variables
+     */
+    List<String> pathVariables() {
+        List<String> vars = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            if (sources[i] == PATH) {
+                vars.add(names[i]);
+            }
+        }
+        return vars;
+    }
+
+    /**
+     * Calls the handler with its parameters taken from the path, the query
+     * string and the body.
+     * Exceptions thrown by the handler propagate unchanged; values that do
+     * not convert throw a {@link HttpRequestParser.BadRequestException}.
+     */
+    Object invoke(HttpRequest req) throws Exception {
+        return invoke(req, null);
+    }
+
+    /**
+     * Like {@link #invoke(HttpRequest)}, passing {@code res} to a handler
+     * that takes the response.
+     */
+    Object invoke(HttpRequest req, HttpResponse res) throws Exception {
+        if (function != null) {
+            return function.apply(param(req, 0));
+        }
+        if (supplier != null) {
+            return supplier.get();
+        }
+        Object[] args = new Object[names.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = i == responseIndex ? res : param(req, i);
+        }
+        try {
+            return spread.invokeExact(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * @return the text the handler's parameters would be converted from:
+     * path variables, then query params with their defaults applied, in
+     * parameter order
+     */
+    String[] arguments(HttpRequest req) {
+        String[] args = new String[names.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = text(req, i);
+        }
+        return args;
+    }
+
+    /**
+     * Calls the handler with arguments resolved by {@link #arguments}.
+     */
+    Object invoke(String[] args) throws Exception {
+        if (function != null) {
+            return function.apply(convert(0, args[0]));
+        }
+        if (supplier != null) {
+            return supplier.get();
+        }
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = convert(i, args[i]);
+        }
+        try {
+            return spread.invokeExact(values);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private Object param(HttpRequest req, int i) throws IOException {
+        if (sources[i] != BODY) {
+            return convert(i, text(req, i));
+        }
+        Class<?> type = types[i];
+        if (type == InputStream.class) {
+            return Converters.stream(req.body);
+        }
+        if (type == ByteBuffer.class) {
+            return Converters.readBuffer(req.body);
+        }
+        return type == String.class ? Converters.readString(req.body) : Converters.readBytes(req.body);
+    }
+
+    private String text(HttpRequest req, int i) {
+        if (sources[i] == PATH) {
+            return req.getPathVariable(names[i]);
+        }
+        if (sources[i] != QUERY) {
+            return null;
+        }
+        String value = req.getQueryParam(names[i]);
+        return value == null ? defaults[i] : value;
+    }
+
+    private Object convert(int i, String text) throws HttpRequestParser.BadRequestException {
+        if (text == null) {
+            if (types[i].isPrimitive()) {
+                throw new HttpRequestParser.BadRequestException("Missing " + names[i], HttpServer.BAD_REQUEST);
+            }
+            return null;
+        }
+        try {
+            return converters.get(i).apply(text);
+        } catch (IllegalArgumentException e) {
+            throw new HttpRequestParser.BadRequestException("Bad value for " + names[i] + ": " + text, HttpServer.BAD_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Radix trie over route templates. A template is a path such as
+ * {@code /users/{id}/posts}, whose segments may be:
+ * <ul>
+ * <li>literal text, matched as is;</li>
+ * <li>{@code {name}}, one non-empty segment bound to a path variable;</li>
+ * <li>{@code *}, one non-empty segment, not bound;</li>
+ * <li>{@code **}, as the last segment only, whatever remains of the
+ * path.</li>
+ * </ul>
+ * Literals win over variables and variables over {@code **}, so
+ * {@code /users/me} is preferred to {@code /users/{id}} for that path. Two
+ * templates that would match exactly the same paths are rejected when the
+ * second is added.
+ * <p>
+ * Lookup walks the path once with {@link String#regionMatches}, recording
+ * variables as offsets, so its cost depends on the length of the path and
+ * not on the number of routes. The router is filled before the server starts
+ * and only read afterwards.
+ *
+ * @author Jaider Vargas
+ */
+final class Router<T> {
+
+    /**
+     * A registered template and its handler.
+     */
+    static final class Route<T> {
+
+        final String template;
+        final T handler;
+        // One entry per variable or wildcard segment, in order; null when the
+        // segment is not bound to a name.
+        final String[] variables;
+
+        Route(String template, T handler, String[] variables) {
+            this.template = template;
+            this.handler = handler;
+            this.variables = variables;
+        }
+    }
+
+    private static final class Node<T> {
+
+        private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+        String prefix;
+        // Literal children, ordered by the first char of their prefix.
+        char[] firsts = new char[0];
+        // Empty, so it holds no node of another T; copies keep its type.
+        @SuppressWarnings("unchecked")
+        Node<T>[] children = (Node<T>[]) NO_CHILDREN;
+        Node<T> variable;
+        Node<T> rest;
+        Route<T> route;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node<T> child(char c) {
+            int i = Arrays.binarySearch(firsts, c);
+            return i < 0 ? null : children[i];
+        }
+
+        void putChild(Node<T> child) {
+            char c = child.prefix.charAt(0);
+            int i = Arrays.binarySearch(firsts, c);
+            if (i >= 0) {
+                children[i] = child;
+                return;
+            }
+            i = -i - 1;
+            firsts = Arrays.copyOf(firsts, firsts.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            System.arraycopy(firsts, i, firsts, i + 1, firsts.length - i - 1);
+            System.arraycopy(children, i, children, i + 1, children.length - i - 1);
+            firsts[i] = c;
+            children[i] = child;
+        }
+    }
+
+    private final Node<T> root = new Node<>("");
+    private int maxVariables;
+    private final List<Route<T>> routes = new ArrayList<>();
+
+    /**
+     * Registers {@code template}.
+     *
+     * @throws IllegalArgumentException if the template is malformed
+     * @throws IllegalStateException if an equivalent template is already
+     * registered
+     */
+    Route<T> add(String template, T handler) {
+        if (template.isEmpty() || template.charAt(0) != '/') {
+            throw new IllegalArgumentException("Route must start with '/': " + template);
+        }
+        Node<T> node = root;
+        List<String> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < template.length()) {
+            int end = template.indexOf('/', pos + 1);
+            if (end < 0) {
+                end = template.length();
+            }
+            // pos is at the '/' opening the segment [pos + 1, end)
+            String segment = template.substring(pos + 1, end);
+            if (segment.equals("**")) {
+                if (end != template.length()) {
+                    throw new IllegalArgumentException("'**' must be the last segment: " + template);
+                }
+                literal.append('/');
+                node = insertLiteral(node, literal.toString());
+                literal.setLength(0);
+                if (node.rest == null) {
+                    node.rest = new Node<>("");
+                }
+                node = node.rest;
+                variables.add(null);
+            } else if (segment.equals("*") || segment.startsWith("{")) {
+                String name = null;
+                if (!segment.equals("*")) {
+                    if (!segment.endsWith("}") || segment.length() < 3 || segment.indexOf('{', 1) >= 0) {
+                        throw new IllegalArgumentException("Bad path variable '" + segment + "' in " + template);
+                    }
+                    name = segment.substring(1, segment.length() - 1);
+                    if (variables.contains(name)) {
+                        throw new IllegalArgumentException("Duplicate path variable '" + name + "' in " + template);
+                    }
+                }
+                literal.append('/');
+                node = insertLiteral(node, literal.toString());
+                literal.setLength(0);
+                if (node.variable == null) {
+                    node.variable = new Node<>("");
+                }
+                node = node.variable;
+                variables.add(name);
+            } else {
+                if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 || segment.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("Path variables and wildcards must be whole segments: " + template);
+                }
+                literal.append('/').append(segment);
+            }
+            pos = end;
+        }
+        node = insertLiteral(node, literal.toString());
+        if (node.route != null) {
+            throw new IllegalStateException("Route " + template + " conflicts with " + node.route.template);
+        }
+        node.route = new Route<>(template, handler, variables.toArray(new String[0]));
+        maxVariables = Math.max(maxVariables, variables.size());
+        routes.add(node.route);
+        return node.route;
+    }
+
+    private Node<T> insertLiteral(Node<T> node, String s) {
+        int pos = 0;
+        while (pos < s.length()) {
+            Node<T> child = node.child(s.charAt(pos));
+            if (child == null) {
+                child = new Node<>(s.substring(pos));
+                node.putChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(child.prefix.length(), s.length() - pos);
+            while (common < max && child.prefix.charAt(common) == s.charAt(pos + common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                Node<T> split = new Node<>(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.putChild(child);
+                node.putChild(split);
+                child = split;
+            }
+            node = child;
+            pos += common;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the route for {@code path.substring(from)}. On a match
+     * {@code bounds} holds the start and end offsets in {@code path} of each
+     * of the route's variables.
+     *
+     * @param bounds at least {@code 2 * maxVariables()} long
+     * @return the route, or {@code null} if none matches
+     */
+    Route<T> find(String path, int from, int[] bounds) {
+        Node<T> node = match(root, path, from, bounds, 0);
+        return node == null ? null : node.route;
+    }
+
+    private Node<T> match(Node<T> node, String path, int pos, int[] bounds, int v) {
+        if (pos == path.length() && node.route != null) {
+            return node;
+        }
+        if (pos < path.length()) {
+            Node<T> child = node.child(path.charAt(pos));
+            if (child != null && path.regionMatches(pos, child.prefix, 0, child.prefix.length())) {
+                Node<T> found = match(child, path, pos + child.prefix.length(), bounds, v);
+                if (found != null) {
+                    return found;
+                }
+            }
+            if (node.variable != null) {
+                int end = path.indexOf('/', pos);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > pos) {
+                    Node<T> found = match(node.variable, path, end, bounds, v + 1);
+                    if (found != null) {
+                        bounds[2 * v] = pos;
+                        bounds[2 * v + 1] = end;
+                        return found;
+                    }
+                }
+            }
+        }
+        if (node.rest != null && node.rest.route != null) {
+            bounds[2 * v] = pos;
+            bounds[2 * v + 1] = path.length();
+            return node.rest;
+        }
+        return null;
+    }
+
+    /**
+     * @return the most variables and wildcards any route has
+     */
+    int maxVariables() {
+        return maxVariables;
+    }
+
+    int size() {
+        return routes.size();
+    }
+
+    /**
+     * @return every registered route, in the order they were added
+     */
+    List<Route<T>> routes() {
+        return routes;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered output of a blocking connection. Writes are gathered in a pooled
+ * direct buffer and written to the channel from there, without the JDK's
+ * copy of heap arrays into a temporary direct buffer. Large files bypass the
+ * buffer and go straight from the page cache to the socket with
+ * {@link FileChannel#transferTo}, which the JDK maps to {@code sendfile}.
+ * Closing returns the buffer to the pool and leaves the socket open.
+ * <p>
+ * Over TLS the buffer is encrypted on each drain, and files are copied
+ * through it since the kernel cannot encrypt them.
+ * <p>
+ * No socket timeout applies to writes, so {@link #stalledSince()} tells the
+ * connection's write deadline whether one is stuck.
+ *
+ * @author Jaider Vargas
+ */
+final class SocketOutputStream extends OutputStream implements ZeroCopyOutput {
+
+    private final SocketChannel channel;
+    private final TlsConnection tls;
+    private ByteBuffer buf;
+    private final ByteBuffer[] wrapped = new ByteBuffer[1];
+    // While a write is under way, when it last made progress; 0 otherwise.
+    private volatile long progress;
+
+    /**
+     * @param socket an accepted socket of a {@code ServerSocketChannel}
+     * @param tls the connection's TLS session, or {@code null} for plain
+     * text
+     */
+    SocketOutputStream(Socket socket, TlsConnection tls) {
+        this.channel = socket.getChannel();
+        if (channel == null) {
+            throw new IllegalArgumentException("Socket has no channel");
+        }
+        this.tls = tls;
+        buf = BufferPool.OUTPUT.acquire();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buf.hasRemaining()) {
+            drain();
+        }
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Writes whatever is buffered, then all of {@code src}, which is left
+     * for the caller to recycle.
+     */
+    void write(ByteBuffer src) throws IOException {
+        drain();
+        progress = System.currentTimeMillis();
+        try {
+            if (tls != null) {
+                wrapped[0] = src;
+                tls.write(wrapped, channel);
+                return;
+            }
+            while (src.hasRemaining()) {
+                Metrics.bytesOut.add(channel.write(src));
+                progress = System.currentTimeMillis();
+            }
+        } finally {
+            progress = 0;
+        }
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        progress = System.currentTimeMillis();
+        try {
+            if (tls != null) {
+                wrapped[0] = buf;
+                tls.write(wrapped, channel);
+            }
+            while (buf.hasRemaining()) {
+                Metrics.bytesOut.add(channel.write(buf));
+                progress = System.currentTimeMillis();
+            }
+        } finally {
+            progress = 0;
+        }
+        buf.clear();
+    }
+
+    /**
+     * @return when the write now under way last made progress, or {@code 0}
+     * if none is
+     */
+    long stalledSince() {
+        return progress;
+    }
+
+    @Override
+    public void writeFile(StaticFileCache.Entry file, long position, long count) throws IOException {
+        if (tls != null) {
+            file.copyTo(this, position, count);
+            return;
+        }
+        flush();
+        progress = System.currentTimeMillis();
+        try (FileChannel fc = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            while (count > 0) {
+                long n = fc.transferTo(position, count, channel);
+                if (n <= 0) {
+                    throw new IOException("Could not send " + file.path);
+                }
+                Metrics.bytesOut.add(n);
+                progress = System.currentTimeMillis();
+                position += n;
+                count -= n;
+            }
+        } finally {
+            progress = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buf == null) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            BufferPool.OUTPUT.release(buf);
+            buf = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the server's listening and accepted sockets are set up, shared by
+ * both I/O modes.
+ * <p>
+ * Several listeners can be bound to the same port with
+ * {@code SO_REUSEPORT}; the kernel then spreads new connections over them,
+ * so each acceptor has its own accept queue instead of all of them
+ * contending for one.
+ *
+ * @author Jaider Vargas
+ */
+final class SocketSettings {
+
+    final int backlog;
+    final boolean tcpNoDelay;
+    final int receiveBuffer;
+    final int sendBuffer;
+
+    /**
+     * @param backlog length of each listener's accept queue; {@code 0} for
+     * the JDK default
+     * @param receiveBuffer {@code SO_RCVBUF} in bytes, or {@code 0} for the
+     * OS default
+     * @param sendBuffer {@code SO_SNDBUF} in bytes, or {@code 0} for the OS
+     * default
+     */
+    SocketSettings(int backlog, boolean tcpNoDelay, int receiveBuffer, int sendBuffer) {
+        this.backlog = backlog;
+        this.tcpNoDelay = tcpNoDelay;
+        this.receiveBuffer = receiveBuffer;
+        this.sendBuffer = sendBuffer;
+    }
+
+    /**
+     * Binds {@code count} listeners to {@code port}. Where
+     * {@code SO_REUSEPORT} is not available only one is bound, and the
+     * caller shares it.
+     */
+    List<ServerSocketChannel> listen(int port, int count) throws IOException {
+        List<ServerSocketChannel> listeners = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel listener = ServerSocketChannel.open();
+                listeners.add(listener);
+                if (count > 1) {
+                    if (!listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        System.err.println("SO_REUSEPORT is not supported here, sharing one listener");
+                        count = 1;
+                    } else {
+                        listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    }
+                }
+                // Accepted sockets inherit it, and windows over 64 KB must be set before the handshake.
+                if (receiveBuffer > 0) {
+                    listener.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+                }
+                listener.bind(new InetSocketAddress(port), backlog);
+            }
+            return listeners;
+        } catch (IOException e) {
+            for (ServerSocketChannel listener : listeners) {
+                listener.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the per-connection options to an accepted socket.
+     */
+    void configure(NetworkChannel socket) throws IOException {
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if (sendBuffer > 0) {
+            socket.setOption(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+        }
+    }
+}
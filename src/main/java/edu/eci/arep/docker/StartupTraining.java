@@ -0,0 +1,127 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Training run for the AppCDS archive built with the container image. It
+ * starts the server as {@link RestServiceApplication} does, requests every
+ * route and static file in the ways clients do (compressed, conditional,
+ * ranged, over HTTP/2), then stops, so a JVM started with
+ * {@code -XX:ArchiveClassesAtExit} archives the classes a real server loads:
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=app.jsa -cp app.jar edu.eci.arep.docker.StartupTraining
+ * java -XX:SharedArchiveFile=app.jsa -cp app.jar edu.eci.arep.docker.RestServiceApplication
+ * </pre>
+ *
+ * @author Jaider Vargas
+ */
+public final class StartupTraining {
+
+    private StartupTraining() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Thread server = new Thread(() -> {
+            try {
+                RestServiceApplication.main(args);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "training-server");
+        server.setDaemon(true);
+        server.start();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!HttpServer.isListening()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("The server did not start");
+            }
+            Thread.sleep(10);
+        }
+
+        String base = "http://localhost:" + HttpServer.port();
+        HttpClient http1 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        HttpClient http2 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        long start = System.nanoTime();
+        int requests = 0;
+        int failures = 0;
+        List<String> paths = new ArrayList<>(staticFiles());
+        for (String template : HttpServer.routeTemplates()) {
+            paths.add("/app" + template.replaceAll("\\{[^}/]+}", "1").replace("/**", "").replace("*", "1"));
+        }
+        paths.add("/metrics");
+        paths.add("/no-such-file.html");
+        for (String path : paths) {
+            URI uri = URI.create(base + path);
+            List<HttpRequest> variants = List.of(
+                    HttpRequest.newBuilder(uri).build(),
+                    HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").build(),
+                    HttpRequest.newBuilder(uri).header("Accept-Encoding", "deflate").build(),
+                    HttpRequest.newBuilder(uri).header("Range", "bytes=0-0").build(),
+                    HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build());
+            for (HttpRequest request : variants) {
+                requests++;
+                try {
+                    HttpResponse<byte[]> response = http1.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                    Optional<String> etag = response.headers().firstValue("etag");
+                    if (etag.isPresent()) {
+                        requests++;
+                        http1.send(HttpRequest.newBuilder(uri).header("If-None-Match", etag.get()).build(),
+                                HttpResponse.BodyHandlers.discarding());
+                    }
+                } catch (IOException e) {
+                    failures++;
+                }
+            }
+            requests++;
+            try {
+                http2.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding());
+            } catch (IOException e) {
+                failures++;
+            }
+        }
+        System.out.printf("Training run: %d requests, %d failed, in %d ms; first response %d ms after JVM start%n",
+                requests, failures, (System.nanoTime() - start) / 1_000_000, Metrics.firstResponseMillis());
+        HttpServer.stop();
+        System.exit(0);
+    }
+
+    /**
+     * @return the request path of every file under the static folder
+     */
+    private static List<String> staticFiles() throws IOException, URISyntaxException {
+        String folder = HttpServer.staticFolder();
+        URL url = Thread.currentThread().getContextClassLoader().getResource(folder);
+        Path root = url != null && "file".equals(url.getProtocol())
+                ? Paths.get(url.toURI())
+                : StaticFileCache.CONTAINER_ROOT.resolve(folder);
+        List<String> paths = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return paths;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile)
+                    .forEach(f -> paths.add("/" + root.relativize(f).toString().replace('\\', '/')));
+        }
+        return paths;
+    }
+}
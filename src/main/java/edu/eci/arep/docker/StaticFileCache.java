@@ -0,0 +1,535 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Bounded in-memory cache of static resources. Each entry keeps the file
+ * bytes together with pre-encoded {@code 200} and {@code 304} heads, so a hit
+ * neither touches the class loader nor the disk. Lookups are lock-free; when
+ * the byte or entry budget is exceeded the least recently used entries go.
+ * Files above the per-entry limit only keep their metadata here and are sent
+ * zero-copy (see {@link ZeroCopyOutput}).
+ *
+ * @author Jaider Vargas
+ */
+final class StaticFileCache {
+
+    static final Path CONTAINER_ROOT = Paths.get("/usrapp/bin/classes");
+
+    private static final byte[] KEEP_ALIVE = "Connection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "Connection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * One encoding of a resource with its pre-encoded heads. The identity
+     * variant of a large file has no {@link #body}.
+     */
+    static final class Variant {
+
+        final String coding;
+        final byte[] body;
+        final String etag;
+        final long lastModified;
+        final String validators;
+        final byte[] okKeepAlive;
+        final byte[] okClose;
+        final byte[] notModifiedKeepAlive;
+        final byte[] notModifiedClose;
+
+        Variant(String coding, byte[] body, long length, String mimeType, String etag, long lastModified, boolean vary) {
+            this.coding = coding;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            validators = "ETag: " + etag + "\r\n"
+                    + "Last-Modified: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                            ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)) + "\r\n"
+                    + (vary ? "Vary: Accept-Encoding\r\n" : "");
+            String ok = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Length: " + length + "\r\n"
+                    + (coding == null ? "Accept-Ranges: bytes\r\n" : "Content-Encoding: " + coding + "\r\n")
+                    + validators;
+            String notModified = "HTTP/1.1 304 Not Modified\r\n" + validators;
+            okKeepAlive = concat(ok, KEEP_ALIVE);
+            okClose = concat(ok, CLOSE);
+            notModifiedKeepAlive = concat(notModified, KEEP_ALIVE);
+            notModifiedClose = concat(notModified, CLOSE);
+        }
+
+        byte[] okHead(HttpRequest req) {
+            return req.keepAlive ? okKeepAlive : okClose;
+        }
+
+        byte[] notModifiedHead(HttpRequest req) {
+            return req.keepAlive ? notModifiedKeepAlive : notModifiedClose;
+        }
+
+        /**
+         * Applies {@code If-None-Match}, or {@code If-Modified-Since} when no
+         * entity tag was sent.
+         */
+        boolean isNotModified(HttpRequest req) {
+            String ifNoneMatch = req.getHeader("if-none-match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
+                    }
+                    if (tag.equals("*") || tag.equals(etag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String ifModifiedSince = req.getHeader("if-modified-since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                            .toInstant().toEpochMilli();
+                    return lastModified / 1000 <= since / 1000;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        long weight() {
+            return okKeepAlive.length + okClose.length + notModifiedKeepAlive.length + notModifiedClose.length
+                    + (body == null ? 0 : body.length);
+        }
+    }
+
+    /**
+     * A resolved resource. Files larger than the per-entry limit are kept as
+     * metadata only and are sent from {@link #path} without a heap copy when
+     * the resource is a plain file. Compressible files also carry gzip and
+     * deflate variants, built once when the entry is loaded.
+     */
+    static final class Entry {
+
+        final URL url;
+        final Path path;
+        final long length;
+        final String mimeType;
+        final Variant identity;
+        final Variant gzip;
+        final Variant deflate;
+        volatile long lastAccess;
+        private volatile MappedByteBuffer mapped;
+
+        Entry(URL url, Path path, long length, String mimeType, Variant identity, Variant gzip, Variant deflate) {
+            this.url = url;
+            this.path = path;
+            this.length = length;
+            this.mimeType = mimeType;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+
+        /**
+         * The variant to send: identity for range requests, otherwise the
+         * coding the client prefers when we have it.
+         */
+        Variant select(HttpRequest req) {
+            if (gzip == null || req.getHeader("range") != null) {
+                return identity;
+            }
+            String coding = Compression.negotiate(req);
+            if (Compression.GZIP.equals(coding)) {
+                return gzip;
+            }
+            if (Compression.DEFLATE.equals(coding)) {
+                return deflate;
+            }
+            return identity;
+        }
+
+        byte[] partialHead(HttpRequest req, long first, long last) {
+            String head = "HTTP/1.1 206 Partial Content\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Length: " + (last - first + 1) + "\r\n"
+                    + "Content-Range: bytes " + first + "-" + last + "/" + length + "\r\n"
+                    + identity.validators;
+            return concat(head, req.keepAlive ? KEEP_ALIVE : CLOSE);
+        }
+
+        /**
+         * Read-only mapping of the whole file, created once and shared by every
+         * response, or {@code null} when the file cannot be mapped.
+         */
+        MappedByteBuffer mapped() throws IOException {
+            MappedByteBuffer m = mapped;
+            if (m == null && path != null && length <= Integer.MAX_VALUE) {
+                try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+                    m = fc.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                }
+                mapped = m;
+            }
+            return m;
+        }
+
+        /**
+         * Copies a byte range of the identity body through the heap; used for
+         * cached bodies and for resources that are not plain files.
+         */
+        void copyTo(OutputStream out, long position, long count) throws IOException {
+            if (identity.body != null) {
+                out.write(identity.body, (int) position, (int) count);
+                return;
+            }
+            try (InputStream is = url.openStream()) {
+                is.skipNBytes(position);
+                byte[] buf = new byte[8192];
+                while (count > 0) {
+                    int n = is.read(buf, 0, (int) Math.min(buf.length, count));
+                    if (n < 0) {
+                        throw new EOFException("Resource shorter than " + length + " bytes: " + url);
+                    }
+                    out.write(buf, 0, n);
+                    count -= n;
+                }
+            }
+        }
+
+        /**
+         * Whether a {@code Range} header may be honoured: always without
+         * {@code If-Range}, otherwise only while the validator still matches.
+         */
+        boolean rangeApplies(HttpRequest req) {
+            String ifRange = req.getHeader("if-range");
+            if (ifRange == null) {
+                return true;
+            }
+            if (ifRange.startsWith("\"")) {
+                return ifRange.equals(identity.etag);
+            }
+            try {
+                long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return identity.lastModified / 1000 == date / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        long weight() {
+            return identity.weight() + (gzip == null ? 0 : gzip.weight() + deflate.weight());
+        }
+    }
+
+    private static byte[] concat(String head, byte[] tail) {
+        byte[] start = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] all = new byte[start.length + tail.length];
+        System.arraycopy(start, 0, all, 0, start.length);
+        System.arraycopy(tail, 0, all, start.length, tail.length);
+        return all;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Cached misses, so a repeated 404 does not go back to the class loader
+    // either, each until the System.nanoTime() it holds. They are short
+    // lived, so a file added later is found without the watcher too.
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    static final long MISSING_TTL_MS = 1000;
+    private final AtomicLong size = new AtomicLong();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long maxEntryBytes;
+    private volatile WatchService watcher;
+
+    StaticFileCache(long maxBytes, int maxEntries, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * @return the entry for {@code resourcePath}, loading it on a miss, or
+     * {@code null} if there is no such resource
+     */
+    Entry get(String resourcePath) throws IOException {
+        Entry entry = entries.get(resourcePath);
+        if (entry == null) {
+            Long until = missing.get(resourcePath);
+            if (until != null && until - System.nanoTime() > 0) {
+                hits.increment();
+                return null;
+            }
+            misses.increment();
+            entry = load(resourcePath);
+            if (entry == null) {
+                rememberMissing(resourcePath);
+                return null;
+            }
+            if (until != null) {
+                missing.remove(resourcePath);
+            }
+            put(resourcePath, entry);
+        } else {
+            hits.increment();
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry;
+    }
+
+    private void rememberMissing(String resourcePath) {
+        long now = System.nanoTime();
+        if (missing.size() >= maxEntries) {
+            missing.values().removeIf(until -> until - now <= 0);
+        }
+        if (missing.size() < maxEntries) {
+            missing.put(resourcePath, now + TimeUnit.MILLISECONDS.toNanos(MISSING_TTL_MS));
+        }
+    }
+
+    void invalidate(String resourcePath) {
+        missing.remove(resourcePath);
+        Entry old = entries.remove(resourcePath);
+        if (old != null) {
+            size.addAndGet(-old.weight());
+        }
+    }
+
+    long bytes() {
+        return size.get();
+    }
+
+    int entryCount() {
+        return entries.size();
+    }
+
+    void clear() {
+        missing.clear();
+        for (String key : new ArrayList<>(entries.keySet())) {
+            invalidate(key);
+        }
+    }
+
+    private void put(String resourcePath, Entry entry) {
+        Entry old = entries.put(resourcePath, entry);
+        size.addAndGet(entry.weight() - (old == null ? 0 : old.weight()));
+        while (size.get() > maxBytes || entries.size() > maxEntries) {
+            // Budgets are small enough that a scan for the oldest entry is cheap.
+            String eldest = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().lastAccess < oldest) {
+                    oldest = e.getValue().lastAccess;
+                    eldest = e.getKey();
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            invalidate(eldest);
+        }
+    }
+
+    private Entry load(String resourcePath) throws IOException {
+        URL url = resolve(resourcePath);
+        if (url == null) {
+            return null;
+        }
+        URLConnection conn = url.openConnection();
+        long lastModified = conn.getLastModified();
+        if (lastModified <= 0) {
+            lastModified = System.currentTimeMillis();
+        }
+        long length = conn.getContentLengthLong();
+        String mime = HttpServer.getMymeType(resourcePath);
+        Path path = null;
+        if ("file".equals(url.getProtocol())) {
+            try {
+                path = Paths.get(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+            }
+        }
+        if (length > maxEntryBytes) {
+            conn.getInputStream().close();
+            String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            Variant identity = new Variant(null, null, length, mime, etag, lastModified, false);
+            return new Entry(url, path, length, mime, identity, null, null);
+        }
+        byte[] body;
+        try (InputStream is = conn.getInputStream()) {
+            body = is.readAllBytes();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        String etag = Long.toHexString(body.length) + "-" + Long.toHexString(crc.getValue());
+        int minSize = HttpServer.compressionMinSize();
+        if (minSize < 0 || body.length < minSize || !Compression.isCompressible(mime)) {
+            Variant identity = new Variant(null, body, body.length, mime, "\"" + etag + "\"", lastModified, false);
+            return new Entry(url, path, body.length, mime, identity, null, null);
+        }
+        // A precompressed sibling (styles.css.gz) wins over compressing here.
+        byte[] gzipped = null;
+        URL precompressed = resolve(resourcePath + ".gz");
+        if (precompressed != null) {
+            try (InputStream is = precompressed.openStream()) {
+                gzipped = is.readAllBytes();
+            }
+        }
+        if (gzipped == null) {
+            gzipped = Compression.encode(Compression.GZIP, body);
+        }
+        byte[] deflated = Compression.encode(Compression.DEFLATE, body);
+        return new Entry(url, path, body.length, mime,
+                new Variant(null, body, body.length, mime, "\"" + etag + "\"", lastModified, true),
+                new Variant(Compression.GZIP, gzipped, gzipped.length, mime, "\"" + etag + "-gz\"", lastModified, true),
+                new Variant(Compression.DEFLATE, deflated, deflated.length, mime, "\"" + etag + "-df\"", lastModified, true));
+    }
+
+    /**
+     * Class path first, then the exploded classes directory of the container
+     * image.
+     */
+    private static URL resolve(String resourcePath) throws IOException {
+        for (String segment : resourcePath.split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+        }
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl == null) {
+            cl = HttpServer.class.getClassLoader();
+        }
+        URL url = cl.getResource(resourcePath);
+        if (url == null) {
+            url = cl.getResource("/" + resourcePath);
+        }
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                if (Files.isDirectory(Paths.get(url.toURI()))) {
+                    return null;
+                }
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+            }
+        }
+        if (url == null) {
+            Path abs = CONTAINER_ROOT.resolve(resourcePath).normalize();
+            if (abs.startsWith(CONTAINER_ROOT) && Files.exists(abs) && !Files.isDirectory(abs)) {
+                url = abs.toUri().toURL();
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Watches the directories backing {@code folder} and drops entries for
+     * files that change, so edits show up without a restart. Only folders on
+     * the file system can be watched; resources inside a jar never change.
+     */
+    void watch(String folder) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl == null) {
+            cl = HttpServer.class.getClassLoader();
+        }
+        URL url = cl.getResource(folder);
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                roots.add(Paths.get(url.toURI()));
+            } catch (URISyntaxException ignored) {
+            }
+        }
+        Path container = CONTAINER_ROOT.resolve(folder);
+        if (Files.isDirectory(container)) {
+            roots.add(container);
+        }
+        if (roots.isEmpty()) {
+            return;
+        }
+        WatchService ws = FileSystems.getDefault().newWatchService();
+        Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+        for (Path root : roots) {
+            try (Stream<Path> tree = Files.walk(root)) {
+                for (Path dir : (Iterable<Path>) tree.filter(Files::isDirectory)::iterator) {
+                    dirs.put(dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                }
+            }
+        }
+        watcher = ws;
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = ws.take();
+                    Path dir = dirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                            clear();
+                            continue;
+                        }
+                        Path changed = dir.resolve((Path) event.context());
+                        for (Path root : roots) {
+                            if (changed.startsWith(root)) {
+                                String rel = root.relativize(changed).toString().replace('\\', '/');
+                                if (rel.endsWith(".gz")) {
+                                    rel = rel.substring(0, rel.length() - 3);
+                                }
+                                invalidate(folder.isEmpty() ? rel : folder + "/" + rel);
+                            }
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stopped
+            }
+        }, "static-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void close() {
+        WatchService ws = watcher;
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
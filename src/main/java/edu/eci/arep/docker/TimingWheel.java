@@ -0,0 +1,167 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+/**
+ * A hashed timing wheel: deadlines are hashed by tick into a ring of slots,
+ * each a doubly linked list, so scheduling and cancelling are O(1) and
+ * advancing the clock only looks at the slots of the ticks that passed.
+ * Deadlines further away than one turn of the ring wait in their slot for
+ * the turns in between. Timeouts are the list nodes themselves, so
+ * nothing is allocated per deadline.
+ * <p>
+ * Pushing a deadline later, which happens on every read or write that makes
+ * progress, only stores the new time: the timeout is moved to its new slot
+ * when its old one comes round. The wheel is not thread safe; its owner
+ * confines it to one thread or locks around it.
+ *
+ * @author Jaider Vargas
+ */
+final class TimingWheel {
+
+    /**
+     * Something with a deadline, scheduled on at most one wheel.
+     */
+    abstract static class Timeout {
+
+        // Milliseconds; written by other threads through postpone().
+        private volatile long deadline;
+        private Timeout prev;
+        private Timeout next;
+        // Index in the ring, or -1 when not scheduled.
+        private int slot = -1;
+
+        /**
+         * Called by {@link #advance(long)} once the deadline has passed and
+         * the timeout is no longer scheduled. It may schedule itself again,
+         * but must not cancel other timeouts of the same wheel.
+         */
+        abstract void expire(long now);
+
+        /**
+         * Moves a scheduled deadline later, without touching the wheel.
+         */
+        final void postpone(long deadline) {
+            if (deadline > this.deadline) {
+                this.deadline = deadline;
+            }
+        }
+
+        final long deadline() {
+            return deadline;
+        }
+
+        final boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[] slots;
+    private final int mask;
+    // The last tick advance() went through.
+    private long tick;
+    private int size;
+
+    /**
+     * @param slotCount rounded up to a power of two
+     */
+    TimingWheel(long tickMillis, int slotCount, long now) {
+        this.tickMillis = tickMillis;
+        int n = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.slots = new Timeout[n];
+        this.mask = n - 1;
+        this.tick = now / tickMillis;
+    }
+
+    long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedules {@code t} for {@code deadline}, replacing any earlier
+     * schedule.
+     */
+    void schedule(Timeout t, long deadline) {
+        cancel(t);
+        t.deadline = deadline;
+        link(t);
+    }
+
+    void cancel(Timeout t) {
+        if (t.slot < 0) {
+            return;
+        }
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            slots[t.slot] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.slot = -1;
+        size--;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Expires every timeout whose deadline is at or before {@code now}.
+     */
+    void advance(long now) {
+        long target = now / tickMillis;
+        // After a long pause every slot is due once; more turns would add nothing.
+        long from = Math.max(tick + 1, target - slots.length + 1);
+        for (long k = from; k <= target; k++) {
+            int index = (int) (k & mask);
+            Timeout t = slots[index];
+            while (t != null) {
+                Timeout next = t.next;
+                long deadline = t.deadline;
+                if (deadline <= now) {
+                    cancel(t);
+                    t.expire(now);
+                } else if (slotOf(deadline) != index) {
+                    // Postponed since it was linked here.
+                    cancel(t);
+                    link(t);
+                }
+                t = next;
+            }
+        }
+        tick = Math.max(tick, target);
+    }
+
+    private void link(Timeout t) {
+        // A deadline whose tick has been passed goes in the next slot to be visited.
+        long k = tickOf(t.deadline);
+        int index = (int) ((k <= tick ? tick + 1 : k) & mask);
+        t.slot = index;
+        t.prev = null;
+        t.next = slots[index];
+        if (t.next != null) {
+            t.next.prev = t;
+        }
+        slots[index] = t;
+        size++;
+    }
+
+    private int slotOf(long deadline) {
+        return (int) (tickOf(deadline) & mask);
+    }
+
+    /**
+     * The first tick at or after {@code deadline}, so a timeout is never
+     * visited before it is due.
+     */
+    private long tickOf(long deadline) {
+        return (deadline + tickMillis - 1) / tickMillis;
+    }
+}
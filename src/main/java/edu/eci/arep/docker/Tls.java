@@ -0,0 +1,100 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Server-side TLS settings: the {@link SSLContext} built from a key store,
+ * the allowed protocols and cipher suites, the ALPN protocols offered and
+ * the session cache. One instance is shared by every connection.
+ *
+ * @author Jaider Vargas
+ */
+final class Tls {
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final String[] applicationProtocols;
+
+    /**
+     * @param protocols enabled protocol versions, or {@code null} for the
+     * JDK defaults
+     * @param cipherSuites enabled suites in order of preference, or
+     * {@code null} for the JDK defaults
+     * @param applicationProtocols ALPN protocols in order of preference
+     * @param sessionCacheSize sessions kept for resumption by session ID;
+     * 0 means no limit
+     * @param sessionTimeoutSeconds how long a session can be resumed
+     */
+    Tls(Path keyStore, char[] password, String storeType, String[] protocols, String[] cipherSuites,
+            String[] applicationProtocols, int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance(storeType);
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            ks.load(in, password);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password);
+        context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.applicationProtocols = applicationProtocols;
+    }
+
+    /**
+     * Turns the stateless session tickets of TLS 1.2 and 1.3 on or off. The
+     * JDK reads this once, so it must be called before the first
+     * {@link SSLContext} is created.
+     */
+    static void sessionTickets(boolean enabled) {
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", Boolean.toString(enabled));
+    }
+
+    SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters params = engine.getSSLParameters();
+        if (protocols != null) {
+            params.setProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            params.setCipherSuites(cipherSuites);
+        }
+        params.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(params);
+        engine.setHandshakeApplicationProtocolSelector((e, offered) -> select(offered));
+        return engine;
+    }
+
+    /**
+     * @return our most preferred protocol that the client offered, or
+     * {@code null} to leave ALPN out rather than fail the handshake
+     */
+    private String select(List<String> offered) {
+        for (String p : applicationProtocols) {
+            if (offered.contains(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+}
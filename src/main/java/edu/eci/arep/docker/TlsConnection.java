@@ -0,0 +1,229 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * The {@link SSLEngine} of one connection with its buffers. The record
+ * layer is driven by the caller, so the same code serves the blocking
+ * streams below and the non-blocking {@link NioServer}:
+ * <ul>
+ * <li>network bytes are read into {@link #netIn} and {@link #unwrap}
+ * decrypts them into {@link #appIn};</li>
+ * <li>{@link #wrap} encrypts plaintext into {@link #netOut}, which the caller
+ * writes to the socket. Handshake messages come out the same way whenever
+ * {@link #needsWrap} is true.</li>
+ * </ul>
+ * Handshake tasks run on the calling thread. The blocking helpers lock the
+ * connection while they use {@link #netOut}, so one thread may read while
+ * others write, as HTTP/2 streams do.
+ *
+ * @author Jaider Vargas
+ */
+final class TlsConnection {
+
+    private static final ByteBuffer[] NOTHING = {ByteBuffer.allocate(0)};
+
+    final SSLEngine engine;
+    /** Received records, in write mode. */
+    final ByteBuffer netIn;
+    /** Decrypted bytes not yet taken, in write mode. */
+    final ByteBuffer appIn;
+    /** Records to send, in read mode. */
+    final ByteBuffer netOut;
+
+    TlsConnection(SSLEngine engine) {
+        this.engine = engine;
+        int packet = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packet);
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        netOut = ByteBuffer.allocate(packet).flip();
+    }
+
+    /**
+     * Decrypts as many whole records from {@link #netIn} as fit in
+     * {@link #appIn}.
+     *
+     * @return {@code false} once the peer has closed the session
+     */
+    boolean unwrap() throws SSLException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult r = engine.unwrap(netIn, appIn);
+                runTasks();
+                if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return false;
+                }
+                // Underflow: a partial record; overflow: appIn is full.
+                if (r.getStatus() != SSLEngineResult.Status.OK
+                        || (r.bytesConsumed() == 0 && r.bytesProduced() == 0)) {
+                    break;
+                }
+            }
+            return true;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    /**
+     * Encrypts as much of {@code srcs} as fits in {@link #netOut}, which the
+     * caller must have written out first; with no sources, produces pending
+     * handshake messages.
+     *
+     * @return plaintext bytes consumed
+     */
+    long wrap(ByteBuffer[] srcs, int offset, int length) throws SSLException {
+        netOut.compact();
+        long consumed = 0;
+        try {
+            while (true) {
+                SSLEngineResult r = engine.wrap(srcs, offset, length, netOut);
+                runTasks();
+                consumed += r.bytesConsumed();
+                if (r.getStatus() != SSLEngineResult.Status.OK
+                        || (r.bytesConsumed() == 0 && r.bytesProduced() == 0)) {
+                    return consumed;
+                }
+            }
+        } finally {
+            netOut.flip();
+        }
+    }
+
+    /**
+     * Produces pending handshake messages into {@link #netOut}.
+     */
+    void wrapHandshake() throws SSLException {
+        wrap(NOTHING, 0, 1);
+    }
+
+    boolean needsWrap() {
+        return engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+    }
+
+    /**
+     * Moves decrypted bytes into {@code dst}.
+     *
+     * @return bytes moved
+     */
+    int transferTo(ByteBuffer dst) {
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return n;
+    }
+
+    /**
+     * Blocking: writes {@link #netOut} and any handshake messages due.
+     */
+    synchronized void flush(WritableByteChannel out) throws IOException {
+        while (true) {
+            while (netOut.hasRemaining()) {
+                Metrics.bytesOut.add(out.write(netOut));
+            }
+            if (!needsWrap()) {
+                return;
+            }
+            wrapHandshake();
+        }
+    }
+
+    /**
+     * Blocking: encrypts and writes all of {@code src}.
+     *
+     * @throws SSLException if the engine cannot take it, as before the
+     * handshake or after the client closed
+     */
+    synchronized void write(ByteBuffer[] src, WritableByteChannel out) throws IOException {
+        while (src[0].hasRemaining()) {
+            if (wrap(src, 0, 1) == 0 && !netOut.hasRemaining()) {
+                throw new SSLException("Cannot encrypt while " + engine.getHandshakeStatus());
+            }
+            flush(out);
+        }
+    }
+
+    /**
+     * Sends {@code close_notify}, best effort.
+     */
+    synchronized void close(WritableByteChannel out) {
+        engine.closeOutbound();
+        try {
+            wrapHandshake();
+            Metrics.bytesOut.add(out.write(netOut));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Blocking: the decrypted stream read from {@code raw}, which keeps the
+     * socket's read timeout. Handshake replies go to {@code out}.
+     */
+    InputStream input(InputStream raw, WritableByteChannel out) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (true) {
+                    if (appIn.position() > 0) {
+                        appIn.flip();
+                        int n = Math.min(len, appIn.remaining());
+                        appIn.get(b, off, n);
+                        appIn.compact();
+                        return n;
+                    }
+                    if (!unwrap()) {
+                        return -1;
+                    }
+                    if (needsWrap()) {
+                        flush(out);
+                        continue;
+                    }
+                    if (appIn.position() > 0) {
+                        continue;
+                    }
+                    int n = raw.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+                    if (n < 0) {
+                        return -1;
+                    }
+                    netIn.position(netIn.position() + n);
+                }
+            }
+
+            @Override
+            public int available() {
+                return appIn.position();
+            }
+        };
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
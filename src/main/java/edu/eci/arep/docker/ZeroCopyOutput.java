@@ -0,0 +1,22 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+
+/**
+ * A response stream that can send part of a file without copying it through
+ * the Java heap.
+ *
+ * @author Jaider Vargas
+ */
+interface ZeroCopyOutput {
+
+    /**
+     * Writes {@code count} bytes of {@code file} starting at {@code position},
+     * after anything already written to the stream.
+     */
+    void writeFile(StaticFileCache.Entry file, long position, long count) throws IOException;
+}
@@ -17,4 +17,10 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 public @interface GetMapping {
     public String value();
+    /**
+     * For handlers returning a {@code CompletionStage}: how long to wait for
+     * the result before answering {@code 504}, in milliseconds; 0 uses the
+     * server default.
+     */
+    public long timeoutMs() default 0;
 }
@@ -0,0 +1,29 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package edu.eci.arep.docker.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps {@code POST} requests for a route to the handler. The request body is
+ * bound to a {@link RequestBody} parameter, or to an {@code InputStream} or
+ * {@code ByteBuffer} one; path and query values as with {@link GetMapping}.
+ *
+ * @author Jaider Vargas
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PostMapping {
+    public String value();
+    /**
+     * For handlers returning a {@code CompletionStage}: how long to wait for
+     * the result before answering {@code 504}, in milliseconds; 0 uses the
+     * server default.
+     */
+    public long timeoutMs() default 0;
+}
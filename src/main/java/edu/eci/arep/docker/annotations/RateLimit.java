@@ -0,0 +1,26 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package edu.eci.arep.docker.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits how often each client address may call a {@link GetMapping}
+ * handler. Requests over the limit are answered {@code 429} without running
+ * it. This applies on top of the server-wide limit per client.
+ *
+ * @author Jaider Vargas
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RateLimit {
+    /** Requests each client may make per second, on average. */
+    public double perSecond();
+    /** Requests a client may make at once after being idle. */
+    public int burst() default 1;
+}
@@ -0,0 +1,24 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package edu.eci.arep.docker.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a {@code String} (decoded as UTF-8) or {@code byte[]} parameter to
+ * the whole request body, read before the handler runs. Such bodies are held
+ * on the heap, so they are limited to 1 MB; larger ones are answered
+ * {@code 413}. An {@code InputStream} or {@code ByteBuffer} parameter takes
+ * the body without this annotation, and without that limit.
+ *
+ * @author Jaider Vargas
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RequestBody {
+}
@@ -4,7 +4,9 @@
  */
 package edu.eci.arep.docker.controller;
 
+import edu.eci.arep.docker.annotations.Cacheable;
 import edu.eci.arep.docker.annotations.GetMapping;
+import edu.eci.arep.docker.annotations.PostMapping;
 import edu.eci.arep.docker.annotations.RequestParam;
 import edu.eci.arep.docker.annotations.RestController;
 
@@ -17,7 +19,13 @@ public class HelloRestController {
 private static final String template = "Hello, %s!";
 
 @GetMapping("/greeting")
+@Cacheable(ttlMs = 60_000)
 public static String greeting(@RequestParam(value = "name", defaultValue = "World") String name) {
 return String.format(template, name);
 }
+
+@PostMapping("/hellopost")
+public static String hellopost(@RequestParam(value = "name", defaultValue = "World") String name) {
+return String.format(template, name);
+}
 }
\ No newline at end of file
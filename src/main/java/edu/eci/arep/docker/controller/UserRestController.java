@@ -0,0 +1,98 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker.controller;
+
+import edu.eci.arep.docker.annotations.GetMapping;
+import edu.eci.arep.docker.annotations.PathVariable;
+import edu.eci.arep.docker.annotations.PostMapping;
+import edu.eci.arep.docker.annotations.PutMapping;
+import edu.eci.arep.docker.annotations.RateLimit;
+import edu.eci.arep.docker.annotations.RequestBody;
+import edu.eci.arep.docker.annotations.RequestParam;
+import edu.eci.arep.docker.annotations.RestController;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Jaider Vargas
+ */
+@RestController
+public class UserRestController {
+
+@GetMapping("/users/export")
+public Stream<String> export(@RequestParam(value = "count", defaultValue = "1000") int count) {
+// Generated as it is sent, so the size does not matter.
+int n = Math.min(count, 10_000_000);
+return IntStream.rangeClosed(1, n).mapToObj(i -> "user-" + i + "\n");
+}
+
+@GetMapping("/users/search")
+@RateLimit(perSecond = 1, burst = 3)
+public String search(@RequestParam(value = "q", defaultValue = "") String q) {
+// Expensive in a real service, so each client gets a few at a time.
+return "Users matching '" + q + "': none";
+}
+
+@GetMapping("/users/me")
+public String me() {
+return "User: me";
+}
+
+@GetMapping("/users/{id}")
+public String user(@PathVariable("id") String id) {
+return "User: " + id;
+}
+
+@GetMapping(value = "/users/{id}/profile", timeoutMs = 2000)
+public CompletableFuture<String> profile(@PathVariable("id") String id) {
+// Stands in for a call to a backend; no worker waits for it.
+return CompletableFuture.supplyAsync(() -> "Profile: " + id,
+        CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+}
+
+@GetMapping("/users/{id}/posts/{post}")
+public String post(@PathVariable("id") String id, @PathVariable("post") String post,
+        @RequestParam(value = "format", defaultValue = "text") String format) {
+return "Post " + post + " by " + id + " (" + format + ")";
+}
+
+@PostMapping("/users/{id}/notes")
+public String note(@PathVariable("id") long id, @RequestParam(value = "pinned") Boolean pinned,
+        @RequestBody String text) {
+return "Note for user " + id + (Boolean.TRUE.equals(pinned) ? " (pinned)" : "") + ": " + text;
+}
+
+@PutMapping("/users/{id}/avatar")
+public String avatar(@PathVariable("id") long id, InputStream image) throws IOException {
+// Read as it arrives; an upload of any size takes a buffer's worth of heap.
+CRC32 crc = new CRC32();
+byte[] buf = new byte[8192];
+long size = 0;
+int n;
+while ((n = image.read(buf)) >= 0) {
+crc.update(buf, 0, n);
+size += n;
+}
+return "Avatar of user " + id + ": " + size + " bytes, crc " + Long.toHexString(crc.getValue());
+}
+
+@PostMapping("/users/import")
+public String importUsers(ByteBuffer csv) {
+int users = 0;
+while (csv.hasRemaining()) {
+if (csv.get() == '\n') {
+users++;
+}
+}
+return "Imported " + users + " users";
+}
+}
@@ -5,6 +5,10 @@ document.addEventListener('DOMContentLoaded', () => {
     const id = document.getElementById('userId').value.trim();
     loadGetMsg(id);
   });
+  document.getElementById('postForm').addEventListener('submit', (e) => {
+    e.preventDefault();
+    loadPostMsg(document.getElementById('postname'));
+  });
 });
 
 function loadGetMsg(id) {
@@ -33,3 +37,11 @@ function renderUserCard(user) {
   document.getElementById("u-name").textContent = user.name ?? '';
   document.getElementById("u-age").textContent  = user.age ?? '';
 }
+
+function loadPostMsg(name) {
+  const url = `/app/hellopost?name=${encodeURIComponent(name.value.trim())}`;
+  fetch(url, { method: 'POST' })
+    .then(r => { if (!r.ok) throw new Error(`Request failed (${r.status})`); return r.text(); })
+    .then(text => { document.getElementById("postrespmsg").textContent = text; })
+    .catch(err => alert("Error: " + err.message));
+}
@@ -1,13 +1,27 @@
 
 import edu.eci.arep.docker.HttpConnection;
 import edu.eci.arep.docker.RestServiceApplication;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -22,6 +36,11 @@ import org.junit.jupiter.api.Test;
  */
 public class DockerTest {
     private static Thread serverThread;
+    // The server in this JVM runs in the I/O mode IO_MODE selects; this one
+    // always runs the NIO event loops, for the tests of connection handling.
+    private static final int NIO_PORT = 9001;
+    private static final int[] PORTS = {9000, NIO_PORT};
+    private static Process nioServer;
     private static Path filesBasePath = Paths.get("src/main/resources/static").toAbsolutePath().normalize();
 
     private final HttpConnection http = new HttpConnection();
@@ -51,6 +70,49 @@ public class DockerTest {
             } catch (IOException e) { Thread.sleep(100); }
         }
         assertTrue(up, "The server is not running");
+        nioServer = startServer(NIO_PORT, "IO_MODE", "NIO");
+    }
+
+    @AfterAll
+    public static void stopServers() throws InterruptedException {
+        stopServer(nioServer);
+    }
+
+    /**
+     * Starts the application in another JVM, for settings the server in
+     * this one does not have, and waits until it accepts connections.
+     *
+     * @param env names and values of environment variables
+     */
+    private static Process startServer(int port, String... env) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), RestServiceApplication.class.getName());
+        builder.environment().put("PORT", String.valueOf(port));
+        for (int i = 0; i < env.length; i += 2) {
+            builder.environment().put(env[i], env[i + 1]);
+        }
+        Process server = builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 10_000) {
+            assertTrue(server.isAlive(), "The server on port " + port + " exited");
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return server;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        stopServer(server);
+        throw new AssertionError("The server on port " + port + " is not running");
+    }
+
+    private static void stopServer(Process server) throws InterruptedException {
+        if (server != null) {
+            server.destroy();
+            if (!server.waitFor(10, java.util.concurrent.TimeUnit.SECONDS)) {
+                server.destroyForcibly();
+            }
+        }
     }
     @Test
     public void serverIndexConnectionOK() throws IOException {
@@ -94,6 +156,67 @@ public class DockerTest {
         byte[] expected = Files.readAllBytes(filesBasePath.resolve("james.jpg"));
         assertTrue(body.length > 0 && expected.length > 0);
     }
+    @Test
+    public void staticFileRevalidationOK() throws IOException {
+        for (int port : PORTS) {
+            HttpURLConnection con = (HttpURLConnection) URI.create("http://localhost:" + port + "/styles.css").toURL().openConnection();
+            String etag = con.getHeaderField("ETag");
+            String lastModified = con.getHeaderField("Last-Modified");
+            assertTrue(etag != null && lastModified != null, "Missing validators on port " + port);
+
+            String byTag = rawRequest(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\n"
+                    + "If-None-Match: " + etag + "\r\nConnection: close\r\n\r\n");
+            assertTrue(byTag.startsWith("HTTP/1.1 304"), "Unexpected response: " + byTag);
+            String byDate = rawRequest(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\n"
+                    + "If-Modified-Since: " + lastModified + "\r\nConnection: close\r\n\r\n");
+            assertTrue(byDate.startsWith("HTTP/1.1 304"), "Unexpected response: " + byDate);
+            String stale = rawRequest(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\n"
+                    + "If-None-Match: \"stale\"\r\nConnection: close\r\n\r\n");
+            assertTrue(stale.startsWith("HTTP/1.1 200"), "Unexpected response: " + stale);
+        }
+    }
+
+    @Test
+    public void staticFileRangeOK() throws IOException {
+        byte[] expected = Files.readAllBytes(filesBasePath.resolve("james.jpg"));
+        for (int port : PORTS) {
+            byte[] partial = rawRequestBytes(port, "GET /james.jpg HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Range: bytes=0-9\r\nConnection: close\r\n\r\n");
+            String head = new String(partial, 0, headEnd(partial), StandardCharsets.US_ASCII);
+            assertTrue(head.startsWith("HTTP/1.1 206"), "Unexpected response: " + head);
+            assertTrue(head.contains("Content-Length: 10\r\n"), "Unexpected response: " + head);
+            assertTrue(head.contains("Content-Range: bytes 0-9/" + expected.length), "Unexpected response: " + head);
+            assertArrayEquals(java.util.Arrays.copyOf(expected, 10),
+                    java.util.Arrays.copyOfRange(partial, headEnd(partial), partial.length));
+
+            byte[] whole = rawRequestBytes(port, "GET /james.jpg HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            assertArrayEquals(expected, java.util.Arrays.copyOfRange(whole, headEnd(whole), whole.length), "Port " + port);
+
+            String outside = rawRequest(port, "GET /james.jpg HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Range: bytes=" + expected.length + "-\r\nConnection: close\r\n\r\n");
+            assertTrue(outside.startsWith("HTTP/1.1 416"), "Unexpected response: " + outside);
+        }
+    }
+
+    @Test
+    public void staticTextIsGzipped() throws IOException {
+        byte[] response = rawRequestBytes("GET /code.js HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept-Encoding: deflate;q=0.5, gzip\r\nConnection: close\r\n\r\n");
+        int split = headEnd(response);
+        String head = new String(response, 0, split, StandardCharsets.US_ASCII);
+        assertTrue(head.contains("Content-Encoding: gzip"), "Unexpected head: " + head);
+        byte[] body = new GZIPInputStream(new ByteArrayInputStream(response, split, response.length - split)).readAllBytes();
+        assertArrayEquals(Files.readAllBytes(filesBasePath.resolve("code.js")), body);
+    }
+
+    @Test
+    public void imagesAreNotCompressed() throws IOException {
+        byte[] response = rawRequestBytes("GET /james.jpg HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept-Encoding: gzip\r\nConnection: close\r\n\r\n");
+        String head = new String(response, 0, headEnd(response), StandardCharsets.US_ASCII);
+        assertTrue(head.startsWith("HTTP/1.1 200") && !head.contains("Content-Encoding"), "Unexpected head: " + head);
+    }
+
     @Test
     public void fileNotFound() throws IOException {
         HttpURLConnection con = http.stablishConnection("GET", "/eci.com");
@@ -123,4 +246,617 @@ public class DockerTest {
                 "Should use the provided name. Body was: " + body);
     }
 
+    @Test
+    public void greetingWithSeveralEncodedParamsOK() throws IOException {
+        String response = rawRequest("GET /app/greeting?lang=es&name=J%C3%BAlio+C%C3%A9sar HTTP/1.1\r\n"
+                + "Host: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(response.endsWith("Hello, Júlio César!"), "Unexpected response: " + response);
+    }
+
+    @Test
+    public void pathVariablesFromSecondControllerOK() throws IOException {
+        assertEquals("User: 42", http.makeRequest("GET", "/app/users/42").trim());
+        assertEquals("Post 7 by ana (json)", http.makeRequest("GET", "/app/users/ana/posts/7?format=json").trim());
+    }
+
+    @Test
+    public void asyncHandlerOK() throws IOException {
+        assertEquals("Profile: ana", http.makeRequest("GET", "/app/users/ana/profile").trim());
+    }
+
+    @Test
+    public void streamedResponseIsChunked() throws IOException {
+        String response = rawRequest("GET /app/users/export?count=3 HTTP/1.1\r\n"
+                + "Host: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(response.contains("Transfer-Encoding: chunked\r\n"), "Unexpected response: " + response);
+        assertTrue(response.endsWith("\r\n0\r\n\r\n"), "Unexpected response: " + response);
+
+        String body = http.makeRequest("GET", "/app/users/export?count=20000");
+        assertTrue(body.startsWith("user-1\nuser-2\n"));
+        assertTrue(body.endsWith("user-20000\n"));
+        assertEquals(20000, body.split("\n").length);
+
+        String badCount = rawRequest("GET /app/users/export?count=abc HTTP/1.1\r\n"
+                + "Host: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(badCount.startsWith("HTTP/1.1 400"), "Unexpected response: " + badCount);
+    }
+
+    @Test
+    public void rateLimitedRouteAnswers429() throws IOException {
+        int ok = 0;
+        int limited = 0;
+        for (int i = 0; i < 6; i++) {
+            HttpURLConnection con = http.stablishConnection("GET", "/app/users/search?q=ana");
+            int code = con.getResponseCode();
+            if (code == 200) {
+                ok++;
+            } else {
+                assertEquals(429, code);
+                assertEquals("1", con.getHeaderField("Retry-After"));
+                limited++;
+            }
+        }
+        // A burst of 3, plus at most one refilled while the loop ran.
+        assertTrue(ok >= 3 && ok <= 4, "Allowed " + ok);
+        assertTrue(limited >= 2, "Limited " + limited);
+        assertTrue(http.makeRequest("GET", "/metrics").contains("\nhttp_rate_limited_total "));
+    }
+
+    @Test
+    public void postAndPutBindTypedParamsAndBodies() throws Exception {
+        for (int port : PORTS) {
+            postAndPut(port);
+        }
+        HttpURLConnection get = http.stablishConnection("GET", "/app/hellopost");
+        assertEquals(405, get.getResponseCode());
+        assertEquals("POST", get.getHeaderField("Allow"));
+    }
+
+    private static void postAndPut(int port) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        String base = "http://localhost:" + port + "/app";
+        HttpResponse<String> hello = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/hellopost?name=Ana"))
+                .POST(java.net.http.HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals("Hello, Ana!", hello.body());
+
+        HttpResponse<String> note = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/users/7/notes?pinned=true"))
+                .POST(java.net.http.HttpRequest.BodyPublishers.ofString("café")).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals("Note for user 7 (pinned): café", note.body());
+        HttpResponse<String> badId = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/users/ana/notes"))
+                .POST(java.net.http.HttpRequest.BodyPublishers.ofString("x")).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, badId.statusCode());
+
+        // Larger than the body queue, the heap buffer limit and one HTTP/2 window.
+        byte[] image = new byte[3 << 20];
+        new java.util.Random(1).nextBytes(image);
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(image);
+        String expected = "Avatar of user 7: " + image.length + " bytes, crc " + Long.toHexString(crc.getValue());
+        for (HttpClient.Version version : HttpClient.Version.values()) {
+            HttpResponse<String> avatar = HttpClient.newBuilder().version(version).build().send(
+                    java.net.http.HttpRequest.newBuilder(URI.create(base + "/users/7/avatar"))
+                            .PUT(java.net.http.HttpRequest.BodyPublishers.ofByteArray(image)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(expected, avatar.body(), version.toString());
+        }
+
+        String csv = "id,name\n".repeat(100_000);
+        HttpResponse<String> imported = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/users/import"))
+                .POST(java.net.http.HttpRequest.BodyPublishers.ofString(csv)).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals("Imported 100000 users", imported.body());
+    }
+
+    @Test
+    public void requestBodiesAreFramedOnTheConnection() throws IOException {
+        for (int port : PORTS) {
+            String response = rawRequest(port, "POST /app/users/3/notes HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello"
+                    + "GET /app/greeting?name=Next HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            int note = response.indexOf("Note for user 3: hello");
+            assertTrue(note > 0 && response.indexOf("Hello, Next!") > note, "Unexpected response: " + response);
+
+            // Unread by the handler, so skipped before the next request.
+            response = rawRequest(port, "POST /app/hellopost?name=Skip HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello"
+                    + "GET /app/greeting?name=Next HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            int skip = response.indexOf("Hello, Skip!");
+            assertTrue(skip > 0 && response.indexOf("Hello, Next!") > skip, "Unexpected response: " + response);
+
+            response = rawRequest(port, "PUT /app/users/1/avatar HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "3\r\nabc\r\n2;ext=1\r\nde\r\n0\r\nX-Trailer: 1\r\n\r\n");
+            assertTrue(response.contains("Avatar of user 1: 5 bytes, crc 8587d865"), "Unexpected response: " + response);
+
+            response = rawRequest(port, "PUT /app/users/1/avatar HTTP/1.1\r\nHost: localhost\r\nContent-Length: 999999999999\r\n\r\n");
+            assertTrue(response.startsWith("HTTP/1.1 413"), "Unexpected response: " + response);
+        }
+    }
+
+    @Test
+    public void literalRouteWinsOverPathVariable() throws IOException {
+        assertEquals("User: me", http.makeRequest("GET", "/app/users/me").trim());
+        assertEquals(404, http.stablishConnection("GET", "/app/users/42/posts").getResponseCode());
+    }
+
+    @Test
+    public void cacheableResponseIsSharedAcrossParamOrder() throws IOException {
+        assertEquals("Hello, Ana!", http.makeRequest("GET", "/app/greeting?name=Ana&x=1").trim());
+        assertEquals("Hello, Ana!", http.makeRequest("GET", "/app/greeting?x=2&name=Ana").trim());
+        String metrics = http.makeRequest("GET", "/metrics");
+        assertFalse(metrics.contains("\nresponse_cache_hits_total 0\n"), metrics);
+        assertTrue(metrics.contains("\nresponse_cache_entries "), metrics);
+    }
+
+    @Test
+    public void loadGeneratorRecordsLatencies() throws Exception {
+        HttpConnection.LoadResult result = HttpConnection.load("/app/greeting", 2, 200, 1000);
+        assertEquals(0, result.errors);
+        assertTrue(result.latencies.count() >= 150, "Too few requests: " + result);
+        assertTrue(result.latencies.percentile(50) <= result.latencies.percentile(99.9));
+        assertTrue(result.latencies.percentile(99.9) <= result.latencies.max());
+    }
+
+    @Test
+    public void metricsEndpointOK() throws IOException {
+        http.makeRequest("GET", "/app/greeting");
+        HttpURLConnection con = http.stablishConnection("GET", "/metrics");
+        assertEquals(200, con.getResponseCode());
+        assertTrue(con.getContentType().startsWith("text/plain; version=0.0.4"));
+
+        String body = http.makeRequest("GET", "/metrics");
+        assertTrue(body.contains("\nhttp_requests_total "), body);
+        assertTrue(body.contains("http_responses_total{code=\"200\"}"), body);
+        assertTrue(body.contains("http_request_duration_seconds_count{route=\"/greeting\"}"), body);
+        assertTrue(body.contains("\nstatic_cache_hits_total "), body);
+        assertTrue(body.contains("\nhttp_shed_total "), body);
+    }
+
+    @Test
+    public void malformedRequestLineIsBadRequest() throws IOException {
+        String response = rawRequest("GET /app/greeting\r\nHost: localhost\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400"), "Unexpected response: " + response);
+    }
+
+    private static String rawRequest(String request) throws IOException {
+        return rawRequest(9000, request);
+    }
+
+    private static String rawRequest(int port, String request) throws IOException {
+        return new String(rawRequestBytes(port, request), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rawRequestBytes(String request) throws IOException {
+        return rawRequestBytes(9000, request);
+    }
+
+    private static byte[] rawRequestBytes(int port, String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            return socket.getInputStream().readAllBytes();
+        }
+    }
+
+    private static int headEnd(byte[] response) {
+        for (int i = 0; i + 3 < response.length; i++) {
+            if (response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return response.length;
+    }
+
+    // -------- Connection handling --------
+
+    @Test
+    public void pipelinedRequestsOnOneConnectionOK() throws IOException {
+        for (int port : PORTS) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                out.write(("GET /app/greeting?name=First HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /app/greeting?name=Second HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                int first = response.indexOf("Hello, First!");
+                int second = response.indexOf("Hello, Second!");
+                assertTrue(first > 0 && second > first, "Responses missing or out of order: " + response);
+                assertTrue(response.contains("Content-Length: 13"), "Missing Content-Length: " + response);
+                assertTrue(response.contains("Connection: keep-alive") && response.contains("Connection: close"));
+            }
+        }
+    }
+
+    @Test
+    public void keepAliveConnectionServesRequestsInTurn() throws IOException {
+        for (int port : PORTS) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                for (String path : List.of("/app/greeting?name=One", "/styles.css", "/app/users/7", "/james.jpg")) {
+                    socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    String head = readResponse(socket.getInputStream());
+                    assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n") && head.contains("Connection: keep-alive\r\n"),
+                            "Unexpected response on port " + port + ": " + head);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one response framed by its {@code Content-Length}, leaving the
+     * connection open.
+     *
+     * @return the head
+     */
+    private static String readResponse(java.io.InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+            int c = in.read();
+            if (c < 0) {
+                throw new java.io.EOFException("Closed after " + head);
+            }
+            head.append((char) c);
+        }
+        java.util.regex.Matcher length = java.util.regex.Pattern.compile("(?i)content-length: (\\d+)").matcher(head);
+        assertTrue(length.find(), "No Content-Length: " + head);
+        assertEquals(Integer.parseInt(length.group(1)), in.readNBytes(Integer.parseInt(length.group(1))).length);
+        return head.toString();
+    }
+
+    @Test
+    public void headResponsesHaveNoBody() throws IOException {
+        long jpg = Files.size(filesBasePath.resolve("james.jpg"));
+        // The second greeting is answered from the response cache.
+        String[][] cases = {
+            {"/app/greeting?name=Head", "", "Content-Length: 12\r\n"},
+            {"/app/greeting?name=Head", "", "Content-Length: 12\r\n"},
+            {"/app/users/export?count=3", "", "Transfer-Encoding: chunked\r\n"},
+            {"/james.jpg", "", "Content-Length: " + jpg + "\r\n"},
+            {"/james.jpg", "Range: bytes=0-9\r\n", "Content-Length: 10\r\n"},
+            {"/missing.html", "", "404 Not Found"}};
+        for (int port : PORTS) {
+            for (String[] c : cases) {
+                String response = rawRequest(port, "HEAD " + c[0] + " HTTP/1.1\r\nHost: localhost\r\n" + c[1] + "\r\n"
+                        + "GET /app/greeting?name=Next HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                int next = response.indexOf("\r\n\r\n") + 4;
+                assertTrue(response.substring(0, next).contains(c[2]), "Unexpected head: " + response);
+                assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n", next) && response.endsWith("\r\n\r\nHello, Next!"),
+                        "Body after the HEAD response: " + response);
+            }
+        }
+    }
+
+    @Test
+    public void reusePortAcceptorsServeConcurrentConnections() throws Exception {
+        String[][] servers = {{"9110", "BLOCKING"}, {"9111", "NIO"}};
+        for (String[] server : servers) {
+            int port = Integer.parseInt(server[0]);
+            Process process = startServer(port, "IO_MODE", server[1], "ACCEPTORS", "4", "LISTEN_BACKLOG", "256",
+                    "SO_RCVBUF", "262144", "SO_SNDBUF", "262144");
+            try {
+                List<CompletableFuture<String>> responses = new java.util.ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    String request = "GET /app/greeting?name=" + i + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+                    responses.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return rawRequest(port, request);
+                        } catch (IOException e) {
+                            throw new java.io.UncheckedIOException(e);
+                        }
+                    }));
+                }
+                for (int i = 0; i < responses.size(); i++) {
+                    String response = responses.get(i).get(10, java.util.concurrent.TimeUnit.SECONDS);
+                    assertTrue(response.startsWith("HTTP/1.1 200 OK") && response.endsWith("Hello, " + i + "!"),
+                            server[1] + ": " + response);
+                }
+            } finally {
+                stopServer(process);
+            }
+        }
+    }
+
+    @Test
+    public void deadlinesCloseSlowAndIdleConnections() throws Exception {
+        String[][] servers = {{"9102", "BLOCKING"}, {"9103", "NIO"}};
+        for (String[] server : servers) {
+            int port = Integer.parseInt(server[0]);
+            Process process = startServer(port, "IO_MODE", server[1], "READ_TIMEOUT_MS", "600", "MIN_READ_RATE", "500",
+                    "KEEP_ALIVE_TIMEOUT_MS", "500");
+            try {
+                // A byte every 50 ms earns the head far less than it takes.
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setSoTimeout(5000);
+                    OutputStream out = socket.getOutputStream();
+                    out.write("GET /app/greeting?name=".getBytes(StandardCharsets.US_ASCII));
+                    Thread trickle = new Thread(() -> {
+                        try {
+                            while (true) {
+                                Thread.sleep(50);
+                                out.write('a');
+                            }
+                        } catch (IOException | InterruptedException e) {
+                            // Closed by the server, or by the test.
+                        }
+                    });
+                    trickle.setDaemon(true);
+                    trickle.start();
+                    String response = new String(readUntilClosed(socket), StandardCharsets.UTF_8);
+                    trickle.interrupt();
+                    assertTrue(response.startsWith("HTTP/1.1 408"), server[1] + ": " + response);
+                }
+
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setSoTimeout(5000);
+                    socket.getOutputStream().write("GET /app/greeting?name=Idle HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                            .getBytes(StandardCharsets.US_ASCII));
+                    assertTrue(readResponse(socket.getInputStream()).contains("Connection: keep-alive"));
+                    long idle = System.nanoTime();
+                    assertEquals(0, readUntilClosed(socket).length, server[1]);
+                    long millis = (System.nanoTime() - idle) / 1_000_000;
+                    assertTrue(millis >= 400, server[1] + ": closed after " + millis + " ms");
+                }
+            } finally {
+                stopServer(process);
+            }
+        }
+    }
+
+    /**
+     * @return what arrives until the server closes the connection, fails
+     * if that takes longer than the socket's timeout
+     */
+    private static byte[] readUntilClosed(Socket socket) throws IOException {
+        java.io.ByteArrayOutputStream received = new java.io.ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try {
+            int n;
+            while ((n = socket.getInputStream().read(buf)) >= 0) {
+                received.write(buf, 0, n);
+            }
+        } catch (java.net.SocketTimeoutException e) {
+            throw e;
+        } catch (java.net.SocketException e) {
+            // Reset: the server closed while the client was still sending.
+        }
+        return received.toByteArray();
+    }
+
+    @Test
+    public void tlsServesHttp1AndHttp2InBothModes() throws Exception {
+        // A self-signed certificate for localhost, trusted by this client only.
+        Path keyStore = Paths.get("src/test/resources/localhost.p12").toAbsolutePath();
+        java.security.KeyStore trusted = java.security.KeyStore.getInstance("PKCS12");
+        try (java.io.InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, "changeit".toCharArray());
+        }
+        javax.net.ssl.TrustManagerFactory trust = javax.net.ssl.TrustManagerFactory.getInstance(
+                javax.net.ssl.TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(trusted);
+        javax.net.ssl.SSLContext ssl = javax.net.ssl.SSLContext.getInstance("TLS");
+        ssl.init(null, trust.getTrustManagers(), null);
+
+        // Both are many times one 16 KB TLS record.
+        byte[] image = new byte[1 << 20];
+        new java.util.Random(2).nextBytes(image);
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(image);
+        String[][] servers = {{"9104", "BLOCKING"}, {"9105", "NIO"}};
+        for (String[] server : servers) {
+            Process process = startServer(Integer.parseInt(server[0]), "IO_MODE", server[1],
+                    "TLS_KEYSTORE", keyStore.toString(), "TLS_KEYSTORE_PASSWORD", "changeit");
+            try {
+                String base = "https://localhost:" + server[0];
+                for (HttpClient.Version version : HttpClient.Version.values()) {
+                    HttpClient client = HttpClient.newBuilder().sslContext(ssl).version(version).build();
+                    String context = server[1] + " " + version;
+                    HttpResponse<String> hello = client.send(java.net.http.HttpRequest.newBuilder(
+                            URI.create(base + "/app/greeting?name=Tls")).build(), HttpResponse.BodyHandlers.ofString());
+                    assertEquals("Hello, Tls!", hello.body(), context);
+                    assertEquals(version, hello.version(), context);
+
+                    HttpResponse<String> export = client.send(java.net.http.HttpRequest.newBuilder(
+                            URI.create(base + "/app/users/export?count=20000")).build(), HttpResponse.BodyHandlers.ofString());
+                    assertTrue(export.body().endsWith("user-20000\n"), context);
+                    assertEquals(20000, export.body().split("\n").length, context);
+
+                    HttpResponse<String> avatar = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/app/users/5/avatar"))
+                            .PUT(java.net.http.HttpRequest.BodyPublishers.ofByteArray(image)).build(), HttpResponse.BodyHandlers.ofString());
+                    assertEquals("Avatar of user 5: " + image.length + " bytes, crc " + Long.toHexString(crc.getValue()),
+                            avatar.body(), context);
+                }
+            } finally {
+                stopServer(process);
+            }
+        }
+    }
+
+    @Test
+    public void admissionRejectsOrQueuesWorkOverTheLimit() throws Exception {
+        // One request at a time plus one waiting: an upload the client holds
+        // open takes the first slot and a second request the other.
+        String[][] servers = {{"9106", "BLOCKING", "REJECT"}, {"9107", "NIO", "REJECT"},
+            {"9108", "BLOCKING", "BLOCK"}, {"9109", "NIO", "BLOCK"}};
+        for (String[] server : servers) {
+            int port = Integer.parseInt(server[0]);
+            String context = server[1] + " " + server[2];
+            Process process = startServer(port, "IO_MODE", server[1], "ADMISSION", server[2],
+                    "EXECUTOR_MODE", "VIRTUAL", "MAX_CONCURRENCY", "1", "QUEUE_CAPACITY", "1");
+            // The readiness probe held a slot too; let its worker give it back.
+            assertTrue(rawRequest(port, "GET /app/greeting?name=Ready HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .endsWith("Hello, Ready!"), context);
+            Thread.sleep(200);
+            try (Socket upload = new Socket("localhost", port); Socket waiting = new Socket("localhost", port)) {
+                upload.setSoTimeout(5000);
+                waiting.setSoTimeout(5000);
+                upload.getOutputStream().write(("PUT /app/users/1/avatar HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Length: 10\r\nConnection: close\r\n\r\n01234").getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(300);
+                waiting.getOutputStream().write("GET /app/greeting?name=Waiting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(300);
+                try (Socket over = new Socket("localhost", port)) {
+                    over.getOutputStream().write("GET /app/greeting?name=Over HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                            .getBytes(StandardCharsets.US_ASCII));
+                    if (server[2].equals("REJECT")) {
+                        over.setSoTimeout(5000);
+                        String shed = new String(readUntilClosed(over), StandardCharsets.UTF_8);
+                        assertTrue(shed.startsWith("HTTP/1.1 503") && shed.contains("Retry-After: 1\r\n"), context + ": " + shed);
+                    } else {
+                        over.setSoTimeout(500);
+                        org.junit.jupiter.api.Assertions.assertThrows(java.net.SocketTimeoutException.class,
+                                () -> over.getInputStream().read(), context + ": answered while the slots are taken");
+                    }
+
+                    upload.getOutputStream().write("56789".getBytes(StandardCharsets.US_ASCII));
+                    String uploaded = new String(readUntilClosed(upload), StandardCharsets.UTF_8);
+                    assertTrue(uploaded.contains("Avatar of user 1: 10 bytes"), context + ": " + uploaded);
+                    String waited = new String(readUntilClosed(waiting), StandardCharsets.UTF_8);
+                    assertTrue(waited.endsWith("Hello, Waiting!"), context + ": " + waited);
+                    if (server[2].equals("BLOCK")) {
+                        over.setSoTimeout(5000);
+                        String queued = new String(readUntilClosed(over), StandardCharsets.UTF_8);
+                        assertTrue(queued.endsWith("Hello, Over!"), context + ": " + queued);
+                    }
+                }
+            } finally {
+                stopServer(process);
+            }
+        }
+    }
+
+    @Test
+    public void blockingHttp2StreamsOverTheLimitAreShed() throws Exception {
+        // Fixed workers and one queued task, as in the default setup; the
+        // connection's own thread holds one of those slots.
+        int workers = Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+        int streams = workers + 4;
+        org.junit.jupiter.api.Assumptions.assumeTrue(streams <= 100, "More workers than streams per connection");
+        int port = 9112;
+        Process process = startServer(port, "IO_MODE", "BLOCKING", "QUEUE_CAPACITY", "1");
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+            String base = "http://localhost:" + port + "/app";
+            HttpResponse<String> upgraded = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/greeting?name=h2")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(HttpClient.Version.HTTP_2, upgraded.version());
+
+            List<CompletableFuture<HttpResponse<String>>> held = new java.util.ArrayList<>();
+            for (int i = 0; i < streams; i++) {
+                held.add(client.sendAsync(java.net.http.HttpRequest.newBuilder(URI.create(base + "/slow/hold?ms=1500")).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            int served = 0;
+            int shed = 0;
+            for (CompletableFuture<HttpResponse<String>> f : held) {
+                HttpResponse<String> response = f.get(20, java.util.concurrent.TimeUnit.SECONDS);
+                assertEquals(HttpClient.Version.HTTP_2, response.version());
+                if (response.statusCode() == 200) {
+                    assertEquals("Held 1500 ms", response.body());
+                    served++;
+                } else {
+                    assertEquals(503, response.statusCode(), response.body());
+                    assertEquals("1", response.headers().firstValue("retry-after").orElse(null));
+                    shed++;
+                }
+            }
+            assertTrue(served > 0 && served <= workers, served + " of " + streams + " streams served");
+            assertTrue(shed >= streams - workers, shed + " of " + streams + " streams shed");
+            // The slots come back once the held streams finish.
+            HttpResponse<String> after = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/greeting?name=After")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, after.statusCode());
+        } finally {
+            stopServer(process);
+        }
+    }
+
+    @Test
+    public void gatewayTimeoutToAStalledClientDoesNotHoldUpOthers() throws Exception {
+        String[][] servers = {{"9113", "BLOCKING"}, {"9114", "NIO"}};
+        for (String[] server : servers) {
+            int port = Integer.parseInt(server[0]);
+            Process process = startServer(port, "IO_MODE", server[1]);
+            try (Socket stalled = new Socket("localhost", port)) {
+                // HTTP/2 with a flow control window of 0 that is never opened,
+                // so the DATA of its 504 cannot be sent.
+                java.io.ByteArrayOutputStream frames = new java.io.ByteArrayOutputStream();
+                frames.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                frames.write(new byte[]{0, 0, 6, 0x4, 0, 0, 0, 0, 0, 0, 0x4, 0, 0, 0, 0});
+                java.io.ByteArrayOutputStream block = new java.io.ByteArrayOutputStream();
+                // :method GET and :scheme http from the static table, then :path and :authority literals.
+                block.write(new byte[]{(byte) 0x82, (byte) 0x86});
+                byte[] path = "/app/slow/never".getBytes(StandardCharsets.US_ASCII);
+                block.write(0x04);
+                block.write(path.length);
+                block.write(path);
+                byte[] authority = "localhost".getBytes(StandardCharsets.US_ASCII);
+                block.write(0x01);
+                block.write(authority.length);
+                block.write(authority);
+                // HEADERS with END_STREAM and END_HEADERS on stream 1.
+                frames.write(new byte[]{0, 0, (byte) block.size(), 0x1, 0x5, 0, 0, 0, 1});
+                block.writeTo(frames);
+                stalled.getOutputStream().write(frames.toByteArray());
+                // Past its timeout, so its 504 is being written.
+                Thread.sleep(600);
+
+                long start = System.currentTimeMillis();
+                String other = rawRequest(port, "GET /app/slow/never HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                long elapsed = System.currentTimeMillis() - start;
+                assertTrue(other.startsWith("HTTP/1.1 504"), server[1] + ": " + other);
+                assertTrue(elapsed < 3000, server[1] + ": 504 after " + elapsed + " ms");
+            } finally {
+                stopServer(process);
+            }
+        }
+    }
+
+    @Test
+    public void headersSplitAcrossSegmentsOK() throws Exception {
+        for (int port : PORTS) {
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                out.write("GET /app/greeting?name=Split HTTP/1.1\r\nHost: loc".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(100);
+                out.write("alhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(response.startsWith("HTTP/1.1 200 OK"), "Unexpected response: " + response);
+                assertTrue(response.endsWith("Hello, Split!"), "Unexpected response: " + response);
+            }
+        }
+    }
+
+    @Test
+    public void http2UpgradeMultiplexesStaticFilesAndRoutes() throws Exception {
+        for (int port : PORTS) {
+            http2Upgrade(port);
+        }
+    }
+
+    private static void http2Upgrade(int port) throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        // The first request upgrades the connection to h2c; the rest share it.
+        HttpResponse<String> first = client.send(java.net.http.HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + "/app/greeting?name=H2")).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(HttpClient.Version.HTTP_2, first.version());
+        assertEquals("Hello, H2!", first.body());
+
+        List<String> files = List.of("index.html", "styles.css", "code.js", "james.jpg");
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = new java.util.ArrayList<>();
+        for (String file : files) {
+            responses.add(client.sendAsync(java.net.http.HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + port + "/" + file)).build(), HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        for (int i = 0; i < files.size(); i++) {
+            HttpResponse<byte[]> response = responses.get(i).get(10, java.util.concurrent.TimeUnit.SECONDS);
+            assertEquals(200, response.statusCode());
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertArrayEquals(Files.readAllBytes(filesBasePath.resolve(files.get(i))), response.body());
+        }
+    }
+
 }
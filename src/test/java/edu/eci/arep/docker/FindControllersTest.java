@@ -0,0 +1,104 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import edu.eci.arep.docker.annotations.RestController;
+import edu.eci.arep.docker.controller.HelloRestController;
+import edu.eci.arep.docker.controller.SlowRestController;
+import edu.eci.arep.docker.controller.UserRestController;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Jaider Vargas
+ */
+public class FindControllersTest {
+
+    private static final String BASE = "edu.eci.arep.docker.controller";
+
+    /**
+     * A class loader that answers the index lookup with {@code indexes}
+     * only, and everything else as the test's own.
+     */
+    private static final class IndexLoader extends ClassLoader {
+
+        private final List<URL> indexes;
+
+        IndexLoader(List<URL> indexes) {
+            super(FindControllersTest.class.getClassLoader());
+            this.indexes = indexes;
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            if (ControllerIndexProcessor.INDEX.equals(name)) {
+                return Collections.enumeration(indexes);
+            }
+            return super.getResources(name);
+        }
+    }
+
+    private static <T> T withContextLoader(ClassLoader loader, Callable<T> action) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            return action.call();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    @Test
+    public void compilerWritesTheIndexWithRoutes() throws Exception {
+        // The test classes have an index of their own.
+        List<URL> indexes = Collections.list(getClass().getClassLoader().getResources(ControllerIndexProcessor.INDEX));
+        assertFalse(indexes.isEmpty(), "No controller index on the classpath");
+        String content = "";
+        for (URL index : indexes) {
+            try (InputStream in = index.openStream()) {
+                content += new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        assertTrue(content.contains(HelloRestController.class.getName() + "\t/greeting"), content);
+        assertTrue(content.contains(UserRestController.class.getName() + "\t"), content);
+        assertTrue(content.contains("\tPUT /users/{id}/avatar"), content);
+        assertTrue(content.contains(SlowRestController.class.getName() + "\t/slow/hold"), content);
+    }
+
+    @Test
+    public void indexIsPreferredOverTheScan(@TempDir Path dir) throws Exception {
+        // Lists one of the controllers, so a scan would find more.
+        Path index = dir.resolve("controllers");
+        Files.writeString(index, "# test index\n" + HelloRestController.class.getName() + "\t/greeting\n"
+                + "edu.eci.arep.docker.controller.Missing\t/gone\n"
+                + "edu.eci.arep.docker.other.Elsewhere\t/other\n");
+        Set<Class<?>> found = withContextLoader(new IndexLoader(List.of(index.toUri().toURL())),
+                () -> FindControllers.find(BASE, RestController.class));
+        assertEquals(Set.of(HelloRestController.class), found);
+    }
+
+    @Test
+    public void packageIsScannedWithoutAnIndex() throws Exception {
+        Set<Class<?>> found = withContextLoader(new IndexLoader(List.of()),
+                () -> FindControllers.find(BASE, RestController.class));
+        assertEquals(Set.of(HelloRestController.class, UserRestController.class, SlowRestController.class), found);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Jaider Vargas
+ */
+public class SocketSettingsTest {
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    @Test
+    public void listenersShareThePortAndAcceptEveryConnection() throws Exception {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            assumeTrue(probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT));
+        }
+        int port = freePort();
+        SocketSettings settings = new SocketSettings(64, true, 128 * 1024, 0);
+        List<ServerSocketChannel> listeners = settings.listen(port, 4);
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            assertEquals(4, listeners.size());
+            for (ServerSocketChannel listener : listeners) {
+                assertEquals(port, ((InetSocketAddress) listener.getLocalAddress()).getPort());
+                assertTrue(listener.getOption(StandardSocketOptions.SO_REUSEPORT));
+                assertTrue(listener.getOption(StandardSocketOptions.SO_RCVBUF) >= 128 * 1024);
+                listener.configureBlocking(false);
+            }
+            for (int i = 0; i < 32; i++) {
+                clients.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+            }
+            // Wherever the kernel put each connection, some listener has it.
+            int accepted = 0;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (accepted < clients.size() && System.currentTimeMillis() < deadline) {
+                for (ServerSocketChannel listener : listeners) {
+                    SocketChannel socket = listener.accept();
+                    if (socket != null) {
+                        settings.configure(socket);
+                        assertTrue(socket.getOption(StandardSocketOptions.TCP_NODELAY));
+                        socket.close();
+                        accepted++;
+                    }
+                }
+            }
+            assertEquals(clients.size(), accepted);
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            for (ServerSocketChannel listener : listeners) {
+                listener.close();
+            }
+        }
+    }
+
+    @Test
+    public void oneListenerNeedsNoReusePort() throws Exception {
+        int port = freePort();
+        List<ServerSocketChannel> listeners = new SocketSettings(0, false, 0, 0).listen(port, 1);
+        try {
+            assertEquals(1, listeners.size());
+            assertEquals(port, ((InetSocketAddress) listeners.get(0).getLocalAddress()).getPort());
+            // A second server on the same port is still refused.
+            try (ServerSocketChannel other = ServerSocketChannel.open()) {
+                assertThrows(java.net.BindException.class,
+                        () -> other.bind(new InetSocketAddress(port)));
+            }
+        } finally {
+            listeners.get(0).close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Jaider Vargas
+ */
+public class StaticFileCacheTest {
+
+    @Test
+    public void fileAddedAfterA404IsServedOnceTheMissExpires(@TempDir Path dir) throws Exception {
+        StaticFileCache cache = new StaticFileCache(1 << 20, 16, 1 << 16);
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        try (URLClassLoader files = new URLClassLoader(new URL[]{dir.toUri().toURL()}, null)) {
+            thread.setContextClassLoader(files);
+            assertNull(cache.get("late.txt"));
+            Files.writeString(dir.resolve("late.txt"), "Here now");
+            // Still the cached 404 for a while, without going back to the disk.
+            assertNull(cache.get("late.txt"));
+            assertEquals(1, cache.hits.sum());
+
+            Thread.sleep(StaticFileCache.MISSING_TTL_MS + 100);
+            StaticFileCache.Entry entry = cache.get("late.txt");
+            assertNotNull(entry);
+            assertEquals("Here now".length(), entry.length);
+        } finally {
+            thread.setContextClassLoader(previous);
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Jaider Vargas
+ */
+public class TimingWheelTest {
+
+    // 100 ms ticks over 8 slots, so one turn of the ring is 800 ms.
+    private final TimingWheel wheel = new TimingWheel(100, 8, 0);
+
+    private static final class Counted extends TimingWheel.Timeout {
+
+        final List<Long> expired = new ArrayList<>();
+
+        @Override
+        void expire(long now) {
+            expired.add(now);
+        }
+    }
+
+    @Test
+    public void expiresOnTheFirstTickAfterItsDeadline() {
+        Counted t = new Counted();
+        wheel.schedule(t, 250);
+        wheel.advance(200);
+        wheel.advance(299);
+        assertTrue(t.expired.isEmpty());
+        wheel.advance(300);
+        assertEquals(List.of(300L), t.expired);
+        assertFalse(t.isScheduled());
+        assertTrue(wheel.isEmpty());
+        wheel.advance(1000);
+        assertEquals(1, t.expired.size());
+    }
+
+    @Test
+    public void cancelledTimeoutNeverExpires() {
+        Counted t = new Counted();
+        wheel.schedule(t, 300);
+        wheel.cancel(t);
+        wheel.cancel(t);
+        assertTrue(wheel.isEmpty());
+        wheel.advance(5000);
+        assertTrue(t.expired.isEmpty());
+    }
+
+    @Test
+    public void rescheduleReplacesTheEarlierDeadline() {
+        Counted t = new Counted();
+        wheel.schedule(t, 300);
+        wheel.schedule(t, 150);
+        wheel.advance(200);
+        assertEquals(List.of(200L), t.expired);
+        wheel.advance(400);
+        assertEquals(1, t.expired.size());
+    }
+
+    @Test
+    public void deadlinesBeyondOneTurnWaitForTheirTurn() {
+        Counted t = new Counted();
+        wheel.schedule(t, 2050);
+        for (long now = 100; now < 2050; now += 100) {
+            wheel.advance(now);
+            assertTrue(t.expired.isEmpty(), "Expired at " + now);
+        }
+        wheel.advance(2100);
+        assertEquals(List.of(2100L), t.expired);
+    }
+
+    @Test
+    public void postponedTimeoutIsRelinkedToItsNewSlot() {
+        Counted t = new Counted();
+        Counted other = new Counted();
+        wheel.schedule(t, 150);
+        wheel.schedule(other, 150);
+        // Past the next turn of the ring, without touching the wheel.
+        t.postpone(1100);
+        // Earlier times are ignored.
+        t.postpone(500);
+        assertEquals(1100, t.deadline());
+        for (long now = 100; now < 1100; now += 10) {
+            wheel.advance(now);
+            assertTrue(t.expired.isEmpty(), "Expired at " + now);
+        }
+        assertEquals(List.of(200L), other.expired);
+        assertTrue(t.isScheduled());
+        wheel.advance(1100);
+        assertEquals(List.of(1100L), t.expired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void advancingAfterALongPauseExpiresEverythingDueOnce() {
+        List<Counted> due = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            Counted t = new Counted();
+            wheel.schedule(t, i * 97L);
+            due.add(t);
+        }
+        Counted later = new Counted();
+        wheel.schedule(later, 100_500);
+        wheel.advance(100_000);
+        for (Counted t : due) {
+            assertEquals(List.of(100_000L), t.expired);
+        }
+        assertTrue(later.expired.isEmpty());
+        assertFalse(wheel.isEmpty());
+        wheel.advance(100_500);
+        assertEquals(List.of(100_500L), later.expired);
+    }
+
+    @Test
+    public void expiredTimeoutMayScheduleItselfAgain() {
+        List<Long> fired = new ArrayList<>();
+        TimingWheel.Timeout periodic = new TimingWheel.Timeout() {
+            @Override
+            void expire(long now) {
+                fired.add(now);
+                if (fired.size() < 3) {
+                    wheel.schedule(this, now + 300);
+                }
+            }
+        };
+        wheel.schedule(periodic, 300);
+        for (long now = 100; now <= 2000; now += 100) {
+            wheel.advance(now);
+        }
+        assertEquals(List.of(300L, 600L, 900L), fired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnTheNextAdvance() {
+        wheel.advance(1000);
+        Counted t = new Counted();
+        wheel.schedule(t, 500);
+        wheel.advance(1000);
+        wheel.advance(1100);
+        assertEquals(1, t.expired.size());
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package edu.eci.arep.docker.controller;
+
+import edu.eci.arep.docker.annotations.GetMapping;
+import edu.eci.arep.docker.annotations.RequestParam;
+import edu.eci.arep.docker.annotations.RestController;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handlers that take their time, for the tests of overload and timeouts.
+ * Only on the test classpath.
+ *
+ * @author Jaider Vargas
+ */
+@RestController
+public class SlowRestController {
+
+@GetMapping("/slow/hold")
+public static String hold(@RequestParam(value = "ms", defaultValue = "1000") int ms) throws InterruptedException {
+// Keeps its worker, like a handler blocked on a backend.
+Thread.sleep(ms);
+return "Held " + ms + " ms";
+}
+
+@GetMapping(value = "/slow/never", timeoutMs = 300)
+public static CompletableFuture<String> never() {
+// A backend that never answers, so the request ends with 504.
+return new CompletableFuture<>();
+}
+}